@@ -13,6 +13,7 @@ dependencies {
     implementation("com.diffplug.spotless:spotless-plugin-gradle:6.20.0")
     implementation("com.github.johnrengelman:shadow:8.1.1")
     implementation("net.ltgt.gradle:gradle-errorprone-plugin:3.1.0")
+    implementation("me.champeau.jmh:jmh-gradle-plugin:0.7.1")
 }
 
 java {
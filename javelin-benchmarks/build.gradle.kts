@@ -0,0 +1,32 @@
+plugins {
+    id("javelin.base-conventions")
+    id("me.champeau.jmh")
+}
+
+dependencies {
+    implementation(project(":javelin-core"))
+    runtimeOnly("org.slf4j:slf4j-nop:2.0.3")
+    // The serialization benchmark uses the kryo buffers of the serializer
+    jmhImplementation("com.esotericsoftware.kryo:kryo5:5.3.0")
+    jmhAnnotationProcessor(project(":javelin-processor"))
+}
+
+jmh {
+    jmhVersion.set("1.36")
+    // The results are written as JSON to compare them between releases, with a tool like jmh.morethan.io
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    // Runs a subset of the benchmarks with -Pjmh.includes=<regex>
+    providers.gradleProperty("jmh.includes").orNull?.let { includes.add(it) }
+}
+
+tasks.register<JavaExec>("loadTest") {
+    description = "Runs the load generator against a local server, pass the options with --args."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("fr.xpdustry.javelin.LoadGenerator")
+}
+
+// The benchmarks are not a library
+tasks.withType<AbstractPublishToMaven>().configureEach {
+    enabled = false
+}
@@ -0,0 +1,56 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.*;
+
+/**
+ * A representative event, with a few fields and a payload of the given size.
+ */
+public final class BenchmarkEvent implements JavelinEvent {
+
+    private final long id;
+    private final String server;
+    private final List<String> players;
+    private final byte[] payload;
+
+    public BenchmarkEvent(final long id, final int size) {
+        this.id = id;
+        this.server = "server-" + (id % 16);
+        this.players = List.of("player-1", "player-2", "player-3");
+        this.payload = new byte[size];
+        new Random(id).nextBytes(payload);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    public List<String> getPlayers() {
+        return players;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
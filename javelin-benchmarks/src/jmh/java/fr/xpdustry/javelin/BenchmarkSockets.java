@@ -0,0 +1,68 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.net.*;
+import java.time.*;
+import java.util.concurrent.*;
+
+final class BenchmarkSockets {
+
+    static final int PORT = 12345;
+    static final Duration TIMEOUT = Duration.ofSeconds(30L);
+
+    private BenchmarkSockets() {}
+
+    static JavelinServerSocket startServer(final JavelinSocket.ServerBuilder builder) {
+        final var server = new JavelinServerSocket(builder.alwaysAllowLocalConnections(true));
+        await(server.start());
+        return server;
+    }
+
+    static JavelinClientSocket startClient() {
+        final var client = new JavelinClientSocket(JavelinSocket.clientBuilder(URI.create("ws://localhost:" + PORT)));
+        await(client.start());
+        return client;
+    }
+
+    static void close(final JavelinSocket socket) {
+        await(socket.close());
+    }
+
+    // The subscriptions are sent to the server asynchronously
+    static void awaitInterest(
+            final JavelinServerSocket server, final Class<? extends JavelinEvent> event, final int count)
+            throws InterruptedException {
+        final var deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (server.countInterestedConnections(event) != count) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("The clients did not subscribe in time.");
+            }
+            Thread.sleep(10L);
+        }
+    }
+
+    static void await(final CompletableFuture<Void> future) {
+        try {
+            future.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException | ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("The socket operation failed.", e);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.checkerframework.checker.nullness.qual.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the compression of the frames sent to a connection and their decompression by the receiver, with json
+ * events of mixed sizes, each operation being one event. The average size of the frames sent per event is reported by
+ * the {@code frameBytes} counter of the compression.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+
+    private static final int EVENTS = 10_000;
+    // The cost of compressing a frame grows with the size of the dictionary, a few samples are enough
+    private static final int DICTIONARY_SAMPLES = 8;
+
+    @Param({"disabled", "always", "threshold", "threshold-level-1", "threshold-dictionary", "always-dictionary"})
+    public String policy = "disabled";
+
+    // Replaced in setup, once the policy is set
+    private FrameCompressor compressor = new FrameCompressor(CompressionPolicy.disabled(), frame -> {});
+    private ByteBuffer[] frames = new ByteBuffer[0];
+    private ByteBuffer[] sent = new ByteBuffer[0];
+    private double averageFrameBytes = 0D;
+    private int next = 0;
+    private int lastFrameBytes = 0;
+
+    @Setup
+    public void setup() {
+        final var random = new Random(0L);
+        final var samples = new ArrayList<JsonBenchmarkEvent>();
+        for (int i = 0; i < DICTIONARY_SAMPLES; i++) {
+            samples.add(JsonBenchmarkEvent.random(random));
+        }
+        final var serializer = new EventSerializer();
+        frames = new ByteBuffer[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            final var output = serializer.serialize(JsonBenchmarkEvent.random(random));
+            try {
+                frames[i] = copy(output.getByteBuffer());
+            } finally {
+                serializer.release(output);
+            }
+        }
+
+        final var dictionary = CompressionPolicy.createDictionary(samples);
+        final var compression =
+                switch (policy) {
+                    case "disabled" -> CompressionPolicy.disabled();
+                    case "always" -> CompressionPolicy.of(0);
+                    case "threshold" -> CompressionPolicy.of(256);
+                    case "threshold-level-1" -> CompressionPolicy.of(256, 1);
+                    case "threshold-dictionary" -> CompressionPolicy.of(256).withDictionary(dictionary);
+                    case "always-dictionary" -> CompressionPolicy.of(0).withDictionary(dictionary);
+                    default -> throw new IllegalArgumentException("Unknown policy: " + policy);
+                };
+
+        // The frames received by the peer, compressed once to measure their decompression
+        final var received = new ArrayList<ByteBuffer>(EVENTS);
+        final var setupCompressor = new FrameCompressor(compression, frame -> received.add(copy(frame.duplicate())));
+        for (final var frame : frames) {
+            setupCompressor.send(frame.duplicate());
+        }
+        sent = received.toArray(new ByteBuffer[0]);
+        averageFrameBytes =
+                received.stream().mapToInt(ByteBuffer::remaining).average().orElse(0D);
+        compressor = new FrameCompressor(compression, frame -> lastFrameBytes = frame.remaining());
+    }
+
+    @Benchmark
+    public int compress(final FrameSize size) {
+        compressor.send(frames[next].duplicate());
+        next = (next + 1) % frames.length;
+        size.frameBytes = averageFrameBytes;
+        return lastFrameBytes;
+    }
+
+    @Benchmark
+    public @Nullable ByteBuffer decompress() {
+        final var frame = sent[next].duplicate();
+        next = (next + 1) % sent.length;
+        return EventSerializer.getFrameType(frame) == Internal.COMPRESSED_FRAME ? compressor.decompress(frame) : frame;
+    }
+
+    private static ByteBuffer copy(final ByteBuffer buffer) {
+        final var copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer).flip();
+        return copy;
+    }
+
+    // Set rather than incremented, so the reported total is the average size of a frame
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FrameSize {
+
+        public double frameBytes;
+    }
+}
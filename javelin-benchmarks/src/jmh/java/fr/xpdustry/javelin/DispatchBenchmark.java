@@ -0,0 +1,88 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the throughput of the worker threads and of the virtual threads posting the received events, with
+ * subscribers blocking for a few milliseconds, like on a database call. The events are spread over distinct ordering
+ * keys, so they can be handled in parallel, or all have the same key, like the events of a class without
+ * {@link OrderedEvent}, which are handled one at a time by every executor. The virtual threads require Java 21, their
+ * benchmark fails on older versions.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+
+    private static final int EVENTS = 1_000;
+    private static final long BLOCKING_MILLIS = 5L;
+
+    // The number of dispatch workers, or "virtual" for the virtual threads
+    @Param({"1", "4", "16", "64", "256", "virtual"})
+    public String executor = "1";
+
+    // The number of distinct ordering keys of the events
+    @Param({"1", "250"})
+    public int keys = 250;
+
+    // Replaced in setup, once the executor is set
+    private OrderedExecutor ordered = new StripedExecutor(1);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ordered.shutdown();
+        if (executor.equals("virtual")) {
+            final var virtual = VirtualThreadExecutor.create();
+            if (virtual == null) {
+                throw new IllegalStateException("The virtual threads require Java 21.");
+            }
+            ordered = virtual;
+        } else {
+            ordered = new StripedExecutor(Integer.parseInt(executor));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void dispatch() throws InterruptedException {
+        final var latch = new CountDownLatch(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            ordered.execute(i % keys, () -> {
+                try {
+                    Thread.sleep(BLOCKING_MILLIS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ordered.shutdown();
+    }
+}
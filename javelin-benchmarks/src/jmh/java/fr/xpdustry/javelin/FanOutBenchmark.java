@@ -0,0 +1,90 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the time for an event relayed by the server to reach the last of its loopback receivers, sampled to get its
+ * percentiles. Since the first receiver is reached in about the same time whatever the number of receivers, the
+ * difference between the peer counts is the delivery skew, the time the last receivers wait for the others to be
+ * written. The clients run in the same process as the server, so they compete with the fan-out threads for the cores.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FanOutBenchmark {
+
+    @Param({"8", "32", "64"})
+    public int peers;
+
+    @Param({"64", "1024"})
+    public int size;
+
+    // The threads writing the shards of the receivers along with the relaying thread, 0 for a sequential fan-out
+    @Param({"0", "3"})
+    public int fanOutWorkers;
+
+    private final AtomicLong received = new AtomicLong();
+    private final List<JavelinClientSocket> clients = new ArrayList<>();
+    // Replaced in setup, once the parameters are set
+    private JavelinSocket server = JavelinSocket.noop();
+    private JavelinSocket sender = JavelinSocket.noop();
+    private BenchmarkEvent event = new BenchmarkEvent(0L, 0);
+    private long expected = 0L;
+
+    @Setup(Level.Trial)
+    public void setup() throws InterruptedException {
+        final var server = BenchmarkSockets.startServer(
+                JavelinSocket.serverBuilder(BenchmarkSockets.PORT, (username, password) -> true)
+                        .relayOnly(true)
+                        .fanOutWorkers(fanOutWorkers));
+        this.server = server;
+        for (int i = 0; i < peers; i++) {
+            final var client = BenchmarkSockets.startClient();
+            client.subscribe(BenchmarkEvent.class, ignored -> received.incrementAndGet());
+            clients.add(client);
+        }
+        BenchmarkSockets.awaitInterest(server, BenchmarkEvent.class, peers);
+        sender = BenchmarkSockets.startClient();
+        event = new BenchmarkEvent(1L, size);
+    }
+
+    @Benchmark
+    public void fanOut() {
+        sender.sendEvent(event);
+        expected += peers;
+        while (received.get() < expected) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSockets.close(sender);
+        clients.forEach(BenchmarkSockets::close);
+        BenchmarkSockets.close(server);
+    }
+}
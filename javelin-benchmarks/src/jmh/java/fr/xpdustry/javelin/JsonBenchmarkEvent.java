@@ -0,0 +1,59 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.*;
+
+/**
+ * An event carrying a json document, like the events of {@code javelin-mindustry}. Unlike the random payload of
+ * {@link BenchmarkEvent}, its content is repetitive enough to be compressed.
+ */
+public final class JsonBenchmarkEvent implements JavelinEvent {
+
+    private final String json;
+
+    public JsonBenchmarkEvent(final String json) {
+        this.json = json;
+    }
+
+    // Mostly small events, like chat messages or player joins, with a few larger ones, like player lists
+    public static JsonBenchmarkEvent random(final Random random) {
+        final var players = random.nextInt(10) < 8 ? 1 : 1 + random.nextInt(30);
+        final var builder = new StringBuilder("{\"type\":\"player-update\",\"server\":\"server-")
+                .append(random.nextInt(10))
+                .append("\",\"players\":[");
+        for (int i = 0; i < players; i++) {
+            if (i != 0) {
+                builder.append(',');
+            }
+            builder.append("{\"name\":\"player-")
+                    .append(random.nextInt(1000))
+                    .append("\",\"team\":")
+                    .append(random.nextInt(6))
+                    .append(",\"admin\":")
+                    .append(random.nextBoolean())
+                    .append('}');
+        }
+        return new JsonBenchmarkEvent(builder.append("]}").toString());
+    }
+
+    public String getJson() {
+        return json;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the throughput of the server relaying the events of a client to the other loopback clients. Each
+ * operation is an event received by every client, the sender waits for the receivers to keep up every
+ * {@link #BATCH} events.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RelayBenchmark {
+
+    private static final int BATCH = 256;
+
+    @Param({"1", "8", "32"})
+    public int receivers;
+
+    @Param({"64", "1024"})
+    public int size;
+
+    // Whether the server only relays the events, without looking up their class for its own subscribers
+    @Param({"false", "true"})
+    public boolean relayOnly;
+
+    private final AtomicLong received = new AtomicLong();
+    private final List<JavelinClientSocket> clients = new ArrayList<>();
+    // Replaced in setup, once the parameters are set
+    private JavelinSocket server = JavelinSocket.noop();
+    private JavelinSocket sender = JavelinSocket.noop();
+    private BenchmarkEvent event = new BenchmarkEvent(0L, 0);
+    private long expected = 0L;
+
+    @Setup(Level.Trial)
+    public void setup() throws InterruptedException {
+        final var server = BenchmarkSockets.startServer(
+                JavelinSocket.serverBuilder(BenchmarkSockets.PORT, (username, password) -> true)
+                        .relayOnly(relayOnly));
+        this.server = server;
+        for (int i = 0; i < receivers; i++) {
+            final var client = BenchmarkSockets.startClient();
+            client.subscribe(BenchmarkEvent.class, ignored -> received.incrementAndGet());
+            clients.add(client);
+        }
+        BenchmarkSockets.awaitInterest(server, BenchmarkEvent.class, receivers);
+        sender = BenchmarkSockets.startClient();
+        event = new BenchmarkEvent(1L, size);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void relay() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            sender.sendEvent(event);
+        }
+        expected += (long) BATCH * receivers;
+        while (received.get() < expected) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSockets.close(sender);
+        clients.forEach(BenchmarkSockets::close);
+        BenchmarkSockets.close(server);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the time for an event sent by a client to reach a peer and for its reply to come back, through the
+ * server. The sample time mode reports the percentiles of the round trips.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+    @Param({"64", "1024"})
+    public int size;
+
+    private final BlockingQueue<BenchmarkEvent> replies = new LinkedBlockingQueue<>();
+    // Replaced in setup, once the parameters are set
+    private JavelinSocket server = JavelinSocket.noop();
+    private JavelinSocket client = JavelinSocket.noop();
+    private JavelinSocket peer = JavelinSocket.noop();
+    private BenchmarkEvent event = new BenchmarkEvent(0L, 0);
+
+    @Setup(Level.Trial)
+    public void setup() throws InterruptedException {
+        final var server = BenchmarkSockets.startServer(
+                JavelinSocket.serverBuilder(BenchmarkSockets.PORT, (username, password) -> true));
+        this.server = server;
+        peer = BenchmarkSockets.startClient();
+        peer.subscribe(BenchmarkEvent.class, event -> peer.sendEvent(new ReplyEvent(event)));
+        client = BenchmarkSockets.startClient();
+        client.subscribe(ReplyEvent.class, reply -> replies.add(reply.getEvent()));
+        BenchmarkSockets.awaitInterest(server, BenchmarkEvent.class, 1);
+        BenchmarkSockets.awaitInterest(server, ReplyEvent.class, 1);
+        event = new BenchmarkEvent(1L, size);
+    }
+
+    @Benchmark
+    public BenchmarkEvent roundTrip() throws InterruptedException {
+        client.sendEvent(event);
+        return replies.take();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSockets.close(client);
+        BenchmarkSockets.close(peer);
+        BenchmarkSockets.close(server);
+    }
+
+    public static final class ReplyEvent implements JavelinEvent {
+
+        private final BenchmarkEvent event;
+
+        public ReplyEvent(final BenchmarkEvent event) {
+            this.event = event;
+        }
+
+        public BenchmarkEvent getEvent() {
+            return event;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import com.esotericsoftware.kryo.kryo5.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.checkerframework.checker.nullness.qual.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the encoding and decoding of an event frame, as done by the sockets when sending and receiving an event.
+ * The size of the encoded frame is reported by the {@code frameBytes} counter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"16", "1024", "8000"})
+    public int size;
+
+    // The reflective serializer of kryo, or the codec generated by javelin-processor
+    @Param({"reflective", "generated"})
+    public String codec = "reflective";
+
+    // How the event class is referenced in the frame, by class ID or by names written inline in each frame,
+    // as done before the class IDs (plus the byte of the inline class ID) and once all the class IDs are taken
+    @Param({"class-id", "names"})
+    public String header = "class-id";
+
+    private final EventSerializer serializer = new EventSerializer();
+    private final Map<Integer, String[]> definitions = new HashMap<>();
+    // Replaced in setup, once the size is set
+    private JavelinEvent event = new BenchmarkEvent(0L, 0);
+    private byte[] frame = new byte[0];
+
+    @Setup
+    public void setup() {
+        event = codec.equals("generated") ? GeneratedBenchmarkEvent.of(1L, size) : new BenchmarkEvent(1L, size);
+        if (header.equals("names")) {
+            final var empty = ByteBuffer.allocate(0);
+            for (int i = 0; i < Internal.MAX_CLASS_IDS; i++) {
+                serializer.release(serializer.serialize(new String[] {"fr.xpdustry.javelin.FillerEvent" + i}, empty));
+            }
+        }
+        final var output = serializer.serialize(event);
+        try {
+            final var buffer = output.getByteBuffer();
+            frame = new byte[buffer.remaining()];
+            buffer.get(frame);
+            // Received by the peer before the first event frame of the class
+            final var classId = serializer.readClassId(ByteBuffer.wrap(frame));
+            if (classId != EventSerializer.INLINE_CLASS_ID) {
+                final var definition = serializer.serialize(classId);
+                try {
+                    serializer.readDefinition(definition.getByteBuffer(), definitions);
+                } finally {
+                    serializer.release(definition);
+                }
+            }
+        } finally {
+            serializer.release(output);
+        }
+    }
+
+    @Benchmark
+    public int encode(final FrameSize size) {
+        final ByteBufferOutput output = serializer.serialize(event);
+        try {
+            size.frameBytes = output.getByteBuffer().remaining();
+            return size.frameBytes;
+        } finally {
+            serializer.release(output);
+        }
+    }
+
+    @Benchmark
+    public @Nullable JavelinEvent decode() {
+        final var buffer = ByteBuffer.wrap(frame);
+        final var names = serializer.readEventHeader(buffer, definitions);
+        return names != null ? serializer.deserialize(names, buffer, clazz -> true) : null;
+    }
+
+    // Set rather than incremented, so the reported total is the size of a frame
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FrameSize {
+
+        public int frameBytes;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+/**
+ * The event sent by the simulated clients of the {@link LoadGenerator}.
+ */
+public final class LoadEvent implements JavelinEvent {
+
+    private final int sender;
+    private final long sentNanos;
+    private final byte[] payload;
+
+    public LoadEvent(final int sender, final long sentNanos, final byte[] payload) {
+        this.sender = sender;
+        this.sentNanos = sentNanos;
+        this.payload = payload;
+    }
+
+    public int getSender() {
+        return sender;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} of the sender when the event was sent, the clients share the same JVM.
+     */
+    public long getSentNanos() {
+        return sentNanos;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import fr.xpdustry.javelin.SimpleJavelinMetrics.*;
+import java.lang.management.*;
+import java.net.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Starts a server and simulated clients in the same JVM over loopback, each client sending events at a fixed rate
+ * to all the others. Reports the throughput, the latency percentiles, the dropped events, the heap and the threads
+ * at a fixed interval, so long runs expose the leaks of the executors and of the buffers.
+ * <br>
+ * Usage: {@code LoadGenerator [--clients 16] [--rate 100] [--mix 64:70,1024:25,32768:5] [--duration 60]
+ * [--interval 10] [--port 12345] [--workers 4] [--tcp-no-delay true]}, where the rate is the events per second sent
+ * by each client, the mix the weights of the payload sizes in bytes, and the duration and the interval are in seconds.
+ */
+public final class LoadGenerator {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30L);
+    private static final long TICK_MILLIS = 10L;
+
+    private final int clientCount;
+    private final int rate;
+    private final String mix;
+    // The payload sizes by cumulated weight
+    private final NavigableMap<Integer, Integer> sizes = new TreeMap<>();
+    private final int totalWeight;
+    private final Duration duration;
+    private final Duration interval;
+    private final int port;
+    private final int workers;
+    private final boolean tcpNoDelay;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    // Replaced at each report, the latencies of the run are recorded in the total
+    private volatile LatencyHistogram latencies = new LatencyHistogram();
+    private final LatencyHistogram totalLatencies = new LatencyHistogram();
+    private final List<JavelinSocket> clients = new ArrayList<>();
+
+    private LoadGenerator(final Map<String, String> options) {
+        this.clientCount = Integer.parseInt(options.getOrDefault("clients", "16"));
+        this.rate = Integer.parseInt(options.getOrDefault("rate", "100"));
+        this.duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "60")));
+        this.interval = Duration.ofSeconds(Long.parseLong(options.getOrDefault("interval", "10")));
+        this.port = Integer.parseInt(options.getOrDefault("port", "12345"));
+        this.workers = Integer.parseInt(options.getOrDefault("workers", "4"));
+        this.tcpNoDelay = Boolean.parseBoolean(options.getOrDefault("tcp-no-delay", "true"));
+        this.mix = options.getOrDefault("mix", "64:70,1024:25,32768:5");
+        int weights = 0;
+        for (final var entry : mix.split(",", -1)) {
+            final var parts = entry.split(":", 2);
+            sizes.put(weights, Integer.parseInt(parts[0]));
+            weights += parts.length == 2 ? Integer.parseInt(parts[1]) : 1;
+        }
+        this.totalWeight = weights;
+        if (clientCount < 2 || rate <= 0 || totalWeight <= 0) {
+            throw new IllegalArgumentException("Expected at least 2 clients, a positive rate and a positive weight.");
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final var options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        new LoadGenerator(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        final var threads = ManagementFactory.getThreadMXBean();
+        final var initialThreads = threads.getThreadCount();
+        final var metrics = JavelinMetrics.simple();
+        final var server = JavelinSocket.serverBuilder(port, (username, password) -> false)
+                .alwaysAllowLocalConnections(true)
+                .workers(workers)
+                .tcpNoDelay(tcpNoDelay)
+                .metrics(metrics)
+                .build();
+        await(server.start());
+        for (int i = 0; i < clientCount; i++) {
+            final var client = JavelinSocket.clientBuilder(URI.create("ws://localhost:" + port))
+                    .workers(workers)
+                    .tcpNoDelay(tcpNoDelay)
+                    .build();
+            await(client.start());
+            client.subscribe(LoadEvent.class, this::onEventReceive);
+            clients.add(client);
+        }
+        // The subscriptions are sent to the server asynchronously
+        Thread.sleep(1000L);
+
+        System.out.printf(
+                "%d clients sending %d events/s each for %s, mix %s (bytes:weight), TCP_NODELAY %s%n",
+                clientCount, rate, duration, mix, tcpNoDelay ? "on" : "off");
+        System.out.printf(
+                "%8s %10s %10s %10s %10s %10s %8s %8s %8s %8s%n",
+                "time", "sent/s", "recv/s", "p50 us", "p99 us", "max us", "missing", "backlog", "heap MB", "threads");
+
+        final var scheduler = Executors.newScheduledThreadPool(Math.min(clientCount, 4), runnable -> {
+            final var thread = new Thread(runnable, "javelin-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < clientCount; i++) {
+            final var sender = i;
+            final var credit = new double[1];
+            scheduler.scheduleAtFixedRate(
+                    () -> {
+                        credit[0] += rate * TICK_MILLIS / 1000D;
+                        for (; credit[0] >= 1D; credit[0] -= 1D) {
+                            send(sender);
+                        }
+                    },
+                    0L,
+                    TICK_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        final var start = System.nanoTime();
+        long lastSent = 0L;
+        long lastReceived = 0L;
+        while (System.nanoTime() - start < duration.toNanos()) {
+            Thread.sleep(interval.toMillis());
+            final var sent = this.sent.sum();
+            final var received = this.received.sum();
+            final var latencies = this.latencies;
+            this.latencies = new LatencyHistogram();
+            final var seconds = interval.toMillis() / 1000D;
+            final var runtime = Runtime.getRuntime();
+            System.out.printf(
+                    "%7ds %10.0f %10.0f %10d %10d %10d %8d %8d %8d %8d%n",
+                    Duration.ofNanos(System.nanoTime() - start).toSeconds(),
+                    (sent - lastSent) / seconds,
+                    (received - lastReceived) / seconds,
+                    toMicros(latencies.getPercentile(0.5D)),
+                    toMicros(latencies.getPercentile(0.99D)),
+                    toMicros(latencies.getPercentile(1D)),
+                    getMissing(),
+                    metrics.getGauges().getOrDefault("server[" + port + "].dispatch.backlog", 0L),
+                    (runtime.totalMemory() - runtime.freeMemory()) / (1024L * 1024L),
+                    threads.getThreadCount());
+            lastSent = sent;
+            lastReceived = received;
+        }
+
+        // Waits for the events in flight before counting the lost ones
+        scheduler.shutdown();
+        final var deadline = System.nanoTime() + TIMEOUT.toNanos();
+        long previous = -1L;
+        while (System.nanoTime() < deadline && received.sum() != previous) {
+            previous = received.sum();
+            Thread.sleep(1000L);
+        }
+        for (final var client : clients) {
+            await(client.close());
+        }
+        await(server.close());
+        System.gc();
+        Thread.sleep(1000L);
+
+        final var outbound = getOutboundStatistics();
+        System.out.printf(
+                "Sent %d events, %d written, %d failed, %d received of %d expected, %d dropped by the queues.%n",
+                sent.sum(),
+                written.sum(),
+                failed.sum(),
+                received.sum(),
+                written.sum() * (clientCount - 1),
+                outbound.getDroppedOldest() + outbound.getDroppedNewest() + outbound.getRejected());
+        System.out.printf(
+                "Latency: p50 %d us, p90 %d us, p99 %d us, p99.9 %d us, max %d us.%n",
+                toMicros(totalLatencies.getPercentile(0.5D)),
+                toMicros(totalLatencies.getPercentile(0.9D)),
+                toMicros(totalLatencies.getPercentile(0.99D)),
+                toMicros(totalLatencies.getPercentile(0.999D)),
+                toMicros(totalLatencies.getPercentile(1D)));
+        System.out.printf(
+                "Threads: %d before the run, %d once the sockets are closed.%n",
+                initialThreads, threads.getThreadCount());
+    }
+
+    private void send(final int sender) {
+        final var weight = ThreadLocalRandom.current().nextInt(totalWeight);
+        final var payload = new byte[sizes.floorEntry(weight).getValue()];
+        sent.increment();
+        clients.get(sender)
+                .sendEvent(new LoadEvent(sender, System.nanoTime(), payload))
+                .whenComplete((result, error) -> {
+                    if (error == null) {
+                        written.increment();
+                    } else {
+                        failed.increment();
+                    }
+                });
+    }
+
+    private void onEventReceive(final LoadEvent event) {
+        final var latency = System.nanoTime() - event.getSentNanos();
+        latencies.record(latency);
+        totalLatencies.record(latency);
+        received.increment();
+    }
+
+    // The events written by a client and not received by all the others yet, lost or still in flight
+    private long getMissing() {
+        return Math.max(written.sum() * (clientCount - 1) - received.sum(), 0L);
+    }
+
+    private OutboundStatistics getOutboundStatistics() {
+        long rejected = 0L;
+        long droppedOldest = 0L;
+        long droppedNewest = 0L;
+        for (final var client : clients) {
+            final var statistics = client.getOutboundStatistics();
+            rejected += statistics.getRejected();
+            droppedOldest += statistics.getDroppedOldest();
+            droppedNewest += statistics.getDroppedNewest();
+        }
+        return new OutboundStatistics(0, 0, 0L, 0L, 0L, rejected, droppedOldest, droppedNewest);
+    }
+
+    private static long toMicros(final Duration duration) {
+        return duration.toNanos() / 1000L;
+    }
+
+    private static void await(final CompletableFuture<Void> future) throws Exception {
+        future.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    }
+}
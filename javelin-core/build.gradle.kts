@@ -4,8 +4,10 @@ plugins {
 
 dependencies {
     implementation("net.kyori:event-api:5.0.0-SNAPSHOT")
-    implementation("org.java-websocket:Java-WebSocket:1.5.3")
+    implementation("org.java-websocket:Java-WebSocket:1.5.6")
     implementation("org.slf4j:slf4j-api:2.0.3")
     implementation("com.esotericsoftware.kryo:kryo5:5.3.0")
     implementation("com.password4j:password4j:1.6.2")
+    // The test events with a generated codec
+    testAnnotationProcessor(project(":javelin-processor"))
 }
@@ -20,30 +20,53 @@ package fr.xpdustry.javelin;
 
 import com.esotericsoftware.kryo.kryo5.*;
 import com.esotericsoftware.kryo.kryo5.io.*;
-import com.esotericsoftware.kryo.kryo5.objenesis.strategy.*;
 import java.io.*;
 import java.nio.*;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
 import net.kyori.event.*;
+import org.checkerframework.checker.nullness.qual.*;
 import org.slf4j.*;
 
 abstract class AbstractJavelinSocket implements JavelinSocket {
 
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+    protected final EventSerializer serializer = new EventSerializer();
+    protected final JavelinMetrics metrics;
     private final EventBus<JavelinEvent> bus = EventBus.create(JavelinEvent.class);
-    private final Kryo kryo = new Kryo();
+    private final Predicate<Class<? extends JavelinEvent>> subscribed = bus::subscribed;
+    // The number of subscribers by event type name, typed and raw
+    private final Map<String, Integer> interests = new HashMap<>();
+    private final Map<String, List<RawEventSubscriber>> rawSubscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger transferIds = new AtomicInteger();
     private final boolean enableLocalBroadcast;
+    private final OutboundQueue outbound;
+    // The received events waiting for a worker
+    private final LongAdder backlog = new LongAdder();
+    // Prefixes the gauges of the socket, so the sockets sharing metrics don't replace each other's
+    private final String name;
 
-    {
-        kryo.setRegistrationRequired(false);
-        kryo.setAutoReset(true);
-        kryo.setOptimizedGenerics(false);
-        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+    /**
+     * @param name the name of the socket in the metrics, see {@link JavelinMetrics#registerGauge(String, LongSupplier)}
+     */
+    AbstractJavelinSocket(
+            final boolean enableLocalBroadcast,
+            final OutboundQueuePolicy outboundQueuePolicy,
+            final JavelinMetrics metrics,
+            final String name) {
+        this.enableLocalBroadcast = enableLocalBroadcast;
+        this.outbound = new OutboundQueue(outboundQueuePolicy, this::send);
+        this.metrics = metrics;
+        this.name = name;
+        registerGauge("outbound.queued", () -> outbound.getStatistics().getQueued());
+        registerGauge("outbound.pending", () -> outbound.getStatistics().getPending());
+        registerGauge("dispatch.backlog", backlog::sum);
     }
 
-    AbstractJavelinSocket(final boolean enableLocalBroadcast) {
-        this.enableLocalBroadcast = enableLocalBroadcast;
+    protected final void registerGauge(final String gauge, final LongSupplier value) {
+        metrics.registerGauge(name + '.' + gauge, value);
     }
 
     @Override
@@ -54,41 +77,310 @@ abstract class AbstractJavelinSocket implements JavelinSocket {
             if (enableLocalBroadcast && bus.subscribed(event.getClass())) {
                 bus.post(event);
             }
-            try (final var output = new ByteBufferOutput(ByteBuffer.allocate(Internal.MAX_EVENT_SIZE))) {
-                kryo.writeClass(output, event.getClass());
-                kryo.writeObject(output, event);
-                onEventSend(output.getByteBuffer());
-                return CompletableFuture.completedFuture(null);
-            } catch (final KryoBufferOverflowException e) {
-                return CompletableFuture.failedFuture(new IOException("The event is too large.", e));
-            }
+            return outbound.offer(event);
+        }
+    }
+
+    @Override
+    public <E extends JavelinEvent> void registerCodec(final Class<E> event, final EventCodec<E> codec) {
+        serializer.registerCodec(event, codec);
+    }
+
+    @Override
+    public OutboundStatistics getOutboundStatistics() {
+        return outbound.getStatistics();
+    }
+
+    /**
+     * Stops accepting events to send, and waits for the queued ones to be sent.
+     */
+    protected final void closeOutbound() {
+        outbound.close();
+    }
+
+    // Called by the sender thread of the outbound queue
+    private void send(final OutboundQueue.Delivery delivery) {
+        final var event = delivery.getEvent();
+        final var start = System.nanoTime();
+        final ByteBufferOutput output;
+        try {
+            output = serializer.serialize(event);
+        } catch (final KryoBufferOverflowException e) {
+            // The event does not fit in a frame, stream it without delaying the next events
+            outbound.transfer(delivery, () -> {
+                final var bytes = new int[1];
+                final var transferStart = System.nanoTime();
+                serializer.serialize(event, nextTransferId(), buffer -> {
+                    bytes[0] += buffer.remaining();
+                    onEventSend(buffer, delivery);
+                    delivery.await(Internal.MAX_PENDING_CHUNKS);
+                });
+                metrics.onEventSent(event.getClass().getName(), bytes[0], System.nanoTime() - transferStart);
+            });
+            return;
+        }
+        try {
+            final var buffer = output.getByteBuffer();
+            metrics.onEventSent(event.getClass().getName(), buffer.remaining(), System.nanoTime() - start);
+            onEventSend(buffer, delivery);
+        } finally {
+            serializer.release(output);
         }
     }
 
     @Override
     public <E extends JavelinEvent> Subscription subscribe(final Class<E> event, final Consumer<E> subscriber) {
-        return bus.subscribe(event, subscriber::accept)::unsubscribe;
+        final var subscription = bus.subscribe(event, subscriber::accept);
+        addInterest(event.getName());
+        final var active = new AtomicBoolean(true);
+        return () -> {
+            if (active.compareAndSet(true, false)) {
+                subscription.unsubscribe();
+                removeInterest(event.getName());
+            }
+        };
     }
 
-    protected abstract void onEventSend(final ByteBuffer buffer);
+    @Override
+    public Subscription subscribeRaw(final String event, final RawEventSubscriber subscriber) {
+        rawSubscribers
+                .computeIfAbsent(event, key -> new CopyOnWriteArrayList<>())
+                .add(subscriber);
+        addInterest(event);
+        final var active = new AtomicBoolean(true);
+        return () -> {
+            if (active.compareAndSet(true, false)) {
+                rawSubscribers.computeIfPresent(event, (key, subscribers) -> {
+                    subscribers.remove(subscriber);
+                    return subscribers.isEmpty() ? null : subscribers;
+                });
+                removeInterest(event);
+            }
+        };
+    }
 
-    protected void onEventReceive(final ByteBuffer buffer) {
-        try (final var input = new ByteBufferInput(buffer)) {
-            final var registration = kryo.readClass(input);
-            if (registration == null) {
-                return;
+    private void addInterest(final String event) {
+        synchronized (interests) {
+            if (interests.merge(event, 1, Integer::sum) == 1) {
+                onInterestChange(event, true);
             }
-            @SuppressWarnings("unchecked")
-            final var clazz = (Class<? extends JavelinEvent>) registration.getType();
-            if (bus.subscribed(clazz)) {
-                bus.post(kryo.readObject(input, clazz))
-                        .exceptions()
-                        .forEach((s, t) -> logger.error("An exception occurred while handling an event in " + s, t));
+        }
+    }
+
+    private void removeInterest(final String event) {
+        synchronized (interests) {
+            if (interests.merge(event, -1, Integer::sum) == 0) {
+                interests.remove(event);
+                onInterestChange(event, false);
             }
+        }
+    }
+
+    /**
+     * Called when the first subscriber of an event type subscribes, or when its last subscriber unsubscribes.
+     * Calls are made while holding the lock of the interests, see {@link #withInterests(Consumer)}.
+     *
+     * @param event the name of the event type
+     */
+    protected void onInterestChange(final String event, final boolean interested) {}
+
+    /**
+     * Runs the given action with the names of the event types that have subscribers, while preventing concurrent
+     * changes.
+     */
+    protected final void withInterests(final Consumer<Set<String>> action) {
+        synchronized (interests) {
+            action.accept(Collections.unmodifiableSet(interests.keySet()));
+        }
+    }
+
+    /**
+     * Returns a new transfer ID for the chunk frames of an event, see {@link EventSerializer}.
+     */
+    protected final int nextTransferId() {
+        return transferIds.getAndIncrement() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * Creates an assembler for the chunk frames received from a connection, reassembling the events with subscribers.
+     * The events with raw subscribers are posted to them by the thread receiving the last chunk.
+     *
+     * @param deserialize whether the events are deserialized for the typed subscribers
+     * @param receiver    the function receiving the reassembled events, called by the thread of the transfer
+     */
+    protected final EventAssembler createEventAssembler(
+            final boolean deserialize, final Consumer<JavelinEvent> receiver) {
+        return new EventAssembler(
+                serializer,
+                deserialize ? subscribed : null,
+                (event, size) -> {
+                    metrics.onEventReceived(event.getClass().getName(), size);
+                    receiver.accept(event);
+                },
+                this::isRawSubscribed,
+                this::dispatchRawEvent);
+    }
+
+    /**
+     * Sends the event frame, or one of the chunk frames of an event too large for an event frame.
+     * The buffer is recycled once this method returns, so it must not be retained.
+     * If its class ID was never sent to a connection, the definition frame must be sent to it first,
+     * see {@link EventSerializer#serialize(int)}.
+     * <br>
+     * Called by a sender thread of the socket, or by a transfer thread for the chunk frames, so concurrently.
+     * The delivery of the event must be marked with the position of the frame in the connections it is sent to,
+     * see {@link OutboundQueue.Delivery#mark(WriteTracker, long)}.
+     */
+    protected abstract void onEventSend(final ByteBuffer buffer, final OutboundQueue.Delivery delivery);
+
+    /**
+     * Creates the executor posting the received events to the subscribers.
+     *
+     * @param workers        the number of threads, if virtual threads are not used
+     * @param virtualThreads whether to post the events in virtual threads, if the runtime supports them
+     */
+    protected final OrderedExecutor createEventExecutor(final int workers, final boolean virtualThreads) {
+        if (virtualThreads) {
+            final var executor = VirtualThreadExecutor.create();
+            if (executor != null) {
+                return executor;
+            }
+            logger.warn("Virtual threads are not supported by this runtime, using {} worker threads instead.", workers);
+        }
+        return new StripedExecutor(workers);
+    }
+
+    /**
+     * Posts the received event to the subscribers with the given executor, after the previously received events with
+     * the same ordering key, see {@link OrderedEvent}.
+     *
+     * @param names  the event type names, as returned by {@link EventSerializer#readEventHeader(ByteBuffer, Map)}
+     * @param buffer the payload of the event frame, the buffer must not be reused
+     */
+    protected final void dispatchEvent(final OrderedExecutor executor, final String[] names, final ByteBuffer buffer) {
+        final var clazz = serializer.findEventClass(names);
+        if (clazz == null) {
+            metrics.onEventSkipped(names[0]);
+            return;
+        } else if (!subscribed.test(clazz)) {
+            return;
+        }
+        metrics.onEventReceived(clazz.getName(), buffer.remaining());
+        if (OrderedEvent.class.isAssignableFrom(clazz)) {
+            // The key of an ordered event is only known once deserialized
+            final var event = deserialize(names, buffer);
+            if (event != null) {
+                dispatchEvent(executor, event);
+            }
+        } else {
+            execute(executor, clazz, clazz, () -> onEventReceive(names, buffer));
+        }
+    }
+
+    /**
+     * Posts the received event frame to the raw subscribers of its event types, in the calling thread.
+     *
+     * @param names  the event type names, as returned by {@link EventSerializer#readEventHeader(ByteBuffer, Map)}
+     * @param buffer the payload of the event frame, its position is left untouched
+     */
+    protected final void dispatchRawEvent(final String[] names, final ByteBuffer buffer) {
+        if (rawSubscribers.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i <= names.length; i++) {
+            final var subscribers = rawSubscribers.get(i == names.length ? Internal.ANY_EVENT_TYPE : names[i]);
+            if (subscribers == null) {
+                continue;
+            }
+            for (final var subscriber : subscribers) {
+                try {
+                    subscriber.onRawEvent(names[0], buffer.asReadOnlyBuffer());
+                } catch (final Exception e) {
+                    logger.error("An exception occurred while handling a raw event in " + subscriber, e);
+                }
+            }
+        }
+    }
+
+    private boolean isRawSubscribed(final String[] names) {
+        if (rawSubscribers.isEmpty()) {
+            return false;
+        }
+        for (final var name : names) {
+            if (rawSubscribers.containsKey(name)) {
+                return true;
+            }
+        }
+        return rawSubscribers.containsKey(Internal.ANY_EVENT_TYPE);
+    }
+
+    /**
+     * Posts the received or reassembled event to the subscribers with the given executor, after the previously
+     * received events with the same ordering key, see {@link OrderedEvent}.
+     */
+    protected final void dispatchEvent(final OrderedExecutor executor, final JavelinEvent event) {
+        final var key = event instanceof OrderedEvent ordered ? ordered.getOrderingKey() : event.getClass();
+        execute(executor, key, event.getClass(), () -> onEventReceive(event));
+    }
+
+    // Measures the time the event waits for a worker and the time spent handling it
+    private void execute(
+            final OrderedExecutor executor,
+            final Object key,
+            final Class<? extends JavelinEvent> clazz,
+            final Runnable task) {
+        final var queued = System.nanoTime();
+        backlog.increment();
+        try {
+            executor.execute(key, () -> {
+                backlog.decrement();
+                final var start = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    metrics.onEventHandled(clazz.getName(), start - queued, System.nanoTime() - start);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            backlog.decrement();
+            throw e;
+        }
+    }
+
+    /**
+     * Posts the received event to the subscribers.
+     *
+     * @param names  the event type names, as returned by {@link EventSerializer#readEventHeader(ByteBuffer, Map)}
+     * @param buffer the payload of the event frame
+     */
+    protected void onEventReceive(final String[] names, final ByteBuffer buffer) {
+        final var event = deserialize(names, buffer);
+        if (event != null) {
+            onEventReceive(event);
+        }
+    }
+
+    /**
+     * Posts the received or reassembled event to the subscribers.
+     */
+    protected void onEventReceive(final JavelinEvent event) {
+        bus.post(event)
+                .exceptions()
+                .forEach((s, t) -> logger.error("An exception occurred while handling an event in " + s, t));
+    }
+
+    // Returns null if the event has no subscribers or if its class is not available
+    private @Nullable JavelinEvent deserialize(final String[] names, final ByteBuffer buffer) {
+        try {
+            return serializer.deserialize(names, buffer, subscribed);
         } catch (final KryoException e) {
             if (!(e.getCause() instanceof ClassNotFoundException)) {
                 throw e;
             }
+            // A class referenced by the event is missing, the next frames of the event are skipped without reading them
+            serializer.markUnknownClass(names[0]);
+            metrics.onEventSkipped(names[0]);
+            return null;
         }
     }
 }
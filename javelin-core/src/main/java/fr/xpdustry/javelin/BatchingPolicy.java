@@ -0,0 +1,94 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+/**
+ * Defines how the events sent by a socket are packed together in a single frame, to avoid sending one frame per event.
+ * A batch is sent once it reaches its maximum size or number of events, or once its first event waited for the linger
+ * time.
+ */
+public final class BatchingPolicy {
+
+    private static final BatchingPolicy DISABLED = new BatchingPolicy(0, 1, 0L);
+
+    private final int maxSize;
+    private final int maxEvents;
+    private final long lingerMicros;
+
+    private BatchingPolicy(final int maxSize, final int maxEvents, final long lingerMicros) {
+        this.maxSize = maxSize;
+        this.maxEvents = maxEvents;
+        this.lingerMicros = lingerMicros;
+    }
+
+    /**
+     * Returns a policy sending each event in its own frame, the default.
+     */
+    public static BatchingPolicy disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Creates a new batching policy.
+     *
+     * @param maxSize      the maximum size of a batch in bytes, events larger than it are sent alone, less than 1 MiB
+     * @param maxEvents    the maximum number of events in a batch, at least 2
+     * @param lingerMicros the maximum time in microseconds an event waits in a batch, must be positive
+     * @return the batching policy
+     * @throws IllegalArgumentException if one of the limits is invalid
+     */
+    public static BatchingPolicy of(final int maxSize, final int maxEvents, final long lingerMicros) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The max size must be positive: " + maxSize);
+        }
+        if (maxSize > Internal.MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException(
+                    "The max size can't be larger than " + Internal.MAX_BATCH_SIZE + " bytes: " + maxSize);
+        }
+        if (maxEvents < 2) {
+            throw new IllegalArgumentException("A batch must contain at least 2 events: " + maxEvents);
+        }
+        if (lingerMicros <= 0L) {
+            throw new IllegalArgumentException("The linger time must be positive: " + lingerMicros);
+        }
+        return new BatchingPolicy(maxSize, maxEvents, lingerMicros);
+    }
+
+    public boolean isEnabled() {
+        return this != DISABLED;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getMaxEvents() {
+        return maxEvents;
+    }
+
+    public long getLingerMicros() {
+        return lingerMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchingPolicy{maxSize=" + maxSize + ", maxEvents=" + maxEvents + ", lingerMicros=" + lingerMicros
+                + '}';
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import com.esotericsoftware.kryo.kryo5.io.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+import org.checkerframework.checker.nullness.qual.*;
+
+/**
+ * Defines which frames sent by a socket are compressed. Small frames are sent as is, since compressing them costs more
+ * CPU time than it saves bytes, and the frames that don't shrink once compressed are also sent as is.
+ * <br>
+ * A preset dictionary can be given to compress better the small and similar events, like json events sharing most of
+ * their keys. The peers must use the same dictionary, see {@link #createDictionary(Collection)}.
+ */
+public final class CompressionPolicy {
+
+    /**
+     * The maximum size of a dictionary, larger dictionaries are truncated to their last bytes.
+     */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final CompressionPolicy DISABLED = new CompressionPolicy(Integer.MAX_VALUE, 0, null);
+
+    private final int threshold;
+    private final int level;
+    private final byte @Nullable [] dictionary;
+
+    private CompressionPolicy(final int threshold, final int level, final byte @Nullable [] dictionary) {
+        this.threshold = threshold;
+        this.level = level;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Returns a policy never compressing the frames.
+     */
+    public static CompressionPolicy disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Creates a new compression policy with the default compression level.
+     *
+     * @param threshold the minimum size in bytes of the compressed frames
+     * @return the compression policy
+     * @throws IllegalArgumentException if the threshold is negative
+     */
+    public static CompressionPolicy of(final int threshold) {
+        return of(threshold, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a new compression policy.
+     *
+     * @param threshold the minimum size in bytes of the compressed frames
+     * @param level     the deflate compression level, from 1 to 9, or -1 for the default level
+     * @return the compression policy
+     * @throws IllegalArgumentException if the threshold is negative or if the level is invalid
+     */
+    public static CompressionPolicy of(final int threshold, final int level) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("The threshold can't be negative: " + threshold);
+        }
+        if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+                && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        return new CompressionPolicy(threshold, level, null);
+    }
+
+    /**
+     * Creates a preset dictionary from sample events, by concatenating their serialized form.
+     * The most common events should be the last ones, since the end of the dictionary is the cheapest to refer to.
+     * <br>
+     * The dictionary is processed each time a frame is compressed, so a larger dictionary costs more CPU time.
+     * One or two samples of each common event class are usually enough.
+     *
+     * @param samples the sample events
+     * @return the dictionary, at most {@link #MAX_DICTIONARY_SIZE} bytes
+     */
+    public static byte[] createDictionary(final Collection<? extends JavelinEvent> samples) {
+        final var serializer = new EventSerializer();
+        final var stream = new ByteArrayOutputStream();
+        for (final var sample : samples) {
+            final ByteBufferOutput output;
+            try {
+                output = serializer.serialize(sample);
+            } catch (final KryoBufferOverflowException e) {
+                continue;
+            }
+            try {
+                final var buffer = output.getByteBuffer();
+                final var bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                stream.writeBytes(bytes);
+            } finally {
+                serializer.release(output);
+            }
+        }
+        final var dictionary = stream.toByteArray();
+        return dictionary.length > MAX_DICTIONARY_SIZE
+                ? Arrays.copyOfRange(dictionary, dictionary.length - MAX_DICTIONARY_SIZE, dictionary.length)
+                : dictionary;
+    }
+
+    /**
+     * Returns a copy of this policy using the given preset dictionary.
+     *
+     * @param dictionary the dictionary, see {@link #createDictionary(Collection)}
+     * @return the compression policy
+     * @throws IllegalStateException    if this policy is disabled
+     * @throws IllegalArgumentException if the dictionary is empty or larger than {@link #MAX_DICTIONARY_SIZE}
+     */
+    public CompressionPolicy withDictionary(final byte[] dictionary) {
+        if (!isEnabled()) {
+            throw new IllegalStateException("A disabled compression policy can't have a dictionary.");
+        }
+        if (dictionary.length == 0 || dictionary.length > MAX_DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Invalid dictionary size: " + dictionary.length);
+        }
+        return new CompressionPolicy(threshold, level, dictionary.clone());
+    }
+
+    public boolean isEnabled() {
+        return this != DISABLED;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean hasDictionary() {
+        return dictionary != null;
+    }
+
+    // Not copied, the compressors only read it
+    byte @Nullable [] getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionPolicy{threshold=" + threshold + ", level=" + level + ", dictionary="
+                + (dictionary == null ? 0 : dictionary.length) + '}';
+    }
+}
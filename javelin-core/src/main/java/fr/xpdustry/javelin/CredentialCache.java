@@ -0,0 +1,146 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.nio.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.time.*;
+import java.util.*;
+import javax.crypto.*;
+
+/**
+ * A bounded cache of the recently verified credentials, so repeated logins skip the password hashing. The passwords are
+ * stored as HMAC digests keyed with a random secret generated for each cache, never in plain text.
+ * <br>
+ * Each entry remembers the stored password it was verified against, so changing or deleting a user invalidates it.
+ */
+final class CredentialCache {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKey secret;
+    private final int maxSize;
+    private final long durationNanos;
+    // Guarded by itself, in access order to evict the least recently used entries first
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Creates a new credential cache.
+     *
+     * @param maxSize  the maximum number of cached users
+     * @param duration the time the credentials are cached after being verified
+     */
+    CredentialCache(final int maxSize, final Duration duration) {
+        try {
+            this.secret = KeyGenerator.getInstance(ALGORITHM).generateKey();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("The " + ALGORITHM + " algorithm is not available.", e);
+        }
+        this.maxSize = maxSize;
+        this.durationNanos = duration.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return size() > CredentialCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns whether the given credentials have been verified recently against the given stored password.
+     */
+    boolean contains(final String username, final char[] password, final Object stored) {
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(username);
+            if (entry == null) {
+                return false;
+            }
+            if (entry.stored != stored || System.nanoTime() - entry.verified > durationNanos) {
+                entries.remove(username);
+                return false;
+            }
+        }
+        return MessageDigest.isEqual(entry.digest, digest(username, password));
+    }
+
+    /**
+     * Caches the given verified credentials.
+     *
+     * @param stored the stored password the credentials were verified against
+     */
+    void put(final String username, final char[] password, final Object stored) {
+        if (maxSize <= 0) {
+            return;
+        }
+        final var entry = new Entry(digest(username, password), stored, System.nanoTime());
+        synchronized (entries) {
+            entries.put(username, entry);
+        }
+    }
+
+    void invalidate(final String username) {
+        synchronized (entries) {
+            entries.remove(username);
+        }
+    }
+
+    void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private byte[] digest(final String username, final char[] password) {
+        final Mac mac;
+        try {
+            mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to initialize the " + ALGORITHM + " algorithm.", e);
+        }
+        mac.update(username.getBytes(StandardCharsets.UTF_8));
+        // Separates the username from the password, a username can't contain a colon
+        mac.update((byte) ':');
+        final var encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        try {
+            mac.update(encoded.duplicate());
+            return mac.doFinal();
+        } finally {
+            encoded.clear();
+            while (encoded.hasRemaining()) {
+                encoded.put((byte) 0);
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final byte[] digest;
+        private final Object stored;
+        private final long verified;
+
+        private Entry(final byte[] digest, final Object stored, final long verified) {
+            this.digest = digest;
+            this.stored = stored;
+            this.verified = verified;
+        }
+    }
+}
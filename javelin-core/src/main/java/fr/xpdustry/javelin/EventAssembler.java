@@ -0,0 +1,315 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import com.esotericsoftware.kryo.kryo5.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.checkerframework.checker.nullness.qual.*;
+import org.slf4j.*;
+
+/**
+ * Reassembles the events streamed in chunk frames by a peer, see {@link EventSerializer}.
+ * <br>
+ * Each transfer is deserialized in its own thread while its chunks are received, reading them from a queue of at
+ * most {@link Internal#MAX_QUEUED_CHUNKS} chunks, so the memory used by a transfer is bounded by the chunk size
+ * instead of the event size. Since the thread receiving the chunks may also receive the frames of other connections,
+ * it never waits for a transfer: a transfer is aborted when its queue is full, or when no chunk has been received for
+ * the idle timeout. At most {@link Internal#MAX_CONCURRENT_TRANSFERS} transfers are reassembled at once, the chunks of
+ * the other transfers are ignored.
+ * <br>
+ * The events with raw subscribers are copied chunk by chunk instead, since they are not deserialized. A raw transfer
+ * is aborted once larger than {@link Internal#MAX_RAW_TRANSFER_SIZE}.
+ * <br>
+ * Apart from {@link #abort()}, this class must only be called by the thread receiving the frames of the connection.
+ */
+final class EventAssembler {
+
+    private static final ByteBuffer END_OF_TRANSFER = ByteBuffer.allocate(0);
+    private static final ByteBuffer ABORTED_TRANSFER = ByteBuffer.allocate(0);
+    private static final Logger logger = LoggerFactory.getLogger(EventAssembler.class);
+
+    // The connection may be closed by another thread than the one receiving its frames
+    private final Map<Integer, Transfer> transfers = new ConcurrentHashMap<>();
+    private final Map<Integer, RawTransfer> rawTransfers = new ConcurrentHashMap<>();
+    private final EventSerializer serializer;
+    private final @Nullable Predicate<Class<? extends JavelinEvent>> filter;
+    private final ObjIntConsumer<JavelinEvent> receiver;
+    private final Predicate<String[]> rawFilter;
+    private final BiConsumer<String[], ByteBuffer> rawReceiver;
+    private final long idleTimeoutNanos;
+
+    /**
+     * Creates a new assembler, aborting the transfers idle for {@link Internal#TRANSFER_IDLE_TIMEOUT_NANOS}.
+     *
+     * @see #EventAssembler(EventSerializer, Predicate, ObjIntConsumer, Predicate, BiConsumer, long)
+     */
+    EventAssembler(
+            final EventSerializer serializer,
+            final @Nullable Predicate<Class<? extends JavelinEvent>> filter,
+            final ObjIntConsumer<JavelinEvent> receiver,
+            final Predicate<String[]> rawFilter,
+            final BiConsumer<String[], ByteBuffer> rawReceiver) {
+        this(serializer, filter, receiver, rawFilter, rawReceiver, Internal.TRANSFER_IDLE_TIMEOUT_NANOS);
+    }
+
+    /**
+     * Creates a new assembler.
+     *
+     * @param serializer  the serializer
+     * @param filter      whether the events of a class should be reassembled, or {@code null} to never deserialize
+     *                    them
+     * @param receiver    the function receiving the reassembled events and their size, called by the thread of the
+     *                    transfer
+     * @param rawFilter   whether the events with the given event type names should be reassembled without being
+     *                    deserialized
+     * @param rawReceiver the function receiving the event type names and the payload of the raw events, called by the
+     *                    thread receiving the chunks
+     * @param idleTimeoutNanos the time after which a transfer without new chunks is aborted
+     */
+    EventAssembler(
+            final EventSerializer serializer,
+            final @Nullable Predicate<Class<? extends JavelinEvent>> filter,
+            final ObjIntConsumer<JavelinEvent> receiver,
+            final Predicate<String[]> rawFilter,
+            final BiConsumer<String[], ByteBuffer> rawReceiver,
+            final long idleTimeoutNanos) {
+        this.serializer = serializer;
+        this.filter = filter;
+        this.receiver = receiver;
+        this.rawFilter = rawFilter;
+        this.rawReceiver = rawReceiver;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+    }
+
+    /**
+     * Handles the data of a chunk frame. The position of the data is left untouched.
+     *
+     * @param transferId the ID of the transfer
+     * @param flags      the flags of the chunk
+     * @param names      the event type names if it's the first chunk, or {@code null}
+     * @param data       the data of the chunk without the event frame header, the buffer must not be reused
+     */
+    void accept(final int transferId, final byte flags, final @Nullable String[] names, final ByteBuffer data) {
+        acceptRaw(transferId, flags, names, data);
+        var transfer = transfers.get(transferId);
+        if (transfer == null && names != null && filter != null) {
+            final var clazz = serializer.findEventClass(names);
+            if (clazz != null && filter.test(clazz)) {
+                if (transfers.size() >= Internal.MAX_CONCURRENT_TRANSFERS) {
+                    logger.debug("Too many concurrent transfers, ignoring an event of class {}.", clazz.getName());
+                    return;
+                }
+                transfer = new Transfer(transferId, clazz);
+                transfers.put(transferId, transfer);
+                Executor.INSTANCE.execute(transfer);
+            }
+        }
+        if (transfer == null) {
+            return;
+        }
+        if (data.hasRemaining() && !transfer.offer(data.duplicate())) {
+            logger.debug("The transfer of an event of class {} is too slow, aborting.", transfer.clazz.getName());
+            transfers.remove(transferId);
+            transfer.abort();
+            return;
+        }
+        if ((flags & (Internal.CHUNK_LAST | Internal.CHUNK_ABORT)) != 0) {
+            transfers.remove(transferId);
+            if ((flags & Internal.CHUNK_ABORT) != 0) {
+                transfer.abort();
+            } else {
+                transfer.chunks.offer(END_OF_TRANSFER);
+            }
+        }
+    }
+
+    private void acceptRaw(
+            final int transferId, final byte flags, final @Nullable String[] names, final ByteBuffer data) {
+        var transfer = rawTransfers.get(transferId);
+        if (transfer == null && names != null && rawFilter.test(names)) {
+            // The raw transfers don't have a thread to time them out
+            final var now = System.nanoTime();
+            rawTransfers.values().removeIf(pending -> now - pending.lastChunkNanos > idleTimeoutNanos);
+            if (rawTransfers.size() >= Internal.MAX_CONCURRENT_TRANSFERS) {
+                logger.debug("Too many concurrent transfers, ignoring a raw event of type {}.", names[0]);
+                return;
+            }
+            transfer = new RawTransfer(names);
+            rawTransfers.put(transferId, transfer);
+        }
+        if (transfer == null) {
+            return;
+        }
+        if ((flags & Internal.CHUNK_ABORT) != 0) {
+            rawTransfers.remove(transferId);
+            return;
+        }
+        transfer.lastChunkNanos = System.nanoTime();
+        if (!transfer.append(data.duplicate())) {
+            logger.debug("The transfer of a raw event of type {} is too large, aborting.", transfer.names[0]);
+            rawTransfers.remove(transferId);
+            return;
+        }
+        if ((flags & Internal.CHUNK_LAST) != 0) {
+            rawTransfers.remove(transferId);
+            rawReceiver.accept(transfer.names, ByteBuffer.wrap(transfer.data, 0, transfer.size));
+        }
+    }
+
+    /**
+     * Aborts the pending transfers, when the connection is closed.
+     */
+    void abort() {
+        rawTransfers.clear();
+        for (final var transfer : transfers.values()) {
+            transfer.abort();
+        }
+        transfers.clear();
+    }
+
+    int countTransfers() {
+        return transfers.size() + rawTransfers.size();
+    }
+
+    private final class Transfer extends InputStream implements Runnable {
+
+        // One more slot than the queued chunks for the end of the transfer
+        private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(Internal.MAX_QUEUED_CHUNKS + 1);
+        private final int transferId;
+        private final Class<? extends JavelinEvent> clazz;
+        private ByteBuffer chunk = ByteBuffer.allocate(0);
+        // Only accessed by the thread of the transfer
+        private int size = 0;
+
+        private Transfer(final int transferId, final Class<? extends JavelinEvent> clazz) {
+            this.transferId = transferId;
+            this.clazz = clazz;
+        }
+
+        @Override
+        public void run() {
+            final JavelinEvent event;
+            try {
+                event = serializer.deserialize(clazz, this);
+            } catch (final KryoException e) {
+                logger.debug("Failed to reassemble an event of class {}.", clazz.getName(), e);
+                // The next chunks are ignored instead of filling the queue
+                transfers.remove(transferId, this);
+                return;
+            }
+            receiver.accept(event, size);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!next()) {
+                return -1;
+            }
+            size++;
+            return chunk.get() & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!next()) {
+                return -1;
+            }
+            final var count = Math.min(length, chunk.remaining());
+            chunk.get(bytes, offset, count);
+            size += count;
+            return count;
+        }
+
+        @SuppressWarnings("ReferenceEquality")
+        private boolean next() throws IOException {
+            while (!chunk.hasRemaining()) {
+                if (chunk == END_OF_TRANSFER) {
+                    return false;
+                } else if (chunk == ABORTED_TRANSFER) {
+                    throw new IOException("The transfer has been aborted.");
+                }
+                final @Nullable ByteBuffer next;
+                try {
+                    next = chunks.poll(idleTimeoutNanos, TimeUnit.NANOSECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                if (next == null) {
+                    throw new IOException("The transfer has timed out.");
+                }
+                chunk = next;
+            }
+            return true;
+        }
+
+        // Only called by the thread receiving the chunks, so the queue can't be filled between the check and the offer
+        private boolean offer(final ByteBuffer chunk) {
+            return chunks.size() < Internal.MAX_QUEUED_CHUNKS && chunks.offer(chunk);
+        }
+
+        private void abort() {
+            chunks.clear();
+            chunks.offer(ABORTED_TRANSFER);
+        }
+    }
+
+    private static final class RawTransfer {
+
+        private final String[] names;
+        private byte[] data = new byte[Internal.MAX_CHUNK_SIZE];
+        private int size = 0;
+        private long lastChunkNanos = System.nanoTime();
+
+        private RawTransfer(final String[] names) {
+            this.names = names;
+        }
+
+        // Returns false if the event would be larger than the maximum raw transfer size
+        private boolean append(final ByteBuffer chunk) {
+            final var length = chunk.remaining();
+            if (length > Internal.MAX_RAW_TRANSFER_SIZE - size) {
+                return false;
+            }
+            if (size + length > data.length) {
+                final var capacity = Math.max(data.length * 2, size + length);
+                data = Arrays.copyOf(data, Math.min(capacity, Internal.MAX_RAW_TRANSFER_SIZE));
+            }
+            chunk.get(data, size, length);
+            size += length;
+            return true;
+        }
+    }
+
+    private static final class Executor {
+
+        private static final ExecutorService INSTANCE = Executors.newCachedThreadPool(runnable -> {
+            final var thread = new Thread(runnable, "javelin-assembler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
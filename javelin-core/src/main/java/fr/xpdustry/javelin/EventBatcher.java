@@ -0,0 +1,173 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import com.esotericsoftware.kryo.kryo5.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.checkerframework.checker.nullness.qual.*;
+import org.java_websocket.exceptions.*;
+
+/**
+ * Packs the frames sent to a connection into batch frames, according to a {@link BatchingPolicy}.
+ * A batch frame contains the frames one after the other, each prefixed by its length. The batch ends at the end of the
+ * buffer or at the first zero length.
+ * <br>
+ * This class is not thread-safe, every method must be called while holding the lock given in the constructor,
+ * which is also held when flushing a batch after its linger time.
+ */
+final class EventBatcher {
+
+    private final BatchingPolicy policy;
+    private final Object lock;
+    private final Consumer<ByteBuffer> sink;
+    private final @Nullable ByteBufferOutput output;
+    private int frames = 0;
+    private long batches = 0L;
+    private @Nullable ScheduledFuture<?> lingerTask = null;
+
+    /**
+     * Creates a new batcher.
+     *
+     * @param policy the batching policy
+     * @param lock   the lock guarding this batcher
+     * @param sink   the function sending the frames to the connection
+     */
+    EventBatcher(final BatchingPolicy policy, final Object lock, final Consumer<ByteBuffer> sink) {
+        this.policy = policy;
+        this.lock = lock;
+        this.sink = sink;
+        this.output = policy.isEnabled() ? new ByteBufferOutput(ByteBuffer.allocate(1 + policy.getMaxSize())) : null;
+        clear();
+    }
+
+    /**
+     * Adds a frame to the current batch, or sends it directly if batching is disabled or if the frame is larger than
+     * a batch. The position of the frame is left untouched.
+     */
+    void send(final ByteBuffer frame) {
+        if (output == null) {
+            sink.accept(frame);
+            return;
+        }
+        if (!append(frame)) {
+            flush();
+            if (!append(frame)) {
+                sink.accept(frame);
+                return;
+            }
+        }
+        if (frames >= policy.getMaxEvents()) {
+            flush();
+        } else if (frames == 1) {
+            final var batch = batches;
+            lingerTask = Scheduler.INSTANCE.schedule(
+                    () -> {
+                        synchronized (lock) {
+                            if (batch == batches) {
+                                flushLater();
+                            }
+                        }
+                    },
+                    policy.getLingerMicros(),
+                    TimeUnit.MICROSECONDS);
+        }
+    }
+
+    /**
+     * Returns whether the current batch is empty.
+     */
+    boolean isEmpty() {
+        return frames == 0;
+    }
+
+    /**
+     * Sends the current batch, if not empty.
+     */
+    void flush() {
+        if (output == null || frames == 0) {
+            return;
+        }
+        final var buffer = output.getByteBuffer();
+        try {
+            buffer.limit(output.position()).position(0);
+            sink.accept(buffer);
+        } finally {
+            clear();
+        }
+    }
+
+    /**
+     * Discards the current batch.
+     */
+    void clear() {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        batches++;
+        frames = 0;
+        if (output != null) {
+            output.getByteBuffer().clear();
+            output.setPosition(0);
+            output.writeByte(Internal.BATCH_FRAME);
+        }
+    }
+
+    private boolean append(final ByteBuffer frame) {
+        Objects.requireNonNull(output);
+        final var length = frame.remaining();
+        if (output.position() + Output.varIntLength(length, true) + length
+                > output.getByteBuffer().capacity()) {
+            return false;
+        }
+        output.writeVarInt(length, true);
+        final var buffer = output.getByteBuffer();
+        buffer.position(output.position());
+        buffer.put(frame.duplicate());
+        output.setPosition(buffer.position());
+        frames++;
+        return true;
+    }
+
+    private void flushLater() {
+        try {
+            flush();
+        } catch (final WebsocketNotConnectedException ignored) {
+            // The connection has been closed in the meantime, the batch is lost like any other frame
+        }
+    }
+
+    private static final class Scheduler {
+
+        private static final ScheduledExecutorService INSTANCE = createScheduler();
+
+        private static ScheduledExecutorService createScheduler() {
+            final var executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                final var thread = new Thread(runnable, "javelin-batcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+}
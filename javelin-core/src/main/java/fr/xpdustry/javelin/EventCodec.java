@@ -0,0 +1,133 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.*;
+import org.checkerframework.checker.nullness.qual.*;
+
+/**
+ * Encodes and decodes the events of a class with explicit code, instead of the reflective serializer used by default.
+ * Useful for the events sent the most, since the codec writes the fields directly to the buffers of the socket.
+ * <br>
+ * A codec is registered with {@link JavelinSocket#registerCodec(Class, EventCodec)}, it must be registered on every
+ * socket sending or subscribing to the events of its class, since the encoded events are not compatible with the
+ * default serializer. The server relays the events without decoding them, so it only needs the codecs of the events
+ * it sends or subscribes to. The codecs are called concurrently, so they must be thread-safe.
+ *
+ * @param <E> the event type
+ */
+public interface EventCodec<E extends JavelinEvent> {
+
+    /**
+     * Writes the fields of the event.
+     */
+    void encode(final E event, final Writer writer);
+
+    /**
+     * Reads the fields written by {@link #encode(JavelinEvent, Writer)} and creates the event. The events are received
+     * from the network, so the read values must be validated, the runtime exceptions thrown by this method reject the
+     * event like a malformed frame.
+     */
+    E decode(final Reader reader);
+
+    /**
+     * Writes the fields of an event to the buffer of the socket. The variable length methods take less space for
+     * small positive values.
+     */
+    interface Writer {
+
+        void writeBoolean(final boolean value);
+
+        void writeByte(final byte value);
+
+        void writeShort(final short value);
+
+        void writeInt(final int value);
+
+        void writeVarInt(final int value);
+
+        void writeLong(final long value);
+
+        void writeVarLong(final long value);
+
+        void writeFloat(final float value);
+
+        void writeDouble(final double value);
+
+        void writeString(final @Nullable String value);
+
+        /**
+         * Writes the bytes without their length.
+         */
+        void writeBytes(final byte[] bytes, final int offset, final int length);
+    }
+
+    /**
+     * Reads the fields of an event from the buffer of the socket.
+     */
+    interface Reader {
+
+        boolean readBoolean();
+
+        byte readByte();
+
+        short readShort();
+
+        int readInt();
+
+        int readVarInt();
+
+        long readLong();
+
+        long readVarLong();
+
+        float readFloat();
+
+        double readDouble();
+
+        @Nullable String readString();
+
+        /**
+         * Reads the given number of bytes into the array.
+         */
+        void readBytes(final byte[] bytes, final int offset, final int length);
+
+        /**
+         * Reads the given number of bytes into a new array. The array grows as the bytes are read, so a corrupted
+         * length fails once the event has no bytes left, instead of allocating the array beforehand.
+         *
+         * @throws IllegalArgumentException if the length is negative
+         */
+        default byte[] readBytes(final int length) {
+            if (length < 0) {
+                throw new IllegalArgumentException("Invalid byte array length: " + length);
+            }
+            var bytes = new byte[Math.min(length, Internal.MAX_EVENT_SIZE)];
+            var read = 0;
+            while (read < length) {
+                if (read == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, (int) Math.min(length, bytes.length * 2L));
+                }
+                readBytes(bytes, read, bytes.length - read);
+                read = bytes.length;
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import com.esotericsoftware.kryo.kryo5.*;
+import com.esotericsoftware.kryo.kryo5.io.*;
+import org.checkerframework.checker.nullness.qual.*;
+
+/**
+ * Adapts an {@link EventCodec} to the kryo instance it is registered in. Like the kryo instance, it must only be used
+ * by one thread at a time, so the writer and the reader are reused instead of allocated for each event.
+ */
+final class EventCodecSerializer<E extends JavelinEvent> extends Serializer<E> {
+
+    private static final Output EMPTY_OUTPUT = new Output(0);
+    private static final Input EMPTY_INPUT = new Input(0);
+
+    private final EventCodec<E> codec;
+    private final KryoWriter writer = new KryoWriter();
+    private final KryoReader reader = new KryoReader();
+
+    EventCodecSerializer(final EventCodec<E> codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public void write(final Kryo kryo, final Output output, final E event) {
+        writer.output = output;
+        try {
+            codec.encode(event, writer);
+        } finally {
+            writer.output = EMPTY_OUTPUT;
+        }
+    }
+
+    @Override
+    public E read(final Kryo kryo, final Input input, final Class<? extends E> type) {
+        reader.input = input;
+        try {
+            return codec.decode(reader);
+        } catch (final KryoException e) {
+            throw e;
+        } catch (final RuntimeException e) {
+            // Such as an invalid enum ordinal, rejected like the other malformed frames
+            throw new KryoException("Failed to decode an event of " + type.getName() + ".", e);
+        } finally {
+            reader.input = EMPTY_INPUT;
+        }
+    }
+
+    private static final class KryoWriter implements EventCodec.Writer {
+
+        private Output output = EMPTY_OUTPUT;
+
+        @Override
+        public void writeBoolean(final boolean value) {
+            output.writeBoolean(value);
+        }
+
+        @Override
+        public void writeByte(final byte value) {
+            output.writeByte(value);
+        }
+
+        @Override
+        public void writeShort(final short value) {
+            output.writeShort(value);
+        }
+
+        @Override
+        public void writeInt(final int value) {
+            output.writeInt(value);
+        }
+
+        @Override
+        public void writeVarInt(final int value) {
+            output.writeVarInt(value, true);
+        }
+
+        @Override
+        public void writeLong(final long value) {
+            output.writeLong(value);
+        }
+
+        @Override
+        public void writeVarLong(final long value) {
+            output.writeVarLong(value, true);
+        }
+
+        @Override
+        public void writeFloat(final float value) {
+            output.writeFloat(value);
+        }
+
+        @Override
+        public void writeDouble(final double value) {
+            output.writeDouble(value);
+        }
+
+        @Override
+        public void writeString(final @Nullable String value) {
+            output.writeString(value);
+        }
+
+        @Override
+        public void writeBytes(final byte[] bytes, final int offset, final int length) {
+            output.writeBytes(bytes, offset, length);
+        }
+    }
+
+    private static final class KryoReader implements EventCodec.Reader {
+
+        private Input input = EMPTY_INPUT;
+
+        @Override
+        public boolean readBoolean() {
+            return input.readBoolean();
+        }
+
+        @Override
+        public byte readByte() {
+            return input.readByte();
+        }
+
+        @Override
+        public short readShort() {
+            return input.readShort();
+        }
+
+        @Override
+        public int readInt() {
+            return input.readInt();
+        }
+
+        @Override
+        public int readVarInt() {
+            return input.readVarInt(true);
+        }
+
+        @Override
+        public long readLong() {
+            return input.readLong();
+        }
+
+        @Override
+        public long readVarLong() {
+            return input.readVarLong(true);
+        }
+
+        @Override
+        public float readFloat() {
+            return input.readFloat();
+        }
+
+        @Override
+        public double readDouble() {
+            return input.readDouble();
+        }
+
+        @Override
+        public @Nullable String readString() {
+            return input.readString();
+        }
+
+        @Override
+        public void readBytes(final byte[] bytes, final int offset, final int length) {
+            input.readBytes(bytes, offset, length);
+        }
+    }
+}
@@ -0,0 +1,756 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import com.esotericsoftware.kryo.kryo5.*;
+import com.esotericsoftware.kryo.kryo5.io.*;
+import com.esotericsoftware.kryo.kryo5.objenesis.strategy.*;
+import com.esotericsoftware.kryo.kryo5.util.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import org.checkerframework.checker.nullness.qual.*;
+import org.slf4j.*;
+
+/**
+ * A thread-safe event serializer. Kryo instances and buffers are pooled,
+ * so serializing or deserializing an event doesn't allocate anything else than the event itself.
+ * <br>
+ * Events are written in event frames, prefixed by the names of the event class and of its event supertypes,
+ * so the server can route them to the interested connections without deserializing them.
+ * To keep the frames small, each event class is given a class ID by the serializer, which is written instead of the
+ * names once the peer received a definition frame for it. When all the class IDs are taken,
+ * the names are written inline with the {@link #INLINE_CLASS_ID}.
+ * <br>
+ * Events larger than {@link Internal#MAX_EVENT_SIZE} are streamed in chunk frames instead,
+ * the concatenated data of the chunks being the event frame of the event, see {@link EventAssembler}.
+ * The data of a chunk is prefixed by its length.
+ */
+final class EventSerializer {
+
+    static final int INLINE_CLASS_ID = 0;
+    // Returned by readChunkFlags for the chunk frames whose data doesn't fit in the frame
+    static final byte INVALID_CHUNK_FLAGS = -1;
+
+    private static final Logger logger = LoggerFactory.getLogger(EventSerializer.class);
+
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+    private static final ClassValue<String[]> EVENT_TYPE_NAMES = new ClassValue<>() {
+        @Override
+        protected String[] computeValue(final Class<?> type) {
+            final var names = new LinkedHashSet<String>();
+            final var queue = new ArrayDeque<Class<?>>();
+            queue.add(type);
+            while (!queue.isEmpty()) {
+                final var clazz = queue.remove();
+                if (clazz != JavelinEvent.class && JavelinEvent.class.isAssignableFrom(clazz)) {
+                    names.add(clazz.getName());
+                }
+                if (clazz.getSuperclass() != null) {
+                    queue.add(clazz.getSuperclass());
+                }
+                queue.addAll(Arrays.asList(clazz.getInterfaces()));
+            }
+            return names.toArray(new String[0]);
+        }
+    };
+
+    // The codecs generated for the classes annotated with GenerateEventCodec, loaded once per class
+    private static final ClassValue<Optional<EventCodec<?>>> GENERATED_CODECS = new ClassValue<>() {
+        @Override
+        protected Optional<EventCodec<?>> computeValue(final Class<?> type) {
+            if (!type.isAnnotationPresent(GenerateEventCodec.class)) {
+                return Optional.empty();
+            }
+            final var name = getGeneratedCodecName(type);
+            try {
+                final var codec = Class.forName(name, true, type.getClassLoader())
+                        .asSubclass(EventCodec.class)
+                        .getDeclaredConstructor()
+                        .newInstance();
+                return Optional.of(codec);
+            } catch (final ReflectiveOperationException | ClassCastException e) {
+                logger.warn(
+                        "Failed to load the generated codec of {}, is javelin-processor missing? Using kryo instead.",
+                        type.getName(),
+                        e);
+                return Optional.empty();
+            }
+        }
+    };
+
+    private final Map<String, Class<? extends JavelinEvent>> classes = new ConcurrentHashMap<>();
+    // The names of the classes that could not be loaded, with the time of the last attempt, so the frames of unknown
+    // events are skipped without throwing a ClassNotFoundException each time
+    private final Map<String, Long> unknownClasses = new ConcurrentHashMap<>();
+    private final Map<String, Integer> classIds = new ConcurrentHashMap<>();
+    private final Map<Integer, String[]> definitions = new ConcurrentHashMap<>();
+    private final AtomicInteger lastClassId = new AtomicInteger();
+    private final Map<Class<? extends JavelinEvent>, EventCodec<?>> codecs = new ConcurrentHashMap<>();
+    // Incremented when a codec is registered, so the pooled kryo instances register it too
+    private final AtomicInteger codecsVersion = new AtomicInteger();
+
+    private final Pool<CodecKryo> kryos = new Pool<>(true, false) {
+        @Override
+        protected CodecKryo create() {
+            final var kryo = new CodecKryo();
+            kryo.setRegistrationRequired(false);
+            kryo.setAutoReset(true);
+            kryo.setOptimizedGenerics(false);
+            kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+            return kryo;
+        }
+
+        @Override
+        protected void reset(final CodecKryo kryo) {
+            kryo.reset();
+        }
+    };
+
+    private final Pool<ByteBufferOutput> outputs = new Pool<>(true, false) {
+        @Override
+        protected ByteBufferOutput create() {
+            return new ByteBufferOutput(ByteBuffer.allocate(Internal.MAX_EVENT_SIZE));
+        }
+
+        @Override
+        protected void reset(final ByteBufferOutput output) {
+            output.getByteBuffer().clear();
+            output.reset();
+        }
+    };
+
+    private final Pool<ByteBufferInput> inputs = new Pool<>(true, false) {
+        @Override
+        protected ByteBufferInput create() {
+            return new ByteBufferInput(EMPTY_BUFFER);
+        }
+
+        @Override
+        protected void reset(final ByteBufferInput input) {
+            input.setBuffer(EMPTY_BUFFER);
+        }
+    };
+
+    static byte getFrameType(final ByteBuffer buffer) {
+        return buffer.hasRemaining() ? buffer.get(buffer.position()) : -1;
+    }
+
+    /**
+     * Returns the names of the event class and of its event supertypes, as written in the event frames.
+     * {@link JavelinEvent} itself is omitted since every event implements it.
+     */
+    static String[] getEventTypeNames(final Class<? extends JavelinEvent> clazz) {
+        return EVENT_TYPE_NAMES.get(clazz);
+    }
+
+    /**
+     * Registers the codec of an event class, replacing the previous one. The events of the class are encoded and
+     * decoded with it instead of kryo, see {@link EventCodec}.
+     */
+    <E extends JavelinEvent> void registerCodec(final Class<E> clazz, final EventCodec<E> codec) {
+        codecs.put(clazz, codec);
+        codecsVersion.incrementAndGet();
+    }
+
+    /**
+     * Returns the name of the codec generated for an event class, such as
+     * {@code com.example.Outer_InnerEvent_EventCodec} for {@code com.example.Outer.InnerEvent}.
+     */
+    static String getGeneratedCodecName(final Class<?> clazz) {
+        return clazz.getName().replace('$', '_') + "_EventCodec";
+    }
+
+    /**
+     * Returns the codec generated for an event class, or {@code null} if the class is not annotated with
+     * {@link GenerateEventCodec} or if the codec could not be loaded.
+     */
+    static @Nullable EventCodec<?> getGeneratedCodec(final Class<?> clazz) {
+        return GENERATED_CODECS.get(clazz).orElse(null);
+    }
+
+    // The codecs registered since the kryo instance was last used are registered in it
+    private CodecKryo obtainKryo() {
+        final var kryo = kryos.obtain();
+        final var version = codecsVersion.get();
+        if (kryo.codecsVersion != version) {
+            codecs.forEach((clazz, codec) -> kryo.register(clazz, new EventCodecSerializer<>(codec)));
+            kryo.codecsVersion = version;
+        }
+        return kryo;
+    }
+
+    /**
+     * Serializes an event frame into a pooled output. The written bytes are available in the
+     * {@link ByteBufferOutput#getByteBuffer() buffer} of the output, between its position and its limit.
+     * Once done with it, the output must be given back with {@link #release(ByteBufferOutput)}.
+     *
+     * @param event the event to serialize
+     * @return the output containing the serialized event
+     * @throws KryoBufferOverflowException if the serialized event is larger than {@link Internal#MAX_EVENT_SIZE}
+     */
+    ByteBufferOutput serialize(final JavelinEvent event) {
+        final var kryo = obtainKryo();
+        final var output = outputs.obtain();
+        try {
+            output.writeByte(Internal.EVENT_FRAME);
+            writeClassReference(output, getEventTypeNames(event.getClass()));
+            kryo.writeObject(output, event);
+            output.getByteBuffer().flip();
+            return output;
+        } catch (final KryoException e) {
+            outputs.free(output);
+            throw e;
+        } finally {
+            kryos.free(kryo);
+        }
+    }
+
+    /**
+     * Serializes an event too large for an event frame into chunk frames of at most {@link Internal#MAX_EVENT_SIZE}.
+     * The chunk frames are given to the sink as soon as they are written and are recycled once it returns,
+     * so only a chunk of the event is in memory at any time. If the serialization fails, an abort chunk is sent.
+     *
+     * @param event      the event to serialize
+     * @param transferId the ID of the transfer, unique among the pending transfers of the socket
+     * @param sink       the function sending the chunk frames
+     */
+    void serialize(final JavelinEvent event, final int transferId, final Consumer<ByteBuffer> sink) {
+        final var kryo = obtainKryo();
+        final var stream = new ChunkOutputStream(transferId, sink);
+        try {
+            final var output = new Output(stream, Internal.MAX_CHUNK_SIZE);
+            output.writeByte(Internal.EVENT_FRAME);
+            writeClassReference(output, getEventTypeNames(event.getClass()));
+            kryo.writeObject(output, event);
+            output.flush();
+            stream.finish(Internal.CHUNK_LAST);
+        } catch (final KryoException e) {
+            if (!stream.finished) {
+                stream.finish(Internal.CHUNK_ABORT);
+            }
+            throw e;
+        } finally {
+            kryos.free(kryo);
+        }
+    }
+
+    /**
+     * Serializes a chunk frame from the data of a chunk frame received from a peer, like
+     * {@link #serialize(JavelinEvent)}. The position of the data is left untouched.
+     *
+     * @param transferId the ID of the transfer
+     * @param flags      the flags of the chunk
+     * @param names      the event type names if it's the first chunk, as returned by
+     *                   {@link #readEventHeader(ByteBuffer, Map)}, or {@code null}
+     * @param data       the buffer containing the data of the chunk, without the event frame header
+     * @return the output containing the chunk frame
+     * @throws KryoBufferOverflowException if the chunk frame is larger than {@link Internal#MAX_EVENT_SIZE}
+     */
+    ByteBufferOutput serialize(
+            final int transferId, final byte flags, final @Nullable String[] names, final ByteBuffer data) {
+        final var output = outputs.obtain();
+        try {
+            output.writeByte(Internal.CHUNK_FRAME);
+            output.writeVarInt(transferId, true);
+            output.writeByte(flags);
+            final var start = output.position();
+            output.writeShort(0);
+            if (names != null) {
+                output.writeByte(Internal.EVENT_FRAME);
+                writeClassReference(output, names);
+            }
+            final var buffer = output.getByteBuffer();
+            if (data.remaining() > buffer.remaining()) {
+                throw new KryoBufferOverflowException("The chunk is too large.");
+            }
+            buffer.put(data.duplicate());
+            final var end = buffer.position();
+            output.setPosition(start);
+            output.writeShort(end - start - 2);
+            output.setPosition(end);
+            buffer.flip();
+            return output;
+        } catch (final KryoException e) {
+            outputs.free(output);
+            throw e;
+        }
+    }
+
+    /**
+     * Serializes an event frame from the payload of a frame received from a peer, like
+     * {@link #serialize(JavelinEvent)}. The position of the payload is left untouched.
+     *
+     * @param names   the event type names, as returned by {@link #readEventHeader(ByteBuffer, Map)}
+     * @param payload the buffer containing the serialized event
+     * @return the output containing the event frame
+     * @throws KryoBufferOverflowException if the event frame is larger than {@link Internal#MAX_EVENT_SIZE}
+     */
+    ByteBufferOutput serialize(final String[] names, final ByteBuffer payload) {
+        final var output = outputs.obtain();
+        try {
+            output.writeByte(Internal.EVENT_FRAME);
+            writeClassReference(output, names);
+            final var buffer = output.getByteBuffer();
+            if (payload.remaining() > buffer.remaining()) {
+                throw new KryoBufferOverflowException("The event is too large.");
+            }
+            buffer.put(payload.duplicate());
+            output.setPosition(buffer.position());
+            buffer.flip();
+            return output;
+        } catch (final KryoException e) {
+            outputs.free(output);
+            throw e;
+        }
+    }
+
+    /**
+     * Serializes the definition frame of a class ID assigned by this serializer, like {@link #serialize(JavelinEvent)}.
+     *
+     * @param classId the class ID, as returned by {@link #readClassId(ByteBuffer)}
+     * @return the output containing the definition frame
+     */
+    ByteBufferOutput serialize(final int classId) {
+        final var names = definitions.get(classId);
+        if (names == null) {
+            throw new IllegalArgumentException("Unknown class ID: " + classId);
+        }
+        final var output = outputs.obtain();
+        output.writeByte(Internal.DEFINE_FRAME);
+        output.writeVarInt(classId, true);
+        writeEventTypeNames(output, names);
+        output.getByteBuffer().flip();
+        return output;
+    }
+
+    /**
+     * Serializes a subscription frame into a pooled output, like {@link #serialize(JavelinEvent)}.
+     *
+     * @param subscribe whether the frame is a subscription or an unsubscription
+     * @param name      the name of the event type
+     * @return the output containing the serialized subscription
+     */
+    ByteBufferOutput serialize(final boolean subscribe, final String name) {
+        final var output = outputs.obtain();
+        output.writeByte(subscribe ? Internal.SUBSCRIBE_FRAME : Internal.UNSUBSCRIBE_FRAME);
+        output.writeString(name);
+        output.getByteBuffer().flip();
+        return output;
+    }
+
+    void release(final ByteBufferOutput output) {
+        outputs.free(output);
+    }
+
+    /**
+     * Reads the class ID of an event frame or of the first chunk frame of a transfer serialized by this serializer.
+     * Returns {@link #INLINE_CLASS_ID} for the other chunk frames. The position of the buffer is left untouched.
+     */
+    int readClassId(final ByteBuffer buffer) {
+        final var input = inputs.obtain();
+        final var position = buffer.position();
+        try {
+            input.setBuffer(buffer);
+            if (input.readByte() == Internal.CHUNK_FRAME) {
+                input.readVarInt(true);
+                if ((input.readByte() & Internal.CHUNK_FIRST) == 0) {
+                    return INLINE_CLASS_ID;
+                }
+                input.readShort();
+                input.readByte();
+            }
+            return input.readVarInt(true);
+        } finally {
+            buffer.position(position);
+            inputs.free(input);
+        }
+    }
+
+    /**
+     * Reads the event type names of an event frame or of the first chunk frame of a transfer serialized by this
+     * serializer. The position of the buffer is left untouched.
+     */
+    String[] readEventTypeNames(final ByteBuffer buffer) {
+        final var position = buffer.position();
+        final var limit = buffer.limit();
+        try {
+            if (getFrameType(buffer) == Internal.CHUNK_FRAME) {
+                readChunkFlags(buffer);
+            }
+            return Objects.requireNonNull(readEventHeader(buffer, definitions));
+        } finally {
+            buffer.limit(limit);
+            buffer.position(position);
+        }
+    }
+
+    /**
+     * Reads the transfer ID of a chunk frame. The position of the buffer is left untouched.
+     *
+     * @return the transfer ID, or -1 if the frame is truncated, its flags are then invalid too
+     */
+    int readTransferId(final ByteBuffer buffer) {
+        final var input = inputs.obtain();
+        final var position = buffer.position();
+        try {
+            input.setBuffer(buffer);
+            input.readByte();
+            return input.readVarInt(true);
+        } catch (final KryoException e) {
+            return -1;
+        } finally {
+            buffer.position(position);
+            inputs.free(input);
+        }
+    }
+
+    /**
+     * Reads the flags of a chunk frame, and moves the position and the limit of the buffer to the bounds of its data.
+     *
+     * @return the flags, or {@link #INVALID_CHUNK_FLAGS} if the frame is truncated or if the length of its data is
+     *         larger than the rest of the frame, the buffer is then left untouched
+     */
+    byte readChunkFlags(final ByteBuffer buffer) {
+        final var input = inputs.obtain();
+        try {
+            input.setBuffer(buffer);
+            input.readByte();
+            input.readVarInt(true);
+            final var flags = input.readByte();
+            final var length = input.readShortUnsigned();
+            if (length > buffer.limit() - input.position()) {
+                return INVALID_CHUNK_FLAGS;
+            }
+            buffer.position(input.position());
+            buffer.limit(input.position() + length);
+            return flags;
+        } catch (final KryoException e) {
+            return INVALID_CHUNK_FLAGS;
+        } finally {
+            inputs.free(input);
+        }
+    }
+
+    /**
+     * Reads the header of an event frame received from a peer, and moves the position of the buffer to its payload.
+     *
+     * @param buffer      the buffer containing the event frame
+     * @param definitions the class IDs defined by the peer, see {@link #readDefinition(ByteBuffer, Map)}
+     * @return the event type names, or {@code null} if the class ID is not defined or if there is no names
+     */
+    @Nullable String[] readEventHeader(final ByteBuffer buffer, final Map<Integer, String[]> definitions) {
+        final var input = inputs.obtain();
+        try {
+            input.setBuffer(buffer);
+            input.readByte();
+            final var classId = input.readVarInt(true);
+            final var names = classId == INLINE_CLASS_ID ? readEventTypeNames(input) : definitions.get(classId);
+            buffer.position(input.position());
+            return names == null || names.length == 0 ? null : names;
+        } finally {
+            inputs.free(input);
+        }
+    }
+
+    /**
+     * Reads a definition frame received from a peer and stores it in the given definitions.
+     * The position of the buffer is left untouched.
+     *
+     * @return {@code false} if the frame is invalid or if the class ID is not below {@link Internal#MAX_CLASS_IDS}
+     */
+    boolean readDefinition(final ByteBuffer buffer, final Map<Integer, String[]> definitions) {
+        final var input = inputs.obtain();
+        final var position = buffer.position();
+        try {
+            input.setBuffer(buffer);
+            input.readByte();
+            final var classId = input.readVarInt(true);
+            // The peer assigns the class IDs like this serializer, so larger ones can only grow the definitions
+            if (classId < 0 || classId >= Internal.MAX_CLASS_IDS) {
+                return false;
+            }
+            final var names = readEventTypeNames(input);
+            if (classId != INLINE_CLASS_ID) {
+                definitions.put(classId, names);
+            }
+            return true;
+        } catch (final KryoException e) {
+            return false;
+        } finally {
+            buffer.position(position);
+            inputs.free(input);
+        }
+    }
+
+    /**
+     * Reads the frames of a batch frame, see {@link EventBatcher}. The position of the buffer is left untouched.
+     *
+     * @param buffer the buffer containing the batch frame
+     * @param action the action to run on each frame, the given buffers share the content of the batch frame
+     */
+    void readBatch(final ByteBuffer buffer, final Consumer<ByteBuffer> action) {
+        final var frames = new ArrayList<ByteBuffer>();
+        final var input = inputs.obtain();
+        final var position = buffer.position();
+        try {
+            input.setBuffer(buffer);
+            input.readByte();
+            while (input.position() < buffer.limit()) {
+                final var length = input.readVarInt(true);
+                if (length == 0) {
+                    break;
+                }
+                final var start = input.position();
+                input.skip(length);
+                frames.add(
+                        buffer.duplicate().limit(start + length).position(start).slice());
+            }
+        } finally {
+            buffer.position(position);
+            inputs.free(input);
+        }
+        frames.forEach(action);
+    }
+
+    /**
+     * Reads the class name of a subscription frame. The position of the buffer is left untouched.
+     */
+    String readClassName(final ByteBuffer buffer) {
+        final var input = inputs.obtain();
+        final var position = buffer.position();
+        try {
+            input.setBuffer(buffer);
+            input.readByte();
+            return input.readString();
+        } finally {
+            buffer.position(position);
+            inputs.free(input);
+        }
+    }
+
+    /**
+     * Deserializes the payload of an event frame. The position of the buffer is left untouched.
+     *
+     * @param names  the event type names, as returned by {@link #readEventHeader(ByteBuffer, Map)}
+     * @param buffer the buffer containing the serialized event
+     * @param filter whether the event should be deserialized, given its class
+     * @return the deserialized event, or {@code null} if the class of the event is unknown or filtered out
+     */
+    @Nullable JavelinEvent deserialize(
+            final String[] names, final ByteBuffer buffer, final Predicate<Class<? extends JavelinEvent>> filter) {
+        final var kryo = obtainKryo();
+        final var input = inputs.obtain();
+        final var position = buffer.position();
+        try {
+            input.setBuffer(buffer);
+            final var clazz = findEventClass(names[0], kryo.getClassLoader());
+            return clazz != null && filter.test(clazz) ? kryo.readObject(input, clazz) : null;
+        } finally {
+            buffer.position(position);
+            inputs.free(input);
+            kryos.free(kryo);
+        }
+    }
+
+    /**
+     * Returns the event class of the given event type names, or {@code null} if the class is unknown.
+     */
+    @Nullable Class<? extends JavelinEvent> findEventClass(final String[] names) {
+        if (isUnknownClass(names[0])) {
+            return null;
+        }
+        final var kryo = obtainKryo();
+        try {
+            return findEventClass(names[0], kryo.getClassLoader());
+        } finally {
+            kryos.free(kryo);
+        }
+    }
+
+    /**
+     * Deserializes an event streamed in chunks, blocking until the whole event has been read from the stream.
+     *
+     * @param clazz  the event class, as returned by {@link #findEventClass(String[])}
+     * @param stream the stream of the payload of the event
+     * @return the deserialized event
+     * @throws KryoException if the stream fails or if the event is invalid
+     */
+    JavelinEvent deserialize(final Class<? extends JavelinEvent> clazz, final InputStream stream) {
+        final var kryo = obtainKryo();
+        try {
+            return kryo.readObject(new Input(stream, Internal.MAX_CHUNK_SIZE), clazz);
+        } finally {
+            kryos.free(kryo);
+        }
+    }
+
+    // Writes the class ID of the given event type names, assigning a new one if needed, or the names themselves
+    private void writeClassReference(final Output output, final String[] names) {
+        final int classId = classIds.computeIfAbsent(names[0], name -> {
+            final var id = lastClassId.incrementAndGet();
+            if (id >= Internal.MAX_CLASS_IDS) {
+                return INLINE_CLASS_ID;
+            }
+            definitions.put(id, names);
+            return id;
+        });
+        output.writeVarInt(classId, true);
+        if (classId == INLINE_CLASS_ID) {
+            writeEventTypeNames(output, names);
+        }
+    }
+
+    private void writeEventTypeNames(final Output output, final String[] names) {
+        output.writeVarInt(names.length, true);
+        for (final var name : names) {
+            output.writeString(name);
+        }
+    }
+
+    private String[] readEventTypeNames(final Input input) {
+        final var count = input.readVarInt(true);
+        // Each name takes at least a byte, so a larger count can only come from an invalid frame
+        if (count < 0 || count > input.limit() - input.position()) {
+            throw new KryoException("Invalid event type name count: " + count);
+        }
+        final var names = new String[count];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = input.readString();
+        }
+        return names;
+    }
+
+    /**
+     * Remembers that the given event class can't be loaded or deserialized, so the next frames of the event are skipped
+     * by {@link #findEventClass(String[])} until the class is looked up again, after
+     * {@link Internal#UNKNOWN_CLASS_RETRY_NANOS}. Once {@link Internal#MAX_UNKNOWN_CLASSES} are remembered, the other
+     * unknown classes are looked up on each frame.
+     *
+     * @param name the class name of the event
+     */
+    void markUnknownClass(final String name) {
+        if (unknownClasses.size() < Internal.MAX_UNKNOWN_CLASSES || unknownClasses.containsKey(name)) {
+            unknownClasses.put(name, System.nanoTime());
+        }
+    }
+
+    /**
+     * Returns the number of unknown event classes currently remembered, see {@link #markUnknownClass(String)}.
+     */
+    int countUnknownClasses() {
+        return unknownClasses.size();
+    }
+
+    private boolean isUnknownClass(final String name) {
+        final var attempt = unknownClasses.get(name);
+        return attempt != null && System.nanoTime() - attempt < Internal.UNKNOWN_CLASS_RETRY_NANOS;
+    }
+
+    @SuppressWarnings("unchecked")
+    private @Nullable Class<? extends JavelinEvent> findEventClass(final String name, final ClassLoader loader) {
+        if (isUnknownClass(name)) {
+            return null;
+        }
+        var clazz = classes.get(name);
+        if (clazz == null) {
+            try {
+                final var found = Class.forName(name, false, loader);
+                if (!JavelinEvent.class.isAssignableFrom(found)) {
+                    markUnknownClass(name);
+                    return null;
+                }
+                clazz = (Class<? extends JavelinEvent>) found;
+                classes.put(name, clazz);
+                unknownClasses.remove(name);
+            } catch (final ClassNotFoundException e) {
+                markUnknownClass(name);
+                return null;
+            }
+        }
+        return clazz;
+    }
+
+    private final class ChunkOutputStream extends OutputStream {
+
+        private final int transferId;
+        private final Consumer<ByteBuffer> sink;
+        private boolean first = true;
+        private boolean finished = false;
+
+        private ChunkOutputStream(final int transferId, final Consumer<ByteBuffer> sink) {
+            this.transferId = transferId;
+            this.sink = sink;
+        }
+
+        @Override
+        public void write(final int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) {
+            for (int i = 0; i < length; i += Internal.MAX_CHUNK_SIZE) {
+                send(
+                        first ? Internal.CHUNK_FIRST : 0,
+                        bytes,
+                        offset + i,
+                        Math.min(length - i, Internal.MAX_CHUNK_SIZE));
+                first = false;
+            }
+        }
+
+        private void finish(final byte flags) {
+            finished = true;
+            send(flags, new byte[0], 0, 0);
+        }
+
+        private void send(final int flags, final byte[] bytes, final int offset, final int length) {
+            final var output = outputs.obtain();
+            try {
+                output.writeByte(Internal.CHUNK_FRAME);
+                output.writeVarInt(transferId, true);
+                output.writeByte(flags);
+                output.writeShort(length);
+                output.writeBytes(bytes, offset, length);
+                output.getByteBuffer().flip();
+                sink.accept(output.getByteBuffer());
+            } finally {
+                outputs.free(output);
+            }
+        }
+    }
+
+    private static final class CodecKryo extends Kryo {
+
+        // Only accessed by the thread using the instance
+        private int codecsVersion = 0;
+
+        // Called once per class, when the class is not registered yet
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        @Override
+        public Serializer getDefaultSerializer(final Class type) {
+            final var codec = getGeneratedCodec(type);
+            return codec != null ? new EventCodecSerializer(codec) : super.getDefaultSerializer(type);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.checkerframework.checker.nullness.qual.*;
+
+/**
+ * Writes a frame to its receivers, splitting them in shards written in parallel by a pool of threads when there are
+ * enough of them. The calling thread writes the first shard and waits for the others, so each receiver is only
+ * accessed by one thread at a time, and the frame can be reused once {@link #execute(List, int, ByteBuffer, Writer)}
+ * returns.
+ */
+final class FanOutExecutor {
+
+    // Handing a shard to another thread takes a few microseconds, more than writing a few receivers
+    static final int MIN_SHARD_SIZE = 8;
+
+    private final @Nullable ExecutorService executor;
+    private final int shards;
+
+    /**
+     * @param workers the number of threads writing the shards along with the calling thread, 0 to write all the
+     *                receivers in the calling thread
+     */
+    FanOutExecutor(final int workers) {
+        this.shards = workers + 1;
+        this.executor = workers > 0
+                ? Executors.newFixedThreadPool(workers, runnable -> {
+                    final var thread = new Thread(runnable, "javelin-fan-out");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+    }
+
+    /**
+     * Writes the frame to the receivers, returning once all of them have been written.
+     *
+     * @param receivers the receivers of the frame
+     * @param classId   the class ID of the event, or {@link EventSerializer#INLINE_CLASS_ID}
+     * @param frame     the frame, each shard reads a duplicate of it
+     * @param writer    the function writing the frame to a receiver
+     * @throws RuntimeException the first exception thrown by the writer, once all the shards are done
+     */
+    <T> void execute(final List<T> receivers, final int classId, final ByteBuffer frame, final Writer<T> writer) {
+        final var executor = this.executor;
+        final var shards = Math.min(this.shards, receivers.size() / MIN_SHARD_SIZE);
+        if (executor == null || shards <= 1) {
+            write(receivers, 0, receivers.size(), classId, frame, writer);
+            return;
+        }
+        final var remaining = new CountDownLatch(shards - 1);
+        final var failure = new AtomicReference<@Nullable RuntimeException>();
+        for (int shard = 1; shard < shards; shard++) {
+            final var from = receivers.size() * shard / shards;
+            final var to = receivers.size() * (shard + 1) / shards;
+            final var buffer = frame.duplicate();
+            final Runnable task = () -> {
+                try {
+                    write(receivers, from, to, classId, buffer, writer);
+                } catch (final RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    remaining.countDown();
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (final RejectedExecutionException e) {
+                // The executor has been shut down along with the socket
+                task.run();
+            }
+        }
+        try {
+            write(receivers, 0, receivers.size() / shards, classId, frame, writer);
+        } finally {
+            awaitUninterruptibly(remaining);
+        }
+        final var error = failure.get();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private static <T> void write(
+            final List<T> receivers,
+            final int from,
+            final int to,
+            final int classId,
+            final ByteBuffer frame,
+            final Writer<T> writer) {
+        for (int i = from; i < to; i++) {
+            writer.write(receivers.get(i), classId, frame);
+        }
+    }
+
+    // The receivers of the other shards must not be accessed by the calling thread until they are written
+    private static void awaitUninterruptibly(final CountDownLatch latch) {
+        var interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a frame to a receiver, see {@link #execute(List, int, ByteBuffer, Writer)}.
+     */
+    @FunctionalInterface
+    interface Writer<T> {
+
+        void write(final T receiver, final int classId, final ByteBuffer frame);
+    }
+}
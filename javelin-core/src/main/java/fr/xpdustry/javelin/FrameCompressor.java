@@ -0,0 +1,199 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.nio.*;
+import java.util.function.*;
+import java.util.zip.*;
+import org.checkerframework.checker.nullness.qual.*;
+
+/**
+ * Compresses the frames sent to a connection and decompresses the ones received from it, according to a
+ * {@link CompressionPolicy}. A compressed frame contains the zlib stream of the original frame, prefixed by its size.
+ * The zlib stream refers to the preset dictionary by its checksum, so a frame compressed with another dictionary is
+ * rejected instead of being decompressed into garbage.
+ * <br>
+ * This class is not thread-safe, {@link #send(ByteBuffer)} must be called while holding the write lock of its
+ * connection and {@link #decompress(ByteBuffer)} by the thread receiving the frames of the connection. The server also
+ * compresses each relayed frame once for all its receivers, with a compressor per relaying thread, see
+ * {@link #compress(ByteBuffer)}.
+ */
+final class FrameCompressor {
+
+    // The frames smaller than the overhead of the zlib stream can't shrink
+    private static final int MIN_COMPRESSED_SIZE = 16;
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    private final CompressionPolicy policy;
+    private final Consumer<ByteBuffer> sink;
+    private final int dictionaryId;
+    private @Nullable Deflater deflater = null;
+    private @Nullable Inflater inflater = null;
+    private ByteBuffer buffer = EMPTY_BUFFER;
+    // Grown as the received frames are inflated, so the declared size of a frame doesn't allocate anything by itself
+    private ByteBuffer inflated = EMPTY_BUFFER;
+
+    /**
+     * Creates a new compressor.
+     *
+     * @param policy the compression policy
+     * @param sink   the function sending the frames to the connection
+     */
+    FrameCompressor(final CompressionPolicy policy, final Consumer<ByteBuffer> sink) {
+        this.policy = policy;
+        this.sink = sink;
+        final var dictionary = policy.getDictionary();
+        if (dictionary != null) {
+            final var checksum = new Adler32();
+            checksum.update(dictionary);
+            this.dictionaryId = (int) checksum.getValue();
+        } else {
+            this.dictionaryId = 0;
+        }
+    }
+
+    /**
+     * Sends a frame, compressed if it's large enough and if it shrinks once compressed.
+     * The frame is left untouched, and the compressed frame is recycled once the sink returns.
+     */
+    void send(final ByteBuffer frame) {
+        sink.accept(isCompressible(frame) ? compress(frame) : frame);
+    }
+
+    /**
+     * Returns whether the frame is large enough to be compressed, and not too large.
+     */
+    boolean isCompressible(final ByteBuffer frame) {
+        final var size = frame.remaining();
+        return policy.isEnabled()
+                && size >= Math.max(policy.getThreshold(), MIN_COMPRESSED_SIZE)
+                && size <= Internal.MAX_COMPRESSED_FRAME_SIZE;
+    }
+
+    /**
+     * Compresses a frame, see {@link #isCompressible(ByteBuffer)}. The frame is left untouched.
+     *
+     * @return the compressed frame, recycled on the next call, or the frame itself if it doesn't shrink once compressed
+     */
+    ByteBuffer compress(final ByteBuffer frame) {
+        final var size = frame.remaining();
+        if (deflater == null) {
+            deflater = new Deflater(policy.getLevel());
+        }
+        deflater.reset();
+        final var dictionary = policy.getDictionary();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(frame.duplicate());
+        deflater.finish();
+
+        // The compressed frame is useless if it's not smaller than the frame
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size);
+        }
+        buffer.clear().limit(size);
+        buffer.put(Internal.COMPRESSED_FRAME);
+        writeVarInt(buffer, size);
+        while (buffer.hasRemaining() && !deflater.finished()) {
+            deflater.deflate(buffer);
+        }
+        if (!deflater.finished()) {
+            return frame;
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Decompresses a compressed frame received from the connection.
+     *
+     * @param frame the compressed frame, its position is moved to its end
+     * @return a new buffer containing the original frame, or {@code null} if it can't be decompressed or if its size
+     *     is not the declared one
+     */
+    @Nullable ByteBuffer decompress(final ByteBuffer frame) {
+        frame.get();
+        final var size = readVarInt(frame);
+        if (size < 0 || size > Internal.MAX_COMPRESSED_FRAME_SIZE) {
+            return null;
+        }
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        inflater.reset();
+        inflater.setInput(frame);
+        // One more byte than declared, to detect the frames larger than their declared size
+        final var limit = size + 1;
+        inflated.clear().limit(Math.min(limit, inflated.capacity()));
+        try {
+            while (!inflater.finished()) {
+                if (!inflated.hasRemaining()) {
+                    if (inflated.limit() == limit) {
+                        return null;
+                    }
+                    grow(limit);
+                }
+                if (inflater.inflate(inflated) != 0) {
+                    continue;
+                }
+                final var dictionary = policy.getDictionary();
+                if (inflater.needsDictionary() && dictionary != null && inflater.getAdler() == dictionaryId) {
+                    inflater.setDictionary(dictionary);
+                } else {
+                    return null;
+                }
+            }
+        } catch (final DataFormatException e) {
+            return null;
+        }
+        if (inflated.position() != size) {
+            return null;
+        }
+        // The received frames may be handled by other threads, so only the inflated bytes are copied out
+        return ByteBuffer.allocate(size).put(inflated.flip()).flip();
+    }
+
+    // Doubles the inflated buffer, up to the limit, keeping its content
+    private void grow(final int limit) {
+        final var capacity = Math.min(Math.max(inflated.capacity() * 2, Internal.MAX_EVENT_SIZE), limit);
+        inflated = ByteBuffer.allocate(capacity).put(inflated.flip());
+    }
+
+    // Same format as the variable length integers of kryo
+    private static void writeVarInt(final ByteBuffer buffer, final int value) {
+        var remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            buffer.put((byte) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        buffer.put((byte) remaining);
+    }
+
+    private static int readVarInt(final ByteBuffer buffer) {
+        var result = 0;
+        for (int shift = 0; shift < 32 && buffer.hasRemaining(); shift += 7) {
+            final var b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.lang.annotation.*;
+
+/**
+ * Generates an {@link EventCodec} for the annotated event class at compile time, with the annotation processor of
+ * {@code javelin-processor}. The sockets find the generated codec by themselves, it doesn't need to be registered.
+ * <br>
+ * The annotated class must be a record, or a class without a superclass whose fields are either accessible, or read
+ * with a getter, and set by a constructor taking all of them. The fields can be primitives, boxed primitives, strings,
+ * enums, byte arrays, or lists of strings, boxed primitives and enums.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface GenerateEventCodec {}
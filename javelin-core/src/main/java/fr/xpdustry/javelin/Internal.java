@@ -19,21 +19,57 @@
 package fr.xpdustry.javelin;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.*;
 import org.java_websocket.drafts.*;
-import org.java_websocket.extensions.permessage_deflate.*;
 import org.java_websocket.protocols.*;
 
 final class Internal {
 
     static final int MAX_EVENT_SIZE = 8192;
+    static final int MAX_CLASS_IDS = 4096;
+    static final int MAX_CHUNK_SIZE = MAX_EVENT_SIZE - 16;
+    static final int MAX_PENDING_CHUNKS = 4;
+    // About as much memory per transfer as a compressed frame
+    static final int MAX_QUEUED_CHUNKS = 128;
+    static final int MAX_CONCURRENT_TRANSFERS = 4;
+    // The raw events are buffered whole, so about as much memory as the queue of a transfer
+    static final int MAX_RAW_TRANSFER_SIZE = MAX_QUEUED_CHUNKS * MAX_CHUNK_SIZE;
+    static final long TRANSFER_IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30L);
+    static final int MAX_COMPRESSED_FRAME_SIZE = 1 << 20;
+    // A batch is compressed whole, so it must fit in a decompressed frame with its frame type
+    static final int MAX_BATCH_SIZE = MAX_COMPRESSED_FRAME_SIZE - 1;
+    static final int MAX_UNKNOWN_CLASSES = 1024;
+    static final long UNKNOWN_CLASS_RETRY_NANOS = TimeUnit.MINUTES.toNanos(1L);
+
+    static final byte EVENT_FRAME = 0;
+    static final byte SUBSCRIBE_FRAME = 1;
+    static final byte UNSUBSCRIBE_FRAME = 2;
+    static final byte DEFINE_FRAME = 3;
+    static final byte BATCH_FRAME = 4;
+    static final byte CHUNK_FRAME = 5;
+    static final byte COMPRESSED_FRAME = 6;
+    static final byte AUTHENTICATED_FRAME = 7;
+    static final byte SEQUENCED_FRAME = 8;
+    static final byte ACK_FRAME = 9;
+
+    static final byte CHUNK_FIRST = 1;
+    static final byte CHUNK_LAST = 1 << 1;
+    static final byte CHUNK_ABORT = 1 << 2;
+
+    // Subscribing to the root event type subscribes to all the events
+    static final String ANY_EVENT_TYPE = JavelinEvent.class.getName();
 
     static final String AUTHORIZATION_HEADER = "Authorization";
     static final Pattern AUTHORIZATION_REGEX = Pattern.compile("^Basic (.+)$");
+    static final String SESSION_HEADER = "Javelin-Session";
+    // The ID of the sequence numbers of a client with reliable delivery
+    static final String CHANNEL_HEADER = "Javelin-Channel";
+    // The time a reliable channel without connection is kept, for its client to reconnect and send its frames again
+    static final long RELIABLE_CHANNEL_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(15L);
+    static final long AUTHENTICATION_TIMEOUT_SECONDS = 30L;
 
     static Draft getJavelinDraft() {
-        return new Draft_6455(
-                Collections.singletonList(new PerMessageDeflateExtension()),
-                List.of(new Protocol(""), new Protocol("ocpp2.0")));
+        return new Draft_6455(Collections.emptyList(), List.of(new Protocol(""), new Protocol("ocpp2.0")));
     }
 }
@@ -18,8 +18,37 @@
  */
 package fr.xpdustry.javelin;
 
+import java.time.*;
+import java.util.concurrent.*;
+
 @FunctionalInterface
 public interface JavelinAuthenticator {
 
     boolean authenticate(final String username, final char[] password);
+
+    /**
+     * Authenticates a connecting client without blocking the threads of the server. By default, calls
+     * {@link #authenticate(String, char[])} with the given executor. Override it if the credentials are verified by an
+     * asynchronous service.
+     *
+     * @param executor the authentication threads of the server, see
+     *                 {@link JavelinSocket.ServerBuilder#authenticationWorkers(int)}
+     * @return a future completed with whether the credentials are valid
+     */
+    default CompletableFuture<Boolean> authenticateAsync(
+            final String username, final char[] password, final Executor executor) {
+        return CompletableFuture.supplyAsync(() -> authenticate(username, password), executor);
+    }
+
+    /**
+     * Returns whether a session token issued to the given user is still valid, so the user can reconnect without
+     * verifying its password again. Called by the threads receiving the messages, so it must be fast. By default,
+     * returns {@code true}, the tokens are only invalidated once they expire.
+     *
+     * @param issued the time the token was issued
+     * @see JavelinSocket.ServerBuilder#sessionDuration(Duration)
+     */
+    default boolean isSessionValid(final String username, final Instant issued) {
+        return true;
+    }
 }
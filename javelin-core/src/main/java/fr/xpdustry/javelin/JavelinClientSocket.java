@@ -25,15 +25,32 @@ import java.nio.charset.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.function.*;
 import org.checkerframework.checker.nullness.qual.*;
+import org.java_websocket.*;
 import org.java_websocket.client.*;
+import org.java_websocket.exceptions.*;
 import org.java_websocket.framing.*;
 import org.java_websocket.handshake.*;
 
 final class JavelinClientSocket extends AbstractJavelinSocket {
 
     private final AtomicBoolean connecting = new AtomicBoolean();
-    private final ExecutorService executor;
+    private final Object writeLock = new Object();
+    private final BitSet sentClassIds = new BitSet();
+    private final EventBatcher batcher;
+    private final FrameCompressor compressor;
+    // Numbers the frames sent when the delivery is reliable, see ClientBuilder#reliableDelivery
+    private final @Nullable ReliableSender reliable;
+    // Replaced while holding the write lock, since the connection is replaced on each restart
+    private volatile WriteTracker tracker;
+    // Created once instead of for each event, the tracker is read on each call
+    private final BooleanSupplier connected = () -> tracker.isOpen();
+    // Replaced when a connection opens, completed once the server verified the credentials
+    private volatile CompletableFuture<Void> authentication = new CompletableFuture<>();
+    private final Map<Integer, String[]> receivedClassIds = new HashMap<>();
+    private final EventAssembler assembler;
+    private final OrderedExecutor executor;
     private final JavelinClientWebSocket socket;
 
     JavelinClientSocket(
@@ -41,28 +58,36 @@ final class JavelinClientSocket extends AbstractJavelinSocket {
             final int workers,
             final @Nullable PasswordAuthentication authentication,
             final boolean enableLocalBroadcast) {
-        super(enableLocalBroadcast);
-        this.executor = Executors.newFixedThreadPool(workers);
-        this.socket = new JavelinClientWebSocket(serverUri, authentication);
+        this(JavelinSocket.clientBuilder(serverUri)
+                .authentication(authentication)
+                .workers(workers)
+                .enableLocalBroadcast(enableLocalBroadcast));
+    }
+
+    JavelinClientSocket(final JavelinSocket.ClientBuilder builder) {
+        super(
+                builder.isLocalBroadcastEnabled(),
+                builder.getOutboundQueuePolicy(),
+                builder.getMetrics(),
+                "client[" + builder.getServerUri() + ']');
+        this.executor = createEventExecutor(builder.getWorkers(), builder.isVirtualThreadsEnabled());
+        this.reliable = builder.getReliableWindow() > 0 ? new ReliableSender(builder.getReliableWindow()) : null;
+        this.socket = new JavelinClientWebSocket(builder.getServerUri(), builder.getAuthentication(), reliable);
+        this.socket.setTcpNoDelay(builder.isTcpNoDelay());
+        this.tracker = new WriteTracker(socket.getConnection(), 0, socket.name, metrics);
+        this.compressor = new FrameCompressor(builder.getCompressionPolicy(), this::write);
+        if (reliable != null) {
+            registerGauge("reliable.pending", reliable::countPending);
+        }
+        this.batcher = new EventBatcher(builder.getBatchingPolicy(), writeLock, this::send);
+        this.assembler = createEventAssembler(true, event -> dispatchEvent(executor, event));
     }
 
     @Override
     public CompletableFuture<Void> start() {
         if (getStatus() != Status.UNUSABLE && getStatus() == Status.CLOSED && connecting.compareAndSet(false, true)) {
             final var future = new CompletableFuture<Void>();
-            ForkJoinPool.commonPool().execute(() -> {
-                try {
-                    if (!socket.connectBlocking()) {
-                        future.completeExceptionally(new IOException("Failed to connect."));
-                    } else {
-                        future.complete(null);
-                    }
-                } catch (final InterruptedException e) {
-                    future.cancel(true);
-                } finally {
-                    connecting.set(false);
-                }
-            });
+            ForkJoinPool.commonPool().execute(() -> connect(future, false));
             return future;
         }
         return CompletableFuture.failedFuture(
@@ -73,33 +98,77 @@ final class JavelinClientSocket extends AbstractJavelinSocket {
     public CompletableFuture<Void> restart() {
         if (getStatus() != Status.UNUSABLE && getStatus() != Status.CLOSING && connecting.compareAndSet(false, true)) {
             final var future = new CompletableFuture<Void>();
-            ForkJoinPool.commonPool().execute(() -> {
-                try {
-                    if (!socket.reconnectBlocking()) {
-                        future.completeExceptionally(new IOException("Failed to connect."));
-                    } else {
-                        future.complete(null);
-                    }
-                } catch (final InterruptedException e) {
-                    future.cancel(true);
-                } finally {
-                    connecting.set(false);
-                }
-            });
+            ForkJoinPool.commonPool().execute(() -> connect(future, true));
             return future;
         }
         return CompletableFuture.failedFuture(
                 new IllegalStateException("The client socket can't be restarted in it's current state."));
     }
 
+    private void connect(final CompletableFuture<Void> future, final boolean reconnect) {
+        var connected = false;
+        var interrupted = false;
+        @Nullable Exception failure = null;
+        try {
+            connected = (reconnect ? socket.reconnectBlocking() : socket.connectBlocking()) && awaitAuthentication();
+        } catch (final InterruptedException e) {
+            interrupted = true;
+        } catch (final Exception e) {
+            // Such as connecting again a websocket client that has already been connected
+            failure = e;
+        }
+        // Reset before completing, so the socket is usable as soon as the future completes
+        connecting.set(false);
+        if (interrupted) {
+            future.cancel(true);
+        } else if (failure != null) {
+            future.completeExceptionally(failure);
+        } else if (!connected) {
+            future.completeExceptionally(new IOException("Failed to connect."));
+        } else {
+            future.complete(null);
+        }
+    }
+
+    // The authentication future is replaced by onOpen, before the connect methods return
+    private boolean awaitAuthentication() throws InterruptedException {
+        try {
+            authentication.get(Internal.AUTHENTICATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return true;
+        } catch (final ExecutionException e) {
+            return false;
+        } catch (final TimeoutException e) {
+            // The server never answered, the connection is useless without the authentication
+            logger.error("The server did not authenticate the connection in time, closing it.");
+            socket.closeBlocking();
+            return false;
+        }
+    }
+
     @Override
     public CompletableFuture<Void> close() {
         if (getStatus() == Status.OPEN) {
             final var future = new CompletableFuture<Void>();
             ForkJoinPool.commonPool().execute(() -> {
+                closeOutbound();
+                try {
+                    synchronized (writeLock) {
+                        batcher.flush();
+                        // The confirmations of the last frames are received before the closing handshake completes
+                        if (reliable != null) {
+                            reliable.flush(tracker);
+                        }
+                        tracker.flush();
+                    }
+                } catch (final WebsocketNotConnectedException ignored) {
+                    // The connection has been closed in the meantime
+                }
                 try {
                     socket.closeBlocking();
                     executor.shutdown();
+                    if (reliable != null) {
+                        reliable.close();
+                    }
                     future.complete(null);
                 } catch (final InterruptedException e) {
                     future.cancel(true);
@@ -107,15 +176,83 @@ final class JavelinClientSocket extends AbstractJavelinSocket {
             });
             return future;
         } else if (!executor.isShutdown()) {
-            return CompletableFuture.runAsync(executor::shutdown);
+            return CompletableFuture.runAsync(() -> {
+                closeOutbound();
+                executor.shutdown();
+                if (reliable != null) {
+                    reliable.close();
+                }
+            });
         }
         return CompletableFuture.failedFuture(
                 new IllegalStateException("The client socket can't be closed in it's current state."));
     }
 
     @Override
-    protected void onEventSend(final ByteBuffer buffer) {
-        socket.send(buffer);
+    protected void onEventSend(final ByteBuffer buffer, final OutboundQueue.Delivery delivery) {
+        final var classId = serializer.readClassId(buffer);
+        // Before taking the write lock, so the subscriptions and the batches are still sent while the server lags
+        // behind. The tracker is read on each check, since it's replaced on reconnection.
+        if (reliable != null) {
+            reliable.awaitRoom(connected);
+        }
+        synchronized (writeLock) {
+            if (classId != EventSerializer.INLINE_CLASS_ID && !sentClassIds.get(classId)) {
+                final var output = serializer.serialize(classId);
+                try {
+                    if (reliable != null) {
+                        reliable.define(classId, output.getByteBuffer());
+                    }
+                    send(output.getByteBuffer());
+                    sentClassIds.set(classId);
+                } finally {
+                    serializer.release(output);
+                }
+            }
+            batcher.send(buffer);
+            if (reliable != null && classId != EventSerializer.INLINE_CLASS_ID) {
+                reliable.use(classId);
+            }
+            delivery.mark(tracker, tracker.getPosition() + (batcher.isEmpty() ? 0 : 1));
+            // The frames of a lost connection are sent again, so the event is only lost if the socket is closed
+            if (reliable != null) {
+                delivery.mark(reliable, reliable.getLastSequence() + (batcher.isEmpty() ? 0 : 1));
+            }
+        }
+    }
+
+    private void send(final ByteBuffer buffer) {
+        // The compressor of the connection is not thread-safe
+        synchronized (writeLock) {
+            compressor.send(buffer);
+        }
+    }
+
+    // Called by the compressor while holding the write lock
+    private void write(final ByteBuffer frame) {
+        if (reliable != null) {
+            reliable.send(tracker, frame);
+        } else {
+            tracker.send(frame);
+        }
+    }
+
+    @Override
+    protected void onInterestChange(final String event, final boolean interested) {
+        if (socket.isOpen()) {
+            sendInterest(event, interested);
+        }
+    }
+
+    private void sendInterest(final String event, final boolean interested) {
+        final var output = serializer.serialize(interested, event);
+        try {
+            send(output.getByteBuffer());
+        } catch (final WebsocketNotConnectedException ignored) {
+            // The interests will be sent again on the next connection
+        } finally {
+            serializer.release(output);
+        }
     }
 
     @Override
@@ -132,8 +269,18 @@ final class JavelinClientSocket extends AbstractJavelinSocket {
 
     private final class JavelinClientWebSocket extends WebSocketClient {
 
-        private JavelinClientWebSocket(final URI uri, final @Nullable PasswordAuthentication authentication) {
+        // The name of the connection in the metrics
+        private final String name;
+
+        private JavelinClientWebSocket(
+                final URI uri,
+                final @Nullable PasswordAuthentication authentication,
+                final @Nullable ReliableSender reliable) {
             super(uri, Internal.getJavelinDraft());
+            this.name = uri.toString();
+            if (reliable != null) {
+                this.addHeader(Internal.CHANNEL_HEADER, reliable.getChannel());
+            }
             if (authentication != null) {
                 final var username = authentication.getUserName();
                 final var password = authentication.getPassword();
@@ -150,7 +297,35 @@ final class JavelinClientSocket extends AbstractJavelinSocket {
 
         @Override
         public void onOpen(final ServerHandshake handshake) {
-            logger.info("The connection has been successfully established with the server.");
+            logger.info("The connection has been established with the server, waiting for the authentication.");
+            authentication = new CompletableFuture<>();
+        }
+
+        // The server ignores the frames of a connection until its authentication
+        private void onAuthenticated(final ByteBuffer frame) {
+            logger.info("The connection has been successfully authenticated by the server.");
+            metrics.onConnectionOpened(name);
+            // The session token skips the verification of the password on the next connections
+            if (frame.remaining() > 1) {
+                final var token = new byte[frame.remaining() - 1];
+                frame.duplicate().position(frame.position() + 1).get(token);
+                addHeader(Internal.SESSION_HEADER, new String(token, StandardCharsets.UTF_8));
+            } else {
+                removeHeader(Internal.SESSION_HEADER);
+            }
+            synchronized (writeLock) {
+                tracker = new WriteTracker(getConnection(), 0, name, metrics);
+                // The frames lost with the previous connection are sent before the new ones
+                if (reliable != null) {
+                    try {
+                        reliable.resend(tracker);
+                    } catch (final WebsocketNotConnectedException ignored) {
+                        // The frames will be sent again on the next connection
+                    }
+                }
+            }
+            withInterests(events -> events.forEach(event -> sendInterest(event, true)));
+            authentication.complete(null);
         }
 
         @Override
@@ -160,11 +335,78 @@ final class JavelinClientSocket extends AbstractJavelinSocket {
 
         @Override
         public void onMessage(final ByteBuffer bytes) {
-            executor.execute(() -> onEventReceive(bytes));
+            metrics.onFrameReceived(name, bytes.remaining());
+            onFrame(bytes);
+        }
+
+        // Called for each frame of the batch and compressed frames too
+        private void onFrame(final ByteBuffer bytes) {
+            switch (EventSerializer.getFrameType(bytes)) {
+                case Internal.EVENT_FRAME -> {
+                    final var names = serializer.readEventHeader(bytes, receivedClassIds);
+                    if (names != null) {
+                        dispatchRawEvent(names, bytes);
+                        dispatchEvent(executor, names, bytes);
+                    } else {
+                        logger.debug("Received event frame with an undefined class from the server, ignoring.");
+                    }
+                }
+                case Internal.CHUNK_FRAME -> {
+                    final var transferId = serializer.readTransferId(bytes);
+                    final var flags = serializer.readChunkFlags(bytes);
+                    if (flags == EventSerializer.INVALID_CHUNK_FLAGS) {
+                        logger.debug("Received invalid chunk frame from the server, ignoring.");
+                        return;
+                    }
+                    final var names = (flags & Internal.CHUNK_FIRST) != 0
+                            ? serializer.readEventHeader(bytes, receivedClassIds)
+                            : null;
+                    assembler.accept(transferId, flags, names, bytes);
+                }
+                case Internal.BATCH_FRAME -> serializer.readBatch(bytes, this::onFrame);
+                case Internal.COMPRESSED_FRAME -> {
+                    final var frame = compressor.decompress(bytes);
+                    if (frame != null) {
+                        onFrame(frame);
+                    } else {
+                        logger.debug("Received invalid compressed frame from the server, ignoring.");
+                    }
+                }
+                case Internal.DEFINE_FRAME -> {
+                    if (!serializer.readDefinition(bytes, receivedClassIds)) {
+                        logger.debug("Received invalid definition frame from the server, ignoring.");
+                    }
+                }
+                case Internal.AUTHENTICATED_FRAME -> onAuthenticated(bytes);
+                case Internal.ACK_FRAME -> {
+                    if (reliable != null && bytes.remaining() >= 1 + Long.BYTES) {
+                        reliable.acknowledge(bytes.getLong(bytes.position() + 1));
+                    } else {
+                        logger.debug("Received unexpected acknowledgment from the server, ignoring.");
+                    }
+                }
+                default -> logger.debug("Received unexpected frame from the server, ignoring.");
+            }
         }
 
         @Override
         public void onClose(final int code, final String reason, final boolean remote) {
+            // The class IDs are defined per connection
+            synchronized (writeLock) {
+                sentClassIds.clear();
+                // The batched events are numbered with the sequence numbers marked in their deliveries, then sent
+                // again on the next connection
+                if (reliable != null) {
+                    batcher.flush();
+                } else {
+                    batcher.clear();
+                }
+            }
+            tracker.close();
+            receivedClassIds.clear();
+            assembler.abort();
+            authentication.completeExceptionally(new IOException("The connection has been closed."));
+            metrics.onConnectionClosed(name);
             switch (code) {
                 case CloseFrame.NORMAL -> logger.info("The connection has been closed.");
                 case CloseFrame.GOING_AWAY -> logger.info("The connection has been closed by the server.");
@@ -173,6 +415,11 @@ final class JavelinClientSocket extends AbstractJavelinSocket {
             }
         }
 
+        @Override
+        public void onWebsocketPong(final WebSocket conn, final Framedata f) {
+            tracker.onPong(conn, f);
+        }
+
         @Override
         public void onError(final Exception ex) {
             logger.error("An exception occurred in the websocket client.", ex);
@@ -0,0 +1,151 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.function.*;
+
+/**
+ * Receives the measurements of a socket, such as the events sent and received or the bytes written to each
+ * connection, see {@link JavelinSocket.ServerBuilder#metrics(JavelinMetrics)}. The methods do nothing by default.
+ * <br>
+ * The methods are called by the threads sending and receiving the events, so they must be thread-safe and return
+ * quickly. See {@link SimpleJavelinMetrics} for a built-in implementation.
+ */
+public interface JavelinMetrics {
+
+    /**
+     * Returns metrics that ignore the measurements, the default of the sockets.
+     */
+    static JavelinMetrics noop() {
+        return NoopJavelinMetrics.INSTANCE;
+    }
+
+    /**
+     * Returns new metrics keeping counters and latency histograms in memory.
+     */
+    static SimpleJavelinMetrics simple() {
+        return new SimpleJavelinMetrics();
+    }
+
+    /**
+     * Called when an event sent by the socket has been serialized.
+     *
+     * @param event              the class name of the event
+     * @param bytes              the size of the serialized event
+     * @param serializationNanos the time spent serializing the event, including the wait for the connections to
+     *                           catch up for the events larger than a frame
+     */
+    default void onEventSent(final String event, final int bytes, final long serializationNanos) {}
+
+    /**
+     * Called when an event with subscribers has been received, before being posted to them.
+     *
+     * @param event the class name of the event
+     * @param bytes the size of the serialized event
+     */
+    default void onEventReceived(final String event, final int bytes) {}
+
+    /**
+     * Called when a received event is skipped because its class, or a class it references, is not available to the
+     * socket.
+     *
+     * @param event the class name of the event
+     */
+    default void onEventSkipped(final String event) {}
+
+    /**
+     * Called once a received event has been posted to the subscribers.
+     *
+     * @param event         the class name of the event
+     * @param queueNanos    the time the event waited for a worker
+     * @param handlingNanos the time spent deserializing the event and running the subscribers
+     */
+    default void onEventHandled(final String event, final long queueNanos, final long handlingNanos) {}
+
+    /**
+     * Called when the server relays an event received from a client to the other clients.
+     *
+     * @param event     the class name of the event
+     * @param receivers the number of clients the event has been relayed to
+     */
+    default void onEventRelayed(final String event, final int receivers) {}
+
+    /**
+     * Called when the server relays an event received from a client to the other clients, in a single frame. Calls
+     * {@link #onEventRelayed(String, int)} by default.
+     *
+     * @param event       the class name of the event
+     * @param receivers   the number of clients the event has been relayed to
+     * @param fanOutNanos the time spent handing the event to the connections of the receivers, until the last one,
+     *                    see {@link JavelinSocket.ServerBuilder#fanOutWorkers(int)}
+     */
+    default void onEventRelayed(final String event, final int receivers, final long fanOutNanos) {
+        onEventRelayed(event, receivers);
+    }
+
+    /**
+     * Called when a frame is handed to a connection.
+     *
+     * @param connection the name of the connection, the username of the client or the address of the peer
+     * @param bytes      the size of the frame, once batched and compressed
+     */
+    default void onFrameSent(final String connection, final int bytes) {}
+
+    /**
+     * Called when a frame is received from a connection.
+     *
+     * @param connection the name of the connection, the username of the client or the address of the peer
+     * @param bytes      the size of the frame, before being decompressed
+     */
+    default void onFrameReceived(final String connection, final int bytes) {}
+
+    /**
+     * Called when a connection answers a ping of the socket, confirming the frames sent to it before the ping.
+     *
+     * @param connection the name of the connection
+     * @param nanos      the time since the ping was sent
+     */
+    default void onRoundTrip(final String connection, final long nanos) {}
+
+    /**
+     * Called once a connection is authenticated, before the measurements of its frames. The measurements of a
+     * connection may still be reported after it's closed, by the threads writing it.
+     *
+     * @param connection the name of the connection
+     */
+    default void onConnectionOpened(final String connection) {}
+
+    /**
+     * Called when a connection is closed, so the measurements of the connection can be discarded.
+     *
+     * @param connection the name of the connection
+     */
+    default void onConnectionClosed(final String connection) {}
+
+    /**
+     * Called once by the socket for each of its gauges, such as {@code outbound.queued}, the events waiting to be
+     * sent, or {@code dispatch.backlog}, the received events waiting for a worker. The names are prefixed with the
+     * socket, {@code server[<port>].} or {@code client[<server URI>].}, so the sockets sharing metrics keep their own
+     * gauges.
+     *
+     * @param name  the name of the gauge
+     * @param value the function reading the current value of the gauge
+     */
+    default void registerGauge(final String name, final LongSupplier value) {}
+}
@@ -18,6 +18,7 @@
  */
 package fr.xpdustry.javelin;
 
+import com.esotericsoftware.kryo.kryo5.io.*;
 import java.net.*;
 import java.nio.*;
 import java.nio.charset.*;
@@ -36,6 +37,37 @@ final class JavelinServerSocket extends AbstractJavelinSocket {
 
     private final JavelinServerWebSocket socket;
     private final boolean alwaysAllowLocalConnections;
+    private final BatchingPolicy batchingPolicy;
+    private final CompressionPolicy compressionPolicy;
+    // Only the raw subscribers receive the events, they are never deserialized
+    private final boolean relayOnly;
+    // Posts the received events, so slow subscribers don't delay the relay of the events
+    private final OrderedExecutor executor;
+    // Writes the relayed events to their receivers, in parallel if enabled
+    private final FanOutExecutor fanOut;
+    private final FanOutExecutor.Writer<WebSocket> writer = this::send;
+    private final FanOutExecutor.Writer<WebSocket> compressibleWriter = this::sendCompressible;
+    // Verifies the credentials, so the password hashing does not block the threads receiving the messages
+    private final ExecutorService authenticationExecutor;
+    // The connections waiting for the verification of their credentials, bounded so a flood of handshakes can't queue
+    // an unbounded number of password hashes
+    private final AtomicInteger pendingAuthentications = new AtomicInteger();
+    private final int maxPendingAuthentications;
+    // The authenticated connections by username, so each username is only connected once
+    private final Map<String, WebSocket> users = new ConcurrentHashMap<>();
+    private final SessionTokens sessionTokens;
+    // The sequence numbers of the clients with reliable delivery, by username, or by channel for the local connections
+    // without one, kept across their connections until they have none for a while
+    private final Map<String, ReliableReceiver> reliableChannels = new ConcurrentHashMap<>();
+    // The connections interested in each event type, the arrays are replaced on each change, so the relay iterates
+    // them without copying or locking
+    private final Map<String, WebSocket[]> interests = new ConcurrentHashMap<>();
+    // The receivers of the transfers being relayed, each transfer is relayed by a single thread
+    private final Map<Integer, List<WebSocket>> transfers = new ConcurrentHashMap<>();
+    // Guarded by itself, the slots of the write trackers of the open connections, see WriteTracker#getSlot
+    private final BitSet slots = new BitSet();
+    // The receivers of the event being relayed by each thread, reused for each event
+    private final ThreadLocal<RelayScratch> scratch;
 
     JavelinServerSocket(
             final int port,
@@ -43,9 +75,43 @@ final class JavelinServerSocket extends AbstractJavelinSocket {
             final boolean alwaysAllowLocalConnections,
             final JavelinAuthenticator authenticator,
             final boolean enableLocalBroadcast) {
-        super(enableLocalBroadcast);
-        this.socket = new JavelinServerWebSocket(port, workers, authenticator);
-        this.alwaysAllowLocalConnections = alwaysAllowLocalConnections;
+        this(JavelinSocket.serverBuilder(port, authenticator)
+                .workers(workers)
+                .alwaysAllowLocalConnections(alwaysAllowLocalConnections)
+                .enableLocalBroadcast(enableLocalBroadcast));
+    }
+
+    JavelinServerSocket(final JavelinSocket.ServerBuilder builder) {
+        super(
+                builder.isLocalBroadcastEnabled(),
+                builder.getOutboundQueuePolicy(),
+                builder.getMetrics(),
+                "server[" + builder.getPort() + ']');
+        this.socket = new JavelinServerWebSocket(builder.getPort(), builder.getWorkers(), builder.getAuthenticator());
+        this.socket.setTcpNoDelay(builder.isTcpNoDelay());
+        this.alwaysAllowLocalConnections = builder.isAlwaysAllowLocalConnections();
+        this.batchingPolicy = builder.getBatchingPolicy();
+        this.compressionPolicy = builder.getCompressionPolicy();
+        this.scratch = ThreadLocal.withInitial(() -> new RelayScratch(compressionPolicy));
+        this.relayOnly = builder.isRelayOnly();
+        this.executor = createEventExecutor(builder.getDispatchWorkers(), builder.isVirtualThreadsEnabled());
+        this.sessionTokens = new SessionTokens(builder.getSessionDuration());
+        this.fanOut = new FanOutExecutor(builder.getFanOutWorkers());
+        this.maxPendingAuthentications = builder.getMaxPendingAuthentications();
+        // Rejects the verifications past the backlog, instead of queuing them
+        this.authenticationExecutor = new ThreadPoolExecutor(
+                builder.getAuthenticationWorkers(),
+                builder.getAuthenticationWorkers(),
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxPendingAuthentications),
+                runnable -> {
+                    final var thread = new Thread(runnable, "javelin-authenticator");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        registerGauge("connections", () -> socket.getConnections().size());
+        registerGauge("pending-authentications", pendingAuthentications::get);
     }
 
     @Override
@@ -67,7 +133,9 @@ final class JavelinServerSocket extends AbstractJavelinSocket {
         if (socket.status.get() == Status.OPEN) {
             final var future = new CompletableFuture<Void>();
             ForkJoinPool.commonPool().execute(() -> {
+                closeOutbound();
                 try {
+                    flushBatches();
                     socket.stop();
                     future.complete(null);
                 } catch (final InterruptedException e) {
@@ -81,8 +149,338 @@ final class JavelinServerSocket extends AbstractJavelinSocket {
     }
 
     @Override
-    protected void onEventSend(final ByteBuffer buffer) {
-        socket.broadcast(buffer);
+    protected void onEventSend(final ByteBuffer buffer, final OutboundQueue.Delivery delivery) {
+        if (EventSerializer.getFrameType(buffer) == Internal.CHUNK_FRAME) {
+            relayChunk(null, buffer, delivery);
+        } else {
+            relay(null, buffer, delivery);
+        }
+    }
+
+    int countInterestedConnections(final Class<? extends JavelinEvent> event) {
+        final var connections = interests.get(event.getName());
+        return connections != null ? connections.length : 0;
+    }
+
+    @Nullable WebSocket getUserConnection(final String username) {
+        return users.get(username);
+    }
+
+    // The class IDs of the sender are translated to the ones of the server
+    private void relay(final WebSocket sender, final String[] names, final ByteBuffer payload) {
+        final ByteBufferOutput output;
+        try {
+            output = serializer.serialize(names, payload);
+        } catch (final KryoBufferOverflowException e) {
+            logger.debug("Received too large event from {}, ignoring.", sender.getRemoteSocketAddress());
+            return;
+        }
+        try {
+            relay(sender, output.getByteBuffer(), null);
+        } finally {
+            serializer.release(output);
+        }
+    }
+
+    private void relay(
+            final @Nullable WebSocket sender,
+            final ByteBuffer buffer,
+            final OutboundQueue.@Nullable Delivery delivery) {
+        final var classId = serializer.readClassId(buffer);
+        final var names = serializer.readEventTypeNames(buffer);
+        final var receivers = scratch.get().receivers;
+        final int count;
+        final long fanOutNanos;
+        try {
+            addReceivers(sender, names, receivers);
+            count = receivers.size();
+            fanOutNanos = send(receivers, classId, buffer, delivery);
+        } finally {
+            receivers.clear();
+        }
+        if (sender != null) {
+            metrics.onEventRelayed(names[0], count, fanOutNanos);
+        }
+    }
+
+    // The transfer IDs of the sender are translated to the ones of the server
+    private void relayChunk(
+            final WebSocket sender,
+            final ConnectionState state,
+            final int transferId,
+            final byte flags,
+            final @Nullable String[] names,
+            final ByteBuffer data) {
+        final Integer relayId;
+        final @Nullable List<WebSocket> receivers;
+        if ((flags & Internal.CHUNK_FIRST) != 0) {
+            receivers = findReceivers(sender, Objects.requireNonNull(names));
+            metrics.onEventRelayed(names[0], receivers.size());
+            // A transfer without receivers is not relayed, so its next chunks are ignored before being copied
+            if (receivers.isEmpty()) {
+                return;
+            }
+            relayId = nextTransferId();
+            state.transfers.put(transferId, relayId);
+        } else {
+            receivers = null;
+            relayId = state.transfers.get(transferId);
+        }
+        if (relayId == null) {
+            return;
+        }
+        if ((flags & (Internal.CHUNK_LAST | Internal.CHUNK_ABORT)) != 0) {
+            state.transfers.remove(transferId);
+        }
+        final ByteBufferOutput output;
+        try {
+            output = serializer.serialize(relayId, flags, names, data);
+        } catch (final KryoBufferOverflowException e) {
+            logger.debug("Received too large chunk from {}, aborting.", sender.getRemoteSocketAddress());
+            state.transfers.remove(transferId);
+            abortChunk(relayId);
+            return;
+        }
+        try {
+            relayChunk(receivers, output.getByteBuffer(), null);
+        } finally {
+            serializer.release(output);
+        }
+    }
+
+    private void abortChunk(final int relayId) {
+        final var output = serializer.serialize(relayId, Internal.CHUNK_ABORT, null, ByteBuffer.allocate(0));
+        try {
+            relayChunk(null, output.getByteBuffer(), null);
+        } finally {
+            serializer.release(output);
+        }
+    }
+
+    // The receivers of a transfer are the ones interested in the event when its first chunk is relayed, they are given
+    // for the first chunk of a connection and found here for the ones of this server
+    private void relayChunk(
+            final @Nullable List<WebSocket> found,
+            final ByteBuffer buffer,
+            final OutboundQueue.@Nullable Delivery delivery) {
+        final var transferId = serializer.readTransferId(buffer);
+        final var position = buffer.position();
+        final var limit = buffer.limit();
+        final var flags = serializer.readChunkFlags(buffer);
+        buffer.limit(limit);
+        buffer.position(position);
+        final List<WebSocket> receivers;
+        final int classId;
+        if ((flags & Internal.CHUNK_FIRST) != 0) {
+            classId = serializer.readClassId(buffer);
+            receivers = found != null ? found : findReceivers(null, serializer.readEventTypeNames(buffer));
+            if ((flags & (Internal.CHUNK_LAST | Internal.CHUNK_ABORT)) == 0) {
+                transfers.put(transferId, receivers);
+            }
+        } else {
+            classId = EventSerializer.INLINE_CLASS_ID;
+            receivers = (flags & (Internal.CHUNK_LAST | Internal.CHUNK_ABORT)) != 0
+                    ? transfers.remove(transferId)
+                    : transfers.get(transferId);
+            if (receivers == null) {
+                return;
+            }
+        }
+        send(receivers, classId, buffer, delivery);
+    }
+
+    // The receivers of the first chunk of a transfer, kept until its last chunk. The copy-on-write snapshot of the
+    // interested connections is used as is when it is the only one matching the event and the sender is not in it.
+    private List<WebSocket> findReceivers(final @Nullable WebSocket sender, final String[] names) {
+        @Nullable WebSocket[] snapshot = null;
+        for (int i = 0; i <= names.length; i++) {
+            final var connections = interests.get(i == names.length ? Internal.ANY_EVENT_TYPE : names[i]);
+            if (connections == null) {
+                continue;
+            } else if (snapshot != null) {
+                snapshot = null;
+                break;
+            }
+            snapshot = connections;
+        }
+        if (snapshot != null && (sender == null || indexOf(snapshot, sender) == -1)) {
+            return Arrays.asList(snapshot);
+        }
+        final var receivers = scratch.get().receivers;
+        try {
+            addReceivers(sender, names, receivers);
+            return receivers.isEmpty() ? List.of() : List.copyOf(receivers);
+        } finally {
+            receivers.clear();
+        }
+    }
+
+    // Adds the connections interested in the event to the receivers, except the sender. The connections interested in
+    // several types of the event are only added once, the set of the added ones is only filled from the second type.
+    private void addReceivers(final @Nullable WebSocket sender, final String[] names, final List<WebSocket> receivers) {
+        final var added = scratch.get().added;
+        var matched = 0;
+        try {
+            for (int i = 0; i <= names.length; i++) {
+                final var connections = interests.get(i == names.length ? Internal.ANY_EVENT_TYPE : names[i]);
+                if (connections == null) {
+                    continue;
+                }
+                if (++matched == 2) {
+                    added.addAll(receivers);
+                }
+                for (final var connection : connections) {
+                    if (connection != sender && (matched == 1 || added.add(connection))) {
+                        receivers.add(connection);
+                    }
+                }
+            }
+        } finally {
+            added.clear();
+        }
+    }
+
+    // Sends the frame to the receivers, marking the position of the frame in their connections. Returns the time spent
+    // handing the frame to the connections. A frame large enough to be compressed is compressed once for all of them.
+    private long send(
+            final List<WebSocket> receivers,
+            final int classId,
+            final ByteBuffer buffer,
+            final OutboundQueue.@Nullable Delivery delivery) {
+        final var start = System.nanoTime();
+        if (receivers.isEmpty()) {
+            return 0L;
+        }
+        final var compressor = scratch.get().compressor;
+        final var compressible = compressor.isCompressible(buffer);
+        final var frame = compressible ? compressor.compress(buffer) : buffer;
+        final FanOutExecutor.Writer<WebSocket> target;
+        if (delivery != null) {
+            target = (receiver, id, data) -> send(receiver, id, data, compressible, delivery);
+        } else {
+            target = compressible ? compressibleWriter : writer;
+        }
+        fanOut.execute(receivers, classId, frame, target);
+        return System.nanoTime() - start;
+    }
+
+    private void send(final WebSocket receiver, final int classId, final ByteBuffer buffer) {
+        send(receiver, classId, buffer, false, null);
+    }
+
+    private void sendCompressible(final WebSocket receiver, final int classId, final ByteBuffer buffer) {
+        send(receiver, classId, buffer, true, null);
+    }
+
+    // Sends the frame to the receiver, preceded by the definition of its class ID. Called by the fan-out, possibly in
+    // parallel for different receivers, each receiver is only written while holding its lock. The frames already
+    // handled by the compressor of the relay are sent as is, after the pending batch.
+    private void send(
+            final WebSocket receiver,
+            final int classId,
+            final ByteBuffer buffer,
+            final boolean compressible,
+            final OutboundQueue.@Nullable Delivery delivery) {
+        if (!receiver.isOpen()) {
+            return;
+        }
+        final var state = receiver.<ConnectionState>getAttachment();
+        final var position = buffer.position();
+        synchronized (state.writeLock) {
+            try {
+                if (classId != EventSerializer.INLINE_CLASS_ID) {
+                    sendDefinition(state, classId);
+                }
+                if (compressible) {
+                    state.batcher.flush();
+                    state.tracker.send(buffer);
+                } else {
+                    state.batcher.send(buffer);
+                }
+                if (delivery != null) {
+                    delivery.mark(state.tracker, state.tracker.getPosition() + (state.batcher.isEmpty() ? 0 : 1));
+                }
+            } catch (final WebsocketNotConnectedException ignored) {
+                // The connection has been closed in the meantime
+            } finally {
+                buffer.position(position);
+            }
+        }
+    }
+
+    // Called while holding the lock of the connection
+    private void sendDefinition(final ConnectionState state, final int classId) {
+        if (!state.sentClassIds.get(classId)) {
+            final var output = serializer.serialize(classId);
+            try {
+                state.compressor.send(output.getByteBuffer());
+                state.sentClassIds.set(classId);
+            } finally {
+                serializer.release(output);
+            }
+        }
+    }
+
+    private void flushBatches() {
+        for (final var connection : socket.getConnections()) {
+            final var state = connection.<@Nullable ConnectionState>getAttachment();
+            if (state == null) {
+                continue;
+            }
+            synchronized (state.writeLock) {
+                try {
+                    state.batcher.flush();
+                    // The confirmations of the last frames are received before the closing handshake completes
+                    state.tracker.flush();
+                } catch (final WebsocketNotConnectedException ignored) {
+                    // The connection has been closed in the meantime
+                }
+            }
+        }
+    }
+
+    private void updateInterest(final WebSocket connection, final String name, final boolean interested) {
+        final var state = connection.<ConnectionState>getAttachment();
+        if (interested) {
+            state.interests.add(name);
+            interests.compute(name, (key, connections) -> {
+                if (connections == null) {
+                    return new WebSocket[] {connection};
+                } else if (indexOf(connections, connection) != -1) {
+                    return connections;
+                }
+                final var result = Arrays.copyOf(connections, connections.length + 1);
+                result[connections.length] = connection;
+                return result;
+            });
+            // The connection may have been closed while its interest was being added
+            if (!connection.isOpen()) {
+                updateInterest(connection, name, false);
+            }
+        } else {
+            state.interests.remove(name);
+            interests.computeIfPresent(name, (key, connections) -> {
+                final var index = indexOf(connections, connection);
+                if (index == -1) {
+                    return connections;
+                } else if (connections.length == 1) {
+                    return null;
+                }
+                final var result = new WebSocket[connections.length - 1];
+                System.arraycopy(connections, 0, result, 0, index);
+                System.arraycopy(connections, index + 1, result, index, result.length - index);
+                return result;
+            });
+        }
+    }
+
+    private static int indexOf(final WebSocket[] connections, final WebSocket connection) {
+        for (int i = 0; i < connections.length; i++) {
+            if (connections[i] == connection) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     @SuppressWarnings("NullAway")
@@ -116,12 +514,15 @@ final class JavelinServerSocket extends AbstractJavelinSocket {
                 final WebSocket conn, final Draft draft, final ClientHandshake request) throws InvalidDataException {
             final var authorization = request.getFieldValue(Internal.AUTHORIZATION_HEADER);
             final var matcher = Internal.AUTHORIZATION_REGEX.matcher(authorization);
+            final var channel = request.getFieldValue(Internal.CHANNEL_HEADER);
 
             // NOTE, In Javelin 2, turn alwaysAllowLocalConnections to a list of allowed IPs
             if (alwaysAllowLocalConnections
                     && conn.getRemoteSocketAddress().getAddress().isLoopbackAddress()) {
                 final var address = conn.getRemoteSocketAddress().getAddress();
                 if (address.isAnyLocalAddress() || address.isLoopbackAddress()) {
+                    conn.setAttachment(
+                            createConnectionState(conn, null, channel, CompletableFuture.completedFuture(true)));
                     return super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
                 }
             }
@@ -137,16 +538,14 @@ final class JavelinServerSocket extends AbstractJavelinSocket {
                 final var username = parts[0];
                 final var password = parts[1].toCharArray();
 
-                if (!authenticator.authenticate(username, password)) {
-                    rejectConnection(conn, "Invalid credentials");
-                }
-                if (getConnections().stream()
-                        .map(WebSocket::<String>getAttachment)
-                        .anyMatch(username::equals)) {
-                    rejectConnection(conn, "Already connected");
-                }
-
-                conn.setAttachment(username);
+                // A valid session token skips the verification of the password
+                final var token = request.getFieldValue(Internal.SESSION_HEADER);
+                final var issued = token.isEmpty() ? null : sessionTokens.verify(token, username);
+                // The handshake is accepted right away, the client waits for the authenticated frame before sending
+                final var authentication = issued != null && authenticator.isSessionValid(username, issued)
+                        ? CompletableFuture.completedFuture(true)
+                        : verifyCredentials(conn, username, password);
+                conn.setAttachment(createConnectionState(conn, username, channel, authentication));
                 return super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
             } catch (final InvalidDataException e) {
                 throw e;
@@ -157,13 +556,130 @@ final class JavelinServerSocket extends AbstractJavelinSocket {
             throw new IllegalStateException();
         }
 
+        private CompletableFuture<Boolean> verifyCredentials(
+                final WebSocket conn, final String username, final char[] password) throws InvalidDataException {
+            if (pendingAuthentications.incrementAndGet() > maxPendingAuthentications) {
+                pendingAuthentications.decrementAndGet();
+                rejectConnection(conn, "Too many pending authentications");
+            }
+            final CompletableFuture<Boolean> authentication;
+            try {
+                authentication = authenticator
+                        .authenticateAsync(username, password, authenticationExecutor)
+                        .orTimeout(Internal.AUTHENTICATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (final RuntimeException e) {
+                pendingAuthentications.decrementAndGet();
+                if (e instanceof RejectedExecutionException) {
+                    rejectConnection(conn, "Too many pending authentications");
+                }
+                throw e;
+            }
+            authentication.whenComplete((authenticated, error) -> pendingAuthentications.decrementAndGet());
+            return authentication;
+        }
+
         @Override
         public void onOpen(final WebSocket conn, final ClientHandshake handshake) {
             logger.info("{} has connected.", conn.getRemoteSocketAddress());
+            final var state = conn.<ConnectionState>getAttachment();
+            state.authentication.whenComplete((authenticated, error) -> {
+                if (error != null) {
+                    logger.error("Failed to authenticate {}.", conn.getRemoteSocketAddress(), error);
+                    closeConnection(conn, "Authentication failed");
+                } else if (!authenticated) {
+                    closeConnection(conn, "Invalid credentials");
+                } else {
+                    completeAuthentication(conn, state);
+                }
+            });
+        }
+
+        private void completeAuthentication(final WebSocket conn, final ConnectionState state) {
+            final var username = state.username;
+            if (username != null) {
+                if (users.putIfAbsent(username, conn) != null) {
+                    closeConnection(conn, "Already connected");
+                    return;
+                }
+                // The connection may have been closed while it was being registered
+                if (!conn.isOpen()) {
+                    users.remove(username, conn);
+                    return;
+                }
+            }
+            final var channel = state.channel;
+            if (channel != null) {
+                final var key = username != null ? username : channel;
+                evictIdleChannels();
+                final var receiver = reliableChannels.compute(key, (ignored, previous) -> {
+                    final var next = previous != null && previous.getChannel().equals(channel)
+                            ? previous
+                            : new ReliableReceiver(channel);
+                    // In the compute, so the channel can't be evicted before being marked as connected
+                    next.onConnect();
+                    return next;
+                });
+                state.reliable = receiver;
+                state.receivedClassIds = receiver.getDefinitions();
+            }
+            metrics.onConnectionOpened(state.name);
+            state.authenticated = true;
+            try {
+                // The frame carries a new session token, unless the connection is a local one without a username
+                final var token = username != null && sessionTokens.isEnabled()
+                        ? sessionTokens.issue(username).getBytes(StandardCharsets.UTF_8)
+                        : new byte[0];
+                final var frame = ByteBuffer.allocate(1 + token.length)
+                        .put(Internal.AUTHENTICATED_FRAME)
+                        .put(token)
+                        .flip();
+                synchronized (state.writeLock) {
+                    state.tracker.send(frame);
+                }
+                logger.info("{} has been authenticated.", conn.getRemoteSocketAddress());
+            } catch (final WebsocketNotConnectedException ignored) {
+                // The connection has been closed in the meantime
+            }
+        }
+
+        // A recreated client has a new channel, so without a username its previous channel is never replaced. Checked
+        // when a channel connects, the idle channels are only left behind by the previous connections.
+        private void evictIdleChannels() {
+            final var now = System.nanoTime();
+            for (final var key : reliableChannels.keySet()) {
+                reliableChannels.computeIfPresent(
+                        key,
+                        (ignored, receiver) ->
+                                receiver.isIdle(now, Internal.RELIABLE_CHANNEL_TIMEOUT_NANOS) ? null : receiver);
+            }
         }
 
         @Override
         public void onClose(final WebSocket conn, final int code, final String reason, final boolean remote) {
+            final var state = conn.<@Nullable ConnectionState>getAttachment();
+            if (state != null) {
+                if (state.username != null) {
+                    users.remove(state.username, conn);
+                }
+                // The connections rejected as already connected share the name of the connected one
+                if (state.authenticated) {
+                    metrics.onConnectionClosed(state.name);
+                }
+                state.interests.forEach(name -> updateInterest(conn, name, false));
+                state.transfers.values().forEach(relayId -> abortChunk(relayId));
+                state.transfers.clear();
+                state.assembler.abort();
+                synchronized (state.writeLock) {
+                    state.batcher.clear();
+                }
+                state.tracker.close();
+                synchronized (slots) {
+                    slots.clear(state.tracker.getSlot());
+                }
+                if (state.reliable != null) {
+                    state.reliable.onDisconnect();
+                }
+            }
             switch (code) {
                 case CloseFrame.NORMAL, CloseFrame.GOING_AWAY -> logger.info(
                         "The connection {} has been closed.", conn.getRemoteSocketAddress());
@@ -183,10 +699,117 @@ final class JavelinServerSocket extends AbstractJavelinSocket {
 
         @Override
         public void onMessage(final WebSocket conn, final ByteBuffer message) {
-            final var receivers = new ArrayList<>(this.getConnections());
-            receivers.remove(conn);
-            broadcast(message, receivers);
-            onEventReceive(message);
+            final var state = conn.<ConnectionState>getAttachment();
+            if (!state.authenticated) {
+                logger.debug(
+                        "Received frame from {} before its authentication, ignoring.", conn.getRemoteSocketAddress());
+                return;
+            }
+            metrics.onFrameReceived(state.name, message.remaining());
+            onFrame(conn, message);
+        }
+
+        // Called for each frame of the batch and compressed frames too
+        private void onFrame(final WebSocket conn, final ByteBuffer message) {
+            switch (EventSerializer.getFrameType(message)) {
+                case Internal.EVENT_FRAME -> {
+                    final var state = conn.<ConnectionState>getAttachment();
+                    final var names = serializer.readEventHeader(message, state.receivedClassIds);
+                    if (names == null) {
+                        logger.debug(
+                                "Received event frame with an undefined class from {}, ignoring.",
+                                conn.getRemoteSocketAddress());
+                        return;
+                    }
+                    relay(conn, names, message);
+                    dispatchRawEvent(names, message);
+                    if (!relayOnly) {
+                        dispatchEvent(executor, names, message);
+                    }
+                }
+                case Internal.CHUNK_FRAME -> {
+                    final var state = conn.<ConnectionState>getAttachment();
+                    final var transferId = serializer.readTransferId(message);
+                    final var flags = serializer.readChunkFlags(message);
+                    if (flags == EventSerializer.INVALID_CHUNK_FLAGS) {
+                        logger.debug(
+                                "Received invalid chunk frame from {}, ignoring.", conn.getRemoteSocketAddress());
+                        return;
+                    }
+                    final var names = (flags & Internal.CHUNK_FIRST) != 0
+                            ? serializer.readEventHeader(message, state.receivedClassIds)
+                            : null;
+                    if ((flags & Internal.CHUNK_FIRST) != 0 && names == null) {
+                        logger.debug(
+                                "Received chunk frame with an undefined class from {}, ignoring.",
+                                conn.getRemoteSocketAddress());
+                        return;
+                    }
+                    relayChunk(conn, state, transferId, flags, names, message);
+                    state.assembler.accept(transferId, flags, names, message);
+                }
+                case Internal.BATCH_FRAME -> serializer.readBatch(message, frame -> onFrame(conn, frame));
+                case Internal.COMPRESSED_FRAME -> {
+                    final var frame =
+                            conn.<ConnectionState>getAttachment().compressor.decompress(message);
+                    if (frame != null) {
+                        onFrame(conn, frame);
+                    } else {
+                        logger.debug(
+                                "Received invalid compressed frame from {}, ignoring.", conn.getRemoteSocketAddress());
+                    }
+                }
+                case Internal.DEFINE_FRAME -> {
+                    if (!serializer.readDefinition(message, conn.<ConnectionState>getAttachment().receivedClassIds)) {
+                        logger.debug(
+                                "Received invalid definition frame from {}, ignoring.", conn.getRemoteSocketAddress());
+                    }
+                }
+                case Internal.SEQUENCED_FRAME -> onSequencedFrame(conn, message);
+                case Internal.SUBSCRIBE_FRAME -> updateInterest(conn, serializer.readClassName(message), true);
+                case Internal.UNSUBSCRIBE_FRAME -> updateInterest(conn, serializer.readClassName(message), false);
+                default -> logger.debug("Received unknown frame from {}, ignoring.", conn.getRemoteSocketAddress());
+            }
+        }
+
+        // Handles the frame unless it has already been received on a previous connection of the client
+        private void onSequencedFrame(final WebSocket conn, final ByteBuffer message) {
+            final var state = conn.<ConnectionState>getAttachment();
+            final var reliable = state.reliable;
+            if (reliable == null || message.remaining() < ReliableSender.HEADER_SIZE) {
+                logger.debug("Received unexpected sequenced frame from {}, ignoring.", conn.getRemoteSocketAddress());
+                return;
+            }
+            final var position = message.position();
+            final var flags = message.get(position + 1);
+            if (reliable.receive(message.getLong(position + 2))) {
+                onFrame(
+                        conn,
+                        message.duplicate()
+                                .position(position + ReliableSender.HEADER_SIZE)
+                                .slice());
+            }
+            if ((flags & ReliableSender.ACK_REQUESTED) != 0) {
+                final var frame = ByteBuffer.allocate(1 + Long.BYTES)
+                        .put(Internal.ACK_FRAME)
+                        .putLong(reliable.getLastSequence())
+                        .flip();
+                try {
+                    synchronized (state.writeLock) {
+                        state.tracker.send(frame);
+                    }
+                } catch (final WebsocketNotConnectedException ignored) {
+                    // The client will send the frames again on the next connection
+                }
+            }
+        }
+
+        @Override
+        public void onWebsocketPong(final WebSocket conn, final Framedata f) {
+            final var state = conn.<@Nullable ConnectionState>getAttachment();
+            if (state != null) {
+                state.tracker.onPong(conn, f);
+            }
         }
 
         @Override
@@ -203,15 +826,115 @@ final class JavelinServerSocket extends AbstractJavelinSocket {
             }
         }
 
+        private ConnectionState createConnectionState(
+                final WebSocket conn,
+                final @Nullable String username,
+                final String channel,
+                final CompletableFuture<Boolean> authentication) {
+            // Local connections don't have a username
+            final var name =
+                    username != null ? username : conn.getRemoteSocketAddress().toString();
+            final int slot;
+            synchronized (slots) {
+                slot = slots.nextClearBit(0);
+                slots.set(slot);
+            }
+            final var tracker = new WriteTracker(conn, slot, name, metrics);
+            final var compressor = new FrameCompressor(compressionPolicy, tracker::send);
+            final var writeLock = new Object();
+            return new ConnectionState(
+                    username,
+                    name,
+                    channel.isEmpty() ? null : channel,
+                    authentication,
+                    writeLock,
+                    tracker,
+                    compressor,
+                    new EventBatcher(batchingPolicy, writeLock, compressor::send),
+                    createEventAssembler(!relayOnly, event -> dispatchEvent(executor, event)));
+        }
+
         private void rejectConnection(final WebSocket conn, final String reason) throws InvalidDataException {
             logger.info("Rejected connection from {}: {}", conn.getRemoteSocketAddress(), reason);
             throw new InvalidDataException(CloseFrame.POLICY_VALIDATION, reason);
         }
 
+        // Like rejectConnection, once the handshake is done
+        private void closeConnection(final WebSocket conn, final String reason) {
+            logger.info("Rejected connection from {}: {}", conn.getRemoteSocketAddress(), reason);
+            conn.close(CloseFrame.POLICY_VALIDATION, reason);
+        }
+
         @Override
         public void run() {
             super.run();
+            executor.shutdown();
+            authenticationExecutor.shutdown();
+            fanOut.shutdown();
             status.set(Status.UNUSABLE);
         }
     }
+
+    private static final class ConnectionState {
+
+        private final @Nullable String username;
+        // The name of the connection in the metrics
+        private final String name;
+        // The frames of the connection are ignored until its credentials are verified
+        private final CompletableFuture<Boolean> authentication;
+        private volatile boolean authenticated = false;
+        private final Set<String> interests = ConcurrentHashMap.newKeySet();
+        // Guards the frames sent to the connection, so the relays to different connections don't contend
+        private final Object writeLock;
+        private final WriteTracker tracker;
+        // Sends while holding the write lock, decompresses in the worker thread of the connection
+        private final FrameCompressor compressor;
+        // Only accessed while holding the write lock
+        private final EventBatcher batcher;
+        // Only accessed while holding the write lock
+        private final BitSet sentClassIds = new BitSet();
+        // Only accessed by the worker thread of the connection, replaced by the ones of the reliable channel before the
+        // authentication completes
+        private Map<Integer, String[]> receivedClassIds = new HashMap<>();
+        // The ID of the reliable channel of the client, if it has reliable delivery
+        private final @Nullable String channel;
+        // Set before the authentication completes, if the client has reliable delivery
+        private @Nullable ReliableReceiver reliable = null;
+        // Accessed by the worker thread of the connection, and when it's closed
+        private final Map<Integer, Integer> transfers = new ConcurrentHashMap<>();
+        private final EventAssembler assembler;
+
+        private ConnectionState(
+                final @Nullable String username,
+                final String name,
+                final @Nullable String channel,
+                final CompletableFuture<Boolean> authentication,
+                final Object writeLock,
+                final WriteTracker tracker,
+                final FrameCompressor compressor,
+                final EventBatcher batcher,
+                final EventAssembler assembler) {
+            this.username = username;
+            this.name = name;
+            this.channel = channel;
+            this.authentication = authentication;
+            this.writeLock = writeLock;
+            this.tracker = tracker;
+            this.compressor = compressor;
+            this.batcher = batcher;
+            this.assembler = assembler;
+        }
+    }
+
+    private static final class RelayScratch {
+
+        private final List<WebSocket> receivers = new ArrayList<>();
+        private final Set<WebSocket> added = Collections.newSetFromMap(new IdentityHashMap<>());
+        // Only compresses, the compressed frames are handed to the receivers by the relay
+        private final FrameCompressor compressor;
+
+        private RelayScratch(final CompressionPolicy policy) {
+            this.compressor = new FrameCompressor(policy, frame -> {});
+        }
+    }
 }
@@ -19,13 +19,23 @@
 package fr.xpdustry.javelin;
 
 import java.net.*;
+import java.time.*;
 import java.util.concurrent.*;
 import java.util.function.*;
+import org.checkerframework.checker.nullness.qual.*;
 
 public interface JavelinSocket {
 
+    static ServerBuilder serverBuilder(final int port, final JavelinAuthenticator authenticator) {
+        return new ServerBuilder(port, authenticator);
+    }
+
+    static ClientBuilder clientBuilder(final URI serverUri) {
+        return new ClientBuilder(serverUri);
+    }
+
     static JavelinSocket server(final int port, final int workers, final JavelinAuthenticator authenticator) {
-        return new JavelinServerSocket(port, workers, false, authenticator, false);
+        return serverBuilder(port, authenticator).workers(workers).build();
     }
 
     static JavelinSocket server(
@@ -33,7 +43,10 @@ public interface JavelinSocket {
             final int workers,
             final boolean alwaysAllowLocalConnections,
             final JavelinAuthenticator authenticator) {
-        return new JavelinServerSocket(port, workers, alwaysAllowLocalConnections, authenticator, false);
+        return serverBuilder(port, authenticator)
+                .workers(workers)
+                .alwaysAllowLocalConnections(alwaysAllowLocalConnections)
+                .build();
     }
 
     static JavelinSocket server(
@@ -42,15 +55,22 @@ public interface JavelinSocket {
             final boolean alwaysAllowLocalConnections,
             final JavelinAuthenticator authenticator,
             final boolean enableLocalBroadcast) {
-        return new JavelinServerSocket(port, workers, alwaysAllowLocalConnections, authenticator, enableLocalBroadcast);
+        return serverBuilder(port, authenticator)
+                .workers(workers)
+                .alwaysAllowLocalConnections(alwaysAllowLocalConnections)
+                .enableLocalBroadcast(enableLocalBroadcast)
+                .build();
     }
 
     static JavelinSocket client(final URI serverUri, final String username, final char[] password, final int workers) {
-        return new JavelinClientSocket(serverUri, workers, new PasswordAuthentication(username, password), false);
+        return clientBuilder(serverUri)
+                .credentials(username, password)
+                .workers(workers)
+                .build();
     }
 
     static JavelinSocket client(final URI serverUri, final int workers) {
-        return new JavelinClientSocket(serverUri, workers, null, false);
+        return clientBuilder(serverUri).workers(workers).build();
     }
 
     static JavelinSocket client(
@@ -59,8 +79,11 @@ public interface JavelinSocket {
             final char[] password,
             final int workers,
             final boolean enableLocalBroadcast) {
-        return new JavelinClientSocket(
-                serverUri, workers, new PasswordAuthentication(username, password), enableLocalBroadcast);
+        return clientBuilder(serverUri)
+                .credentials(username, password)
+                .workers(workers)
+                .enableLocalBroadcast(enableLocalBroadcast)
+                .build();
     }
 
     static JavelinSocket noop() {
@@ -81,6 +104,29 @@ public interface JavelinSocket {
 
     Status getStatus();
 
+    /**
+     * Subscribes to the events received from the network with the given event type, without deserializing them. The
+     * event type is the name of the event class or of one of its supertypes, so it doesn't need to be on the classpath,
+     * and the name of {@link JavelinEvent} subscribes to all the events.
+     */
+    default Subscription subscribeRaw(final String event, final RawEventSubscriber subscriber) {
+        return () -> {};
+    }
+
+    /**
+     * Registers the codec encoding and decoding the events of a class instead of the default serializer, replacing the
+     * previous one. It must be registered on every socket sending or subscribing to the events of the class, before
+     * sending or receiving them, see {@link EventCodec}.
+     */
+    default <E extends JavelinEvent> void registerCodec(final Class<E> event, final EventCodec<E> codec) {}
+
+    /**
+     * Returns the counters of the outbound queue of this socket, see {@link OutboundQueuePolicy}.
+     */
+    default OutboundStatistics getOutboundStatistics() {
+        return OutboundStatistics.empty();
+    }
+
     enum Status {
         OPENING,
         OPEN,
@@ -93,4 +139,437 @@ public interface JavelinSocket {
 
         void unsubscribe();
     }
+
+    final class ServerBuilder {
+
+        private final int port;
+        private final JavelinAuthenticator authenticator;
+        private int workers = 1;
+        private int dispatchWorkers = 1;
+        private int authenticationWorkers = 2;
+        private int maxPendingAuthentications = 64;
+        private Duration sessionDuration = Duration.ofMinutes(15L);
+        private boolean virtualThreads = false;
+        private boolean alwaysAllowLocalConnections = false;
+        private boolean enableLocalBroadcast = false;
+        private BatchingPolicy batchingPolicy = BatchingPolicy.disabled();
+        private CompressionPolicy compressionPolicy = CompressionPolicy.of(256);
+        private boolean tcpNoDelay = true;
+        private OutboundQueuePolicy outboundQueuePolicy =
+                OutboundQueuePolicy.of(1024, OutboundQueuePolicy.Overflow.BLOCK);
+        private JavelinMetrics metrics = JavelinMetrics.noop();
+        private boolean relayOnly = false;
+        private int fanOutWorkers = 0;
+
+        private ServerBuilder(final int port, final JavelinAuthenticator authenticator) {
+            this.port = port;
+            this.authenticator = authenticator;
+        }
+
+        /**
+         * Sets the number of threads receiving and relaying the frames of the connections, 1 by default.
+         *
+         * @throws IllegalArgumentException if the number is not positive
+         */
+        public ServerBuilder workers(final int workers) {
+            if (workers < 1) {
+                throw new IllegalArgumentException("The number of workers must be positive: " + workers);
+            }
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads posting the events received by the server to its own subscribers, 1 by default.
+         * The events of a class, or with the same ordering key, are always posted in order, see {@link OrderedEvent}.
+         * The events are relayed to the clients before, by the threads receiving them.
+         *
+         * @throws IllegalArgumentException if the number is not positive
+         */
+        public ServerBuilder dispatchWorkers(final int dispatchWorkers) {
+            if (dispatchWorkers < 1) {
+                throw new IllegalArgumentException(
+                        "The number of dispatch workers must be positive: " + dispatchWorkers);
+            }
+            this.dispatchWorkers = dispatchWorkers;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads verifying the credentials of the connecting clients, 2 by default. Verifying a
+         * password can take a few hundred milliseconds, so it's not done by the threads receiving the messages.
+         *
+         * @throws IllegalArgumentException if the number is not positive
+         */
+        public ServerBuilder authenticationWorkers(final int authenticationWorkers) {
+            if (authenticationWorkers < 1) {
+                throw new IllegalArgumentException(
+                        "The number of authentication workers must be positive: " + authenticationWorkers);
+            }
+            this.authenticationWorkers = authenticationWorkers;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of connections waiting for the verification of their credentials, 64 by default.
+         * The handshakes past this limit are rejected, so a flood of connections can't queue an unbounded number of
+         * password verifications.
+         *
+         * @throws IllegalArgumentException if the number is not positive
+         */
+        public ServerBuilder maxPendingAuthentications(final int maxPendingAuthentications) {
+            if (maxPendingAuthentications < 1) {
+                throw new IllegalArgumentException(
+                        "The maximum number of pending authentications must be positive: " + maxPendingAuthentications);
+            }
+            this.maxPendingAuthentications = maxPendingAuthentications;
+            return this;
+        }
+
+        /**
+         * Sets the time the session tokens are valid, 15 minutes by default. Once authenticated, the clients receive a
+         * token to reconnect without verifying their password again, until it expires or until
+         * {@link JavelinAuthenticator#isSessionValid(String, Instant)} rejects it. Zero disables the tokens.
+         *
+         * @throws IllegalArgumentException if the duration is negative
+         */
+        public ServerBuilder sessionDuration(final Duration sessionDuration) {
+            if (sessionDuration.isNegative()) {
+                throw new IllegalArgumentException("The session duration can't be negative: " + sessionDuration);
+            }
+            this.sessionDuration = sessionDuration;
+            return this;
+        }
+
+        /**
+         * Sets whether the events received by the server are posted to its subscribers in virtual threads instead of
+         * the dispatch workers, disabled by default. Useful if the subscribers block, such as on database calls.
+         * Requires Java 21, the dispatch workers are used on older versions.
+         * <br>
+         * The events of a class, or with the same ordering key, are still posted in order, by a single virtual thread
+         * at a time. So the blocking subscribers only run concurrently for different keys: the events of a class
+         * without {@link OrderedEvent} are posted one after the other, however many virtual threads are available.
+         */
+        public ServerBuilder virtualThreads(final boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public ServerBuilder alwaysAllowLocalConnections(final boolean alwaysAllowLocalConnections) {
+            this.alwaysAllowLocalConnections = alwaysAllowLocalConnections;
+            return this;
+        }
+
+        public ServerBuilder enableLocalBroadcast(final boolean enableLocalBroadcast) {
+            this.enableLocalBroadcast = enableLocalBroadcast;
+            return this;
+        }
+
+        public ServerBuilder batchingPolicy(final BatchingPolicy batchingPolicy) {
+            this.batchingPolicy = batchingPolicy;
+            return this;
+        }
+
+        public ServerBuilder compressionPolicy(final CompressionPolicy compressionPolicy) {
+            this.compressionPolicy = compressionPolicy;
+            return this;
+        }
+
+        /**
+         * Sets whether Nagle's algorithm is disabled on the connections (TCP_NODELAY), enabled by default so the small
+         * frames are sent right away. See {@link #batchingPolicy(BatchingPolicy)} to pack the events sent in a short
+         * time with a bounded delay instead.
+         */
+        public ServerBuilder tcpNoDelay(final boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        /**
+         * Sets the policy of the queue of the events waiting to be sent, 1024 events blocking the senders once full by
+         * default. The capacity is validated by {@link OutboundQueuePolicy#of(int, OutboundQueuePolicy.Overflow)}.
+         */
+        public ServerBuilder outboundQueuePolicy(final OutboundQueuePolicy outboundQueuePolicy) {
+            this.outboundQueuePolicy = outboundQueuePolicy;
+            return this;
+        }
+
+        /**
+         * Sets the metrics receiving the measurements of the socket, {@link JavelinMetrics#noop()} by default.
+         */
+        public ServerBuilder metrics(final JavelinMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Sets whether the server only relays the events between the clients, disabled by default. The received events
+         * are never deserialized, so the event classes don't need to be on the classpath of the server, and only its
+         * raw subscribers receive them, see {@link JavelinSocket#subscribeRaw(String, RawEventSubscriber)}.
+         */
+        public ServerBuilder relayOnly(final boolean relayOnly) {
+            this.relayOnly = relayOnly;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads writing the relayed events to the clients along with the thread relaying them, 0
+         * by default. When enabled, the receivers of an event are split in shards written in parallel, so the last
+         * receivers of an event sent to many clients don't wait for the others to be written. The events with less
+         * than 16 receivers are still written by the relaying thread alone, handing a shard to another thread costs
+         * more than writing a few connections.
+         *
+         * @throws IllegalArgumentException if the number is negative
+         */
+        public ServerBuilder fanOutWorkers(final int fanOutWorkers) {
+            if (fanOutWorkers < 0) {
+                throw new IllegalArgumentException("The number of fan-out workers can't be negative: " + fanOutWorkers);
+            }
+            this.fanOutWorkers = fanOutWorkers;
+            return this;
+        }
+
+        public JavelinSocket build() {
+            return new JavelinServerSocket(this);
+        }
+
+        int getPort() {
+            return port;
+        }
+
+        JavelinAuthenticator getAuthenticator() {
+            return authenticator;
+        }
+
+        int getWorkers() {
+            return workers;
+        }
+
+        int getDispatchWorkers() {
+            return dispatchWorkers;
+        }
+
+        int getAuthenticationWorkers() {
+            return authenticationWorkers;
+        }
+
+        int getMaxPendingAuthentications() {
+            return maxPendingAuthentications;
+        }
+
+        Duration getSessionDuration() {
+            return sessionDuration;
+        }
+
+        boolean isVirtualThreadsEnabled() {
+            return virtualThreads;
+        }
+
+        boolean isAlwaysAllowLocalConnections() {
+            return alwaysAllowLocalConnections;
+        }
+
+        boolean isLocalBroadcastEnabled() {
+            return enableLocalBroadcast;
+        }
+
+        BatchingPolicy getBatchingPolicy() {
+            return batchingPolicy;
+        }
+
+        CompressionPolicy getCompressionPolicy() {
+            return compressionPolicy;
+        }
+
+        boolean isTcpNoDelay() {
+            return tcpNoDelay;
+        }
+
+        OutboundQueuePolicy getOutboundQueuePolicy() {
+            return outboundQueuePolicy;
+        }
+
+        JavelinMetrics getMetrics() {
+            return metrics;
+        }
+
+        boolean isRelayOnly() {
+            return relayOnly;
+        }
+
+        int getFanOutWorkers() {
+            return fanOutWorkers;
+        }
+    }
+
+    final class ClientBuilder {
+
+        private final URI serverUri;
+        private @Nullable PasswordAuthentication authentication = null;
+        private int workers = 1;
+        private boolean virtualThreads = false;
+        private boolean enableLocalBroadcast = false;
+        private BatchingPolicy batchingPolicy = BatchingPolicy.disabled();
+        private CompressionPolicy compressionPolicy = CompressionPolicy.of(256);
+        private boolean tcpNoDelay = true;
+        private OutboundQueuePolicy outboundQueuePolicy =
+                OutboundQueuePolicy.of(1024, OutboundQueuePolicy.Overflow.BLOCK);
+        private JavelinMetrics metrics = JavelinMetrics.noop();
+        private int reliableWindow = 0;
+
+        private ClientBuilder(final URI serverUri) {
+            this.serverUri = serverUri;
+        }
+
+        public ClientBuilder credentials(final String username, final char[] password) {
+            return authentication(new PasswordAuthentication(username, password));
+        }
+
+        /**
+         * Sets the number of threads posting the received events to the subscribers, 1 by default.
+         *
+         * @throws IllegalArgumentException if the number is not positive
+         */
+        public ClientBuilder workers(final int workers) {
+            if (workers < 1) {
+                throw new IllegalArgumentException("The number of workers must be positive: " + workers);
+            }
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * Sets whether the received events are posted to the subscribers in virtual threads instead of the workers,
+         * disabled by default. Useful if the subscribers block, such as on database calls. Requires Java 21, the
+         * workers are used on older versions.
+         * <br>
+         * The events of a class, or with the same ordering key, are still posted in order, by a single virtual thread
+         * at a time. So the blocking subscribers only run concurrently for different keys: the events of a class
+         * without {@link OrderedEvent} are posted one after the other, however many virtual threads are available.
+         */
+        public ClientBuilder virtualThreads(final boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public ClientBuilder enableLocalBroadcast(final boolean enableLocalBroadcast) {
+            this.enableLocalBroadcast = enableLocalBroadcast;
+            return this;
+        }
+
+        public ClientBuilder batchingPolicy(final BatchingPolicy batchingPolicy) {
+            this.batchingPolicy = batchingPolicy;
+            return this;
+        }
+
+        public ClientBuilder compressionPolicy(final CompressionPolicy compressionPolicy) {
+            this.compressionPolicy = compressionPolicy;
+            return this;
+        }
+
+        /**
+         * Sets whether Nagle's algorithm is disabled on the connections (TCP_NODELAY), enabled by default so the small
+         * frames are sent right away. See {@link #batchingPolicy(BatchingPolicy)} to pack the events sent in a short
+         * time with a bounded delay instead.
+         */
+        public ClientBuilder tcpNoDelay(final boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        /**
+         * Sets the policy of the queue of the events waiting to be sent, 1024 events blocking the senders once full by
+         * default. The capacity is validated by {@link OutboundQueuePolicy#of(int, OutboundQueuePolicy.Overflow)}.
+         */
+        public ClientBuilder outboundQueuePolicy(final OutboundQueuePolicy outboundQueuePolicy) {
+            this.outboundQueuePolicy = outboundQueuePolicy;
+            return this;
+        }
+
+        /**
+         * Sets the metrics receiving the measurements of the socket, {@link JavelinMetrics#noop()} by default.
+         */
+        public ClientBuilder metrics(final JavelinMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Enables the reliable delivery of the events sent to the server, disabled by default with a window of 0. The
+         * frames are numbered and kept until the server acknowledges them, to be sent again once reconnected if the
+         * connection is lost, the server ignoring the ones it already received. Once {@code window} frames wait for
+         * an acknowledgment, the events wait for room before being sent, so they pile up in the outbound queue instead
+         * of in the connection when the server lags behind. The subscriptions are still sent meanwhile.
+         * <br>
+         * The server keeps the sequence numbers in memory, up to 15 minutes after the client disconnected. After a
+         * restart of the server, or a longer disconnection, the frames it received but did not acknowledge yet are
+         * received again, preceded by the definitions of their classes.
+         * <br>
+         * Only the events sent by the client are reliable, the events relayed by the server to the clients are still
+         * lost with their connection. The events larger than a frame are streamed in chunks without being numbered, so
+         * their transfer is aborted and their future fails when the connection is lost.
+         *
+         * @throws IllegalArgumentException if the window is negative
+         */
+        public ClientBuilder reliableDelivery(final int window) {
+            if (window < 0) {
+                throw new IllegalArgumentException("The reliable window can't be negative: " + window);
+            }
+            this.reliableWindow = window;
+            return this;
+        }
+
+        public JavelinSocket build() {
+            return new JavelinClientSocket(this);
+        }
+
+        ClientBuilder authentication(final @Nullable PasswordAuthentication authentication) {
+            this.authentication = authentication;
+            return this;
+        }
+
+        URI getServerUri() {
+            return serverUri;
+        }
+
+        @Nullable PasswordAuthentication getAuthentication() {
+            return authentication;
+        }
+
+        int getWorkers() {
+            return workers;
+        }
+
+        boolean isVirtualThreadsEnabled() {
+            return virtualThreads;
+        }
+
+        boolean isLocalBroadcastEnabled() {
+            return enableLocalBroadcast;
+        }
+
+        BatchingPolicy getBatchingPolicy() {
+            return batchingPolicy;
+        }
+
+        CompressionPolicy getCompressionPolicy() {
+            return compressionPolicy;
+        }
+
+        boolean isTcpNoDelay() {
+            return tcpNoDelay;
+        }
+
+        OutboundQueuePolicy getOutboundQueuePolicy() {
+            return outboundQueuePolicy;
+        }
+
+        JavelinMetrics getMetrics() {
+            return metrics;
+        }
+
+        int getReliableWindow() {
+            return reliableWindow;
+        }
+    }
 }
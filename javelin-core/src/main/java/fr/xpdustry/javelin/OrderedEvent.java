@@ -0,0 +1,37 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+/**
+ * An event received in the order it was sent relative to the other events with the same ordering key, instead of the
+ * other events of its class.
+ * <br>
+ * A client socket handles the received events with several workers. The events with the same key are always handled
+ * by the same worker, one at a time and in order, while the events with different keys can be handled in parallel.
+ * By default, the key of an event is its class.
+ */
+public interface OrderedEvent extends JavelinEvent {
+
+    /**
+     * Returns the ordering key of this event, such as the ID of the player or the entity it is about. The key must
+     * implement {@link Object#equals(Object)} and {@link Object#hashCode()} consistently, and must not change once the
+     * event is sent.
+     */
+    Object getOrderingKey();
+}
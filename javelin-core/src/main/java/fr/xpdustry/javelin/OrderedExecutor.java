@@ -0,0 +1,42 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.concurrent.*;
+
+/**
+ * An executor running the tasks with the same key one at a time and in submission order, while running the tasks with
+ * different keys in parallel. Used to post the received events to the subscribers, see {@link OrderedEvent}.
+ */
+interface OrderedExecutor {
+
+    /**
+     * Runs the task after the tasks previously submitted with the same key.
+     *
+     * @throws RejectedExecutionException if the executor has been shut down
+     */
+    void execute(final Object key, final Runnable task);
+
+    /**
+     * Stops accepting new tasks, the submitted tasks are still run.
+     */
+    void shutdown();
+
+    boolean isShutdown();
+}
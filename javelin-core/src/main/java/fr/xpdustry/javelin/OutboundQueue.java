@@ -0,0 +1,518 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import org.checkerframework.checker.nullness.qual.*;
+import org.slf4j.*;
+
+/**
+ * The bounded queue of the events sent by a socket, see {@link OutboundQueuePolicy}.
+ * <br>
+ * The events are sent one after the other by a sender thread, then stay pending until the connections they have been
+ * sent to confirm that they have been written, see {@link WriteTracker}. With reliable delivery, the events whose
+ * connection is lost stay pending until the server acknowledged them, see {@link ReliableSender}. The confirmations
+ * hand the deliveries back to a sender thread, which completes their futures, so the callbacks of the futures never
+ * run on the threads of the connections. When as many events as the capacity are pending, the queue stops sending, so
+ * it fills up and its overflow policy applies.
+ * <br>
+ * The events too large for a frame are streamed by a transfer thread instead, one after the other, so their chunks are
+ * interleaved with the events sent in the meantime, see {@link #transfer(Delivery, Runnable)}.
+ * <br>
+ * The sender and transfer threads are shared by the sockets, a queue only taking one while it has work to do. The
+ * deliveries are recycled once their futures are completed, so sending an event only allocates its future.
+ */
+final class OutboundQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    private final OutboundQueuePolicy policy;
+    private final Consumer<Delivery> sender;
+    private final Runnable sendTask = this::runSender;
+    private final Runnable transferTask = this::runTransfers;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final Deque<Delivery> queue = new ArrayDeque<>();
+    // Guarded by the lock, the deliveries waiting to be streamed by the transfer thread
+    private final Deque<Delivery> transfers = new ArrayDeque<>();
+    // Guarded by the lock, the deliveries whose futures can be completed by the sender thread
+    private final Deque<Delivery> done = new ArrayDeque<>();
+    // Guarded by the lock, the deliveries that can be reused
+    private final Deque<Delivery> free = new ArrayDeque<>();
+    // Only accessed by the sender thread, the deliveries taken from done
+    private final List<Delivery> completed = new ArrayList<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder droppedOldest = new LongAdder();
+    private final LongAdder droppedNewest = new LongAdder();
+    // The thread sending the events of this queue, if any
+    private @Nullable Thread thread = null;
+    private boolean sendScheduled = false;
+    private boolean transferScheduled = false;
+    private boolean sending = false;
+    private int transferring = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a new outbound queue.
+     *
+     * @param policy the outbound queue policy
+     * @param sender the function sending the event of a delivery, called by the sender thread. It must mark the
+     *               delivery with the positions of its last frame in the connections it has been sent to, see
+     *               {@link Delivery#mark(WriteTracker, long)}.
+     */
+    OutboundQueue(final OutboundQueuePolicy policy, final Consumer<Delivery> sender) {
+        this.policy = policy;
+        this.sender = sender;
+    }
+
+    /**
+     * Adds an event to the queue, applying the overflow policy if the queue is full.
+     *
+     * @return the future completed once the event has been written, or acknowledged if the delivery is reliable
+     */
+    CompletableFuture<Void> offer(final JavelinEvent event) {
+        @Nullable Delivery dropped = null;
+        final CompletableFuture<Void> future;
+        lock.lock();
+        try {
+            if (queue.size() >= policy.getCapacity() && !closed) {
+                switch (policy.getOverflow()) {
+                    case BLOCK -> {
+                        // The sender thread can't wait for itself, when sending from the callback of a future
+                        if (Thread.currentThread() != thread) {
+                            blocked.increment();
+                            while (queue.size() >= policy.getCapacity() && !closed) {
+                                notFull.await();
+                            }
+                        }
+                    }
+                    case FAIL_FAST -> {
+                        rejected.increment();
+                        return CompletableFuture.failedFuture(new IOException("The outbound queue is full."));
+                    }
+                    case DROP_OLDEST -> {
+                        droppedOldest.increment();
+                        dropped = queue.removeFirst();
+                    }
+                    case DROP_NEWEST -> {
+                        droppedNewest.increment();
+                        final var cancelled = new CompletableFuture<Void>();
+                        cancelled.cancel(false);
+                        return cancelled;
+                    }
+                }
+            }
+            if (closed) {
+                return CompletableFuture.failedFuture(new IOException("The socket is closed."));
+            }
+            final var delivery = free.isEmpty() ? new Delivery(this) : free.removeLast();
+            delivery.event = event;
+            delivery.future = new CompletableFuture<>();
+            // Read before the delivery can be completed and recycled by the sender thread
+            future = delivery.future;
+            queue.addLast(delivery);
+            scheduleSender();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(new InterruptedIOException());
+        } finally {
+            lock.unlock();
+        }
+        if (dropped != null) {
+            dropped.getFuture().cancel(false);
+            recycle(dropped);
+        }
+        return future;
+    }
+
+    /**
+     * Streams the event of a delivery in the transfer thread, so the events queued after it are sent in the meantime.
+     * Called by the sender function, the delivery stays pending until the streaming is done and its frames are written.
+     *
+     * @param delivery  the delivery being sent
+     * @param streaming the function sending the frames of the event, marking the delivery like the sender function
+     */
+    void transfer(final Delivery delivery, final Runnable streaming) {
+        delivery.streaming = streaming;
+        lock.lock();
+        try {
+            transferring++;
+            transfers.addLast(delivery);
+            if (!transferScheduled) {
+                transferScheduled = true;
+                Threads.TRANSFERS.execute(transferTask);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting events, and waits for the queued ones to be sent.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+            while (sending || transferring > 0 || !queue.isEmpty()) {
+                drained.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    OutboundStatistics getStatistics() {
+        final int queued;
+        lock.lock();
+        try {
+            queued = queue.size();
+        } finally {
+            lock.unlock();
+        }
+        return new OutboundStatistics(
+                queued,
+                pendingCount.get(),
+                written.sum(),
+                failed.sum(),
+                blocked.sum(),
+                rejected.sum(),
+                droppedOldest.sum(),
+                droppedNewest.sum());
+    }
+
+    // Called while holding the lock
+    private void scheduleSender() {
+        if (!sendScheduled) {
+            sendScheduled = true;
+            Threads.SENDERS.execute(sendTask);
+        }
+    }
+
+    // Sends the queued events and completes the done ones, until there is nothing left to do
+    private void runSender() {
+        while (true) {
+            final @Nullable Delivery delivery;
+            lock.lock();
+            try {
+                thread = Thread.currentThread();
+                sending = false;
+                while (!done.isEmpty()) {
+                    completed.add(done.removeFirst());
+                }
+                if (completed.isEmpty() && (queue.isEmpty() || pendingCount.get() >= policy.getCapacity())) {
+                    if (queue.isEmpty()) {
+                        drained.signalAll();
+                    }
+                    // Scheduled again by the next event queued or delivery done
+                    thread = null;
+                    sendScheduled = false;
+                    return;
+                }
+                delivery = completed.isEmpty() ? queue.removeFirst() : null;
+                if (delivery != null) {
+                    sending = true;
+                    notFull.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+            // The room made by the completed events is used on the next iteration
+            if (!completed.isEmpty()) {
+                for (int i = 0; i < completed.size(); i++) {
+                    complete(completed.get(i));
+                }
+                lock.lock();
+                try {
+                    for (int i = 0; i < completed.size(); i++) {
+                        completed.get(i).reset();
+                        free.addLast(completed.get(i));
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                completed.clear();
+            }
+            if (delivery == null) {
+                continue;
+            }
+            pendingCount.incrementAndGet();
+            try {
+                sender.accept(delivery);
+            } catch (final RuntimeException e) {
+                logger.debug("Failed to send an event.", e);
+                delivery.failure = e;
+            }
+            // The frames of a transfer are marked by the transfer thread until it's done
+            if (delivery.streaming == null) {
+                delivery.watch();
+            }
+        }
+    }
+
+    // Streams the events too large for a frame one after the other, until there is none left
+    private void runTransfers() {
+        while (true) {
+            final Delivery delivery;
+            lock.lock();
+            try {
+                final var next = transfers.pollFirst();
+                if (next == null) {
+                    transferScheduled = false;
+                    return;
+                }
+                delivery = next;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                Objects.requireNonNull(delivery.streaming).run();
+            } catch (final RuntimeException e) {
+                logger.debug("Failed to stream an event.", e);
+                delivery.failure = e;
+            } finally {
+                lock.lock();
+                try {
+                    transferring--;
+                    drained.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                delivery.watch();
+            }
+        }
+    }
+
+    // Called once every frame of the delivery has been written or lost
+    private void onDone(final Delivery delivery) {
+        lock.lock();
+        try {
+            done.addLast(delivery);
+            scheduleSender();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called by the sender thread
+    private void complete(final Delivery delivery) {
+        pendingCount.decrementAndGet();
+        final var failure = delivery.failure;
+        if (failure != null) {
+            failed.increment();
+            delivery.getFuture().completeExceptionally(failure);
+        } else {
+            written.increment();
+            delivery.getFuture().complete(null);
+        }
+    }
+
+    private void recycle(final Delivery delivery) {
+        delivery.reset();
+        lock.lock();
+        try {
+            free.addLast(delivery);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * An event of the queue, and the positions of its last frame in the connections it has been sent to. The positions
+     * are indexed by the slots of the connections, see {@link WriteTracker#getSlot()}.
+     */
+    static final class Delivery implements WriteTracker.Listener {
+
+        private final OutboundQueue queue;
+        // The frames waiting to be written, plus one until the delivery is watched
+        private final AtomicInteger remaining = new AtomicInteger(1);
+        // Guarded by this, marked by the threads writing the connections in parallel, then read by the sender or the
+        // transfer thread
+        private @Nullable WriteTracker[] trackers = new WriteTracker[1];
+        private long[] positions = new long[1];
+        private int[] slots = new int[1];
+        private int marked = 0;
+        private @Nullable ReliableSender reliable = null;
+        private long sequence = 0L;
+        // Set by the sender thread when the delivery is queued, reset when recycled
+        private @Nullable JavelinEvent event = null;
+        private @Nullable CompletableFuture<Void> future = null;
+        // Set if the event is streamed by the transfer thread, which then watches it instead of the sender thread
+        private volatile @Nullable Runnable streaming = null;
+        private volatile @Nullable Exception failure = null;
+
+        private Delivery(final OutboundQueue queue) {
+            this.queue = queue;
+        }
+
+        JavelinEvent getEvent() {
+            return Objects.requireNonNull(event);
+        }
+
+        /**
+         * Marks the position of the last frame of the event in the given connection.
+         */
+        synchronized void mark(final WriteTracker tracker, final long position) {
+            final var slot = tracker.getSlot();
+            if (slot >= trackers.length) {
+                trackers = Arrays.copyOf(trackers, Math.max(slot + 1, trackers.length * 2));
+                positions = Arrays.copyOf(positions, trackers.length);
+            }
+            final var previous = trackers[slot];
+            if (previous == null) {
+                if (marked == slots.length) {
+                    slots = Arrays.copyOf(slots, slots.length * 2);
+                }
+                slots[marked++] = slot;
+            } else if (previous != tracker) {
+                // The slot of a closed connection reused by a new one, the outcome of the closed one is already known
+                remaining.incrementAndGet();
+                previous.whenWritten(positions[slot], this);
+            }
+            trackers[slot] = tracker;
+            positions[slot] = position;
+        }
+
+        /**
+         * Marks the sequence number of the last frame of the event. If the connection is closed before writing the
+         * frame, the delivery stays pending until the server acknowledged it, since the frames of a lost connection
+         * are sent again on the next one.
+         */
+        synchronized void mark(final ReliableSender reliable, final long sequence) {
+            this.reliable = reliable;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Waits until at most the given number of the last frames of the event are not written yet,
+         * to stream the chunks of a large event without queuing them all in the connections.
+         */
+        void await(final long frames) {
+            for (int i = 0; ; i++) {
+                final WriteTracker tracker;
+                final long position;
+                synchronized (this) {
+                    if (i >= marked) {
+                        return;
+                    }
+                    tracker = Objects.requireNonNull(trackers[slots[i]]);
+                    position = positions[slots[i]];
+                }
+                tracker.awaitWritten(position - frames);
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onWritten(final boolean written) {
+            if (written) {
+                countDown();
+                return;
+            }
+            final @Nullable ReliableSender reliable;
+            final long sequence;
+            synchronized (this) {
+                reliable = this.reliable;
+                sequence = this.sequence;
+            }
+            if (reliable != null) {
+                // The frames of the lost connection are sent again on the next one
+                reliable.whenAcknowledged(sequence, acknowledged -> {
+                    if (!acknowledged) {
+                        failure = new IOException("The socket has been closed before the event was sent.");
+                    }
+                    countDown();
+                });
+            } else {
+                failure = new IOException("The connection has been closed before the event was written.");
+                countDown();
+            }
+        }
+
+        private CompletableFuture<Void> getFuture() {
+            return Objects.requireNonNull(future);
+        }
+
+        // Waits for every frame marked to be written or lost, once all of them have been sent
+        private void watch() {
+            if (failure == null) {
+                synchronized (this) {
+                    for (int i = 0; i < marked; i++) {
+                        final var slot = slots[i];
+                        remaining.incrementAndGet();
+                        Objects.requireNonNull(trackers[slot]).whenWritten(positions[slot], this);
+                    }
+                }
+            }
+            countDown();
+        }
+
+        private void countDown() {
+            if (remaining.decrementAndGet() == 0) {
+                queue.onDone(this);
+            }
+        }
+
+        // Called once the future is completed, no other thread refers to the delivery anymore
+        private synchronized void reset() {
+            for (int i = 0; i < marked; i++) {
+                trackers[slots[i]] = null;
+            }
+            marked = 0;
+            remaining.set(1);
+            reliable = null;
+            sequence = 0L;
+            event = null;
+            future = null;
+            streaming = null;
+            failure = null;
+        }
+    }
+
+    // The threads of the queues, shared like the scheduler of the batches. A queue blocked while sending, waiting for
+    // room in its reliable window or for its chunks to be written, takes a thread of its own, so the other queues are
+    // not delayed. The idle threads are reused by the next queue with work to do, or stopped after a minute.
+    private static final class Threads {
+
+        private static final ExecutorService SENDERS = createExecutor("javelin-sender");
+        private static final ExecutorService TRANSFERS = createExecutor("javelin-transfer");
+
+        private static ExecutorService createExecutor(final String name) {
+            return new ThreadPoolExecutor(
+                    0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                        final var thread = new Thread(runnable, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+    }
+}
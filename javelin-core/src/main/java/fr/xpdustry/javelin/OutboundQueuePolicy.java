@@ -0,0 +1,82 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+/**
+ * Defines the bounded queue of the events sent by a socket and waiting to be written, and what happens to the events
+ * sent while the queue is full. The queue is full when the connections can't keep up, since the events handed to the
+ * connections and not written yet also count in the limit.
+ */
+public final class OutboundQueuePolicy {
+
+    private final int capacity;
+    private final Overflow overflow;
+
+    private OutboundQueuePolicy(final int capacity, final Overflow overflow) {
+        this.capacity = capacity;
+        this.overflow = overflow;
+    }
+
+    /**
+     * Creates a new outbound queue policy.
+     *
+     * @param capacity the maximum number of events waiting to be sent, and of events waiting to be written
+     * @param overflow what happens to the events sent while the queue is full
+     * @return the outbound queue policy
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public static OutboundQueuePolicy of(final int capacity, final Overflow overflow) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+        return new OutboundQueuePolicy(capacity, overflow);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboundQueuePolicy{capacity=" + capacity + ", overflow=" + overflow + '}';
+    }
+
+    public enum Overflow {
+        /**
+         * The sending thread waits until the queue has room for the event.
+         */
+        BLOCK,
+        /**
+         * The future of the event fails with an {@link java.io.IOException}.
+         */
+        FAIL_FAST,
+        /**
+         * The oldest event of the queue is dropped to make room for the event, its future is cancelled.
+         */
+        DROP_OLDEST,
+        /**
+         * The event is dropped, its future is cancelled.
+         */
+        DROP_NEWEST
+    }
+}
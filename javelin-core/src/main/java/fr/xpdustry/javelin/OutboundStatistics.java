@@ -0,0 +1,123 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+/**
+ * A snapshot of the counters of the outbound queue of a socket, see {@link OutboundQueuePolicy}.
+ */
+public final class OutboundStatistics {
+
+    private static final OutboundStatistics EMPTY = new OutboundStatistics(0, 0, 0L, 0L, 0L, 0L, 0L, 0L);
+
+    private final int queued;
+    private final int pending;
+    private final long written;
+    private final long failed;
+    private final long blocked;
+    private final long rejected;
+    private final long droppedOldest;
+    private final long droppedNewest;
+
+    OutboundStatistics(
+            final int queued,
+            final int pending,
+            final long written,
+            final long failed,
+            final long blocked,
+            final long rejected,
+            final long droppedOldest,
+            final long droppedNewest) {
+        this.queued = queued;
+        this.pending = pending;
+        this.written = written;
+        this.failed = failed;
+        this.blocked = blocked;
+        this.rejected = rejected;
+        this.droppedOldest = droppedOldest;
+        this.droppedNewest = droppedNewest;
+    }
+
+    static OutboundStatistics empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns the number of events waiting to be sent.
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Returns the number of events handed to the connections and waiting to be written.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * Returns the number of events written to the connections.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Returns the number of events that failed to be sent or that were lost with their connection.
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns the number of times a thread waited for the queue to have room, with
+     * {@link OutboundQueuePolicy.Overflow#BLOCK}.
+     */
+    public long getBlocked() {
+        return blocked;
+    }
+
+    /**
+     * Returns the number of events rejected with {@link OutboundQueuePolicy.Overflow#FAIL_FAST}.
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Returns the number of events dropped with {@link OutboundQueuePolicy.Overflow#DROP_OLDEST}.
+     */
+    public long getDroppedOldest() {
+        return droppedOldest;
+    }
+
+    /**
+     * Returns the number of events dropped with {@link OutboundQueuePolicy.Overflow#DROP_NEWEST}.
+     */
+    public long getDroppedNewest() {
+        return droppedNewest;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboundStatistics{queued=" + queued + ", pending=" + pending + ", written=" + written + ", failed="
+                + failed + ", blocked=" + blocked + ", rejected=" + rejected + ", droppedOldest=" + droppedOldest
+                + ", droppedNewest=" + droppedNewest + '}';
+    }
+}
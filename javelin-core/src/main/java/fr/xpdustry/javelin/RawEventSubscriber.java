@@ -0,0 +1,37 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.nio.*;
+
+/**
+ * Receives the events before they are deserialized, for bridges and loggers that don't need the event objects, see
+ * {@link JavelinSocket#subscribeRaw(String, RawEventSubscriber)}.
+ */
+@FunctionalInterface
+public interface RawEventSubscriber {
+
+    /**
+     * Called by the thread receiving the event, so it must return quickly.
+     *
+     * @param type    the name of the event class, as returned by {@link Class#getName()}
+     * @param payload a read-only view of the serialized event, only valid during the call
+     */
+    void onRawEvent(final String type, final ByteBuffer payload);
+}
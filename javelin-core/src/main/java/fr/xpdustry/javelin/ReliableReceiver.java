@@ -0,0 +1,91 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tracks the sequence numbers of the frames received from a client with reliable delivery, across its connections, so
+ * the frames sent again on a new connection are only handled once, see {@link ReliableSender}.
+ * <br>
+ * The frames of a connection are never reordered, so a frame is new if its sequence number is greater than the last
+ * one received. Numbers can be skipped when the server forgot the channel, such as after a restart, in which case the
+ * frames are handled again instead of being lost.
+ */
+final class ReliableReceiver {
+
+    private final String channel;
+    // The class IDs defined by the client, they are only defined once per connection and the frame defining a class
+    // may have been handled on a previous connection
+    private final Map<Integer, String[]> definitions = new ConcurrentHashMap<>();
+    // Guarded by this, the connections of the client can overlap while the previous one is being closed
+    private long lastSequence = 0L;
+    private int connections = 0;
+    private long lastDisconnection = System.nanoTime();
+
+    /**
+     * @param channel the ID of the sender of the client, see {@link ReliableSender#getChannel()}
+     */
+    ReliableReceiver(final String channel) {
+        this.channel = channel;
+    }
+
+    String getChannel() {
+        return channel;
+    }
+
+    Map<Integer, String[]> getDefinitions() {
+        return definitions;
+    }
+
+    /**
+     * Returns whether the frame with the given sequence number has not been received yet, marking it as received.
+     */
+    synchronized boolean receive(final long sequence) {
+        if (sequence <= lastSequence) {
+            return false;
+        }
+        lastSequence = sequence;
+        return true;
+    }
+
+    /**
+     * Returns the sequence number of the last frame received, acknowledging it and all the previous ones.
+     */
+    synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    synchronized void onConnect() {
+        connections++;
+    }
+
+    synchronized void onDisconnect() {
+        connections--;
+        lastDisconnection = System.nanoTime();
+    }
+
+    /**
+     * Returns whether the client has no connection since the given time, so the channel can be forgotten.
+     */
+    synchronized boolean isIdle(final long now, final long timeoutNanos) {
+        return connections == 0 && now - lastDisconnection >= timeoutNanos;
+    }
+}
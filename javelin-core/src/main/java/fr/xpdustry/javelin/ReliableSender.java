@@ -0,0 +1,326 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.nio.*;
+import java.util.*;
+import java.util.function.*;
+import org.checkerframework.checker.nullness.qual.*;
+import org.java_websocket.exceptions.*;
+
+/**
+ * Numbers the frames sent to the server and keeps them until the server acknowledges them, to send them again on the
+ * next connection if the current one is lost. A sequenced frame contains the flags, the sequence number and the
+ * original frame. The sender asks the server to acknowledge the frames every half window, the server acknowledging
+ * all the frames up to the requested one.
+ * <br>
+ * About a window of frames is waiting for an acknowledgment: the events wait for room in the window while the server
+ * lags behind, the outbound queue of the socket then applying its overflow policy to the new events. The other frames,
+ * such as the subscriptions or the batches flushed after a delay, are sent even if the window is full, they are few and
+ * don't wait for the server.
+ * <br>
+ * The server forgets the class IDs defined by the client when it restarts or forgets the channel, while the frames
+ * defining them may have been acknowledged already. The sender keeps the definition frames, and sends again the ones
+ * of the class IDs the pending frames may use before sending them on a new connection, see
+ * {@link #define(int, ByteBuffer)} and {@link #use(int)}.
+ * <br>
+ * The events sent are complete once the server acknowledged their frames, even if they were sent again on another
+ * connection, see {@link #whenAcknowledged(long, Consumer)}.
+ * <br>
+ * {@link #awaitRoom(BooleanSupplier)} must be called before taking the write lock of the socket, so waiting for the
+ * server doesn't block the other writers. The other methods must be called while holding the write lock, except
+ * {@link #acknowledge(long)}, called by the thread receiving the frames, and the ones waiting for the
+ * acknowledgments.
+ */
+final class ReliableSender {
+
+    static final byte ACK_REQUESTED = 1;
+    static final int HEADER_SIZE = 2 + Long.BYTES;
+
+    // The maximum time waiting for an acknowledgment before checking if the connection is still open
+    private static final long WAIT_MILLIS = 10L;
+
+    private final String channel = UUID.randomUUID().toString();
+    private final int window;
+    private final int ackInterval;
+    // Guarded by this
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    // Guarded by this, the definition frames by class ID, bounded by the class IDs of the serializer
+    private final Map<Integer, Definition> definitions = new HashMap<>();
+    // Guarded by this, the callbacks waiting for a frame to be acknowledged, by sequence number
+    private final PriorityQueue<Waiter> waiters =
+            new PriorityQueue<>(Comparator.comparingLong(waiter -> waiter.sequence));
+    private long lastSequence = 0L;
+    private long lastAckRequest = 0L;
+    private long lastAcknowledged = 0L;
+    private boolean closed = false;
+
+    /**
+     * Creates a new sender.
+     *
+     * @param window the maximum number of frames waiting for an acknowledgment
+     */
+    ReliableSender(final int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("The window must be positive: " + window);
+        }
+        this.window = window;
+        this.ackInterval = Math.max(1, window / 2);
+    }
+
+    /**
+     * Returns the ID of the sender, identifying its sequence numbers to the server across the connections, see
+     * {@link Internal#CHANNEL_HEADER}.
+     */
+    String getChannel() {
+        return channel;
+    }
+
+    /**
+     * Waits for the window to have room for the frames of an event.
+     *
+     * @param open whether the current connection is open, checked while waiting since the window can't have room once
+     *             it's closed
+     * @throws WebsocketNotConnectedException if the connection is closed, or the thread interrupted, while the window
+     *                                        is full, the event is then lost
+     */
+    synchronized void awaitRoom(final BooleanSupplier open) {
+        while (pending.size() >= window && open.getAsBoolean()) {
+            try {
+                wait(WAIT_MILLIS);
+            } catch (final InterruptedException e) {
+                // The socket is closing
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (pending.size() >= window) {
+            throw new WebsocketNotConnectedException();
+        }
+    }
+
+    /**
+     * Numbers and sends the frame, without waiting for the window, see {@link #awaitRoom(BooleanSupplier)}. If the
+     * connection is closed, the frame is kept and sent on the next connection.
+     *
+     * @param tracker the tracker of the current connection
+     * @param frame   the frame, copied, its position is left untouched
+     */
+    void send(final WriteTracker tracker, final ByteBuffer frame) {
+        final ByteBuffer sequenced;
+        synchronized (this) {
+            final var sequence = ++lastSequence;
+            var flags = (byte) 0;
+            if (sequence - lastAckRequest >= ackInterval) {
+                flags |= ACK_REQUESTED;
+                lastAckRequest = sequence;
+            }
+            sequenced = ByteBuffer.allocate(HEADER_SIZE + frame.remaining())
+                    .put(Internal.SEQUENCED_FRAME)
+                    .put(flags)
+                    .putLong(sequence)
+                    .put(frame.duplicate())
+                    .flip();
+            pending.addLast(new Pending(sequence, sequenced));
+        }
+        if (tracker.isOpen()) {
+            try {
+                tracker.send(sequenced.duplicate());
+            } catch (final WebsocketNotConnectedException ignored) {
+                // The frame is sent again on the next connection
+            }
+        }
+    }
+
+    /**
+     * Keeps the definition frame of a class ID, sent before the event frames using it.
+     *
+     * @param classId the class ID
+     * @param frame   the definition frame, copied, its position is left untouched
+     */
+    synchronized void define(final int classId, final ByteBuffer frame) {
+        final var copy = ByteBuffer.allocate(frame.remaining()).put(frame.duplicate()).flip();
+        final var previous = definitions.get(classId);
+        definitions.put(classId, new Definition(copy, previous != null ? previous.lastUse : 0L));
+    }
+
+    /**
+     * Marks the class ID as used by the event just handed to the connection, which is either in the last numbered
+     * frame or in the next one, if it waits in a batch.
+     *
+     * @param classId the class ID, defined by {@link #define(int, ByteBuffer)}
+     */
+    synchronized void use(final int classId) {
+        final var definition = definitions.get(classId);
+        if (definition != null) {
+            definition.lastUse = lastSequence + 1;
+        }
+    }
+
+    /**
+     * Sends the frames not acknowledged yet on a new connection, asking the server to acknowledge the last one. They
+     * are preceded by the definitions of the class IDs they may use, without numbering them, since the server may have
+     * forgotten the definitions.
+     */
+    void resend(final WriteTracker tracker) {
+        final List<Pending> frames;
+        final List<ByteBuffer> used = new ArrayList<>();
+        synchronized (this) {
+            frames = new ArrayList<>(pending);
+            if (!frames.isEmpty()) {
+                final var first = frames.get(0).sequence;
+                for (final var definition : definitions.values()) {
+                    if (definition.lastUse >= first) {
+                        used.add(definition.frame);
+                    }
+                }
+                final var last = frames.get(frames.size() - 1);
+                last.frame.put(1, (byte) (last.frame.get(1) | ACK_REQUESTED));
+                lastAckRequest = last.sequence;
+            }
+        }
+        for (final var definition : used) {
+            tracker.send(definition.duplicate());
+        }
+        for (final var frame : frames) {
+            tracker.send(frame.frame.duplicate());
+        }
+    }
+
+    /**
+     * Sends the last frame not acknowledged yet again, asking the server to acknowledge it, so the frames sent before
+     * closing the connection are acknowledged before the server answers the closing handshake. The server ignores the
+     * copy, like the frames sent again on a new connection.
+     */
+    void flush(final WriteTracker tracker) {
+        final ByteBuffer frame;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            final var last = pending.getLast();
+            last.frame.put(1, (byte) (last.frame.get(1) | ACK_REQUESTED));
+            lastAckRequest = last.sequence;
+            frame = last.frame;
+        }
+        tracker.send(frame.duplicate());
+    }
+
+    /**
+     * Discards the frames acknowledged by the server, up to the given sequence number.
+     */
+    void acknowledge(final long sequence) {
+        final List<Waiter> ready = new ArrayList<>();
+        synchronized (this) {
+            while (!pending.isEmpty() && pending.getFirst().sequence <= sequence) {
+                pending.removeFirst();
+            }
+            lastAcknowledged = Math.max(lastAcknowledged, sequence);
+            while (!waiters.isEmpty() && waiters.peek().sequence <= lastAcknowledged) {
+                ready.add(waiters.poll());
+            }
+            notifyAll();
+        }
+        ready.forEach(waiter -> waiter.callback.accept(true));
+    }
+
+    /**
+     * Returns the sequence number of the last frame numbered.
+     */
+    synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Calls the callback once the frame with the given sequence number has been acknowledged, with {@code true}, or
+     * once the sender is closed before, with {@code false}. The callback is called by the thread receiving the frames,
+     * or by the calling thread if the outcome is already known, so it must not block.
+     */
+    void whenAcknowledged(final long sequence, final Consumer<Boolean> callback) {
+        final @Nullable Boolean outcome;
+        synchronized (this) {
+            if (sequence <= lastAcknowledged) {
+                outcome = true;
+            } else if (closed) {
+                outcome = false;
+            } else {
+                waiters.add(new Waiter(sequence, callback));
+                outcome = null;
+            }
+        }
+        if (outcome != null) {
+            callback.accept(outcome);
+        }
+    }
+
+    /**
+     * Notifies the waiting callbacks that their frames will not be acknowledged, called once the socket is closed for
+     * good, since the frames are no longer sent again.
+     */
+    void close() {
+        final List<Waiter> lost;
+        synchronized (this) {
+            closed = true;
+            lost = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        lost.forEach(waiter -> waiter.callback.accept(false));
+    }
+
+    /**
+     * Returns the number of frames waiting for an acknowledgment.
+     */
+    synchronized int countPending() {
+        return pending.size();
+    }
+
+    private static final class Definition {
+
+        private final ByteBuffer frame;
+        // The sequence number of the last frame that may use the class ID
+        private long lastUse;
+
+        private Definition(final ByteBuffer frame, final long lastUse) {
+            this.frame = frame;
+            this.lastUse = lastUse;
+        }
+    }
+
+    private static final class Waiter {
+
+        private final long sequence;
+        private final Consumer<Boolean> callback;
+
+        private Waiter(final long sequence, final Consumer<Boolean> callback) {
+            this.sequence = sequence;
+            this.callback = callback;
+        }
+    }
+
+    private static final class Pending {
+
+        private final long sequence;
+        private final ByteBuffer frame;
+
+        private Pending(final long sequence, final ByteBuffer frame) {
+            this.sequence = sequence;
+            this.frame = frame;
+        }
+    }
+}
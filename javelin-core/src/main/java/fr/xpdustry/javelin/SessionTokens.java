@@ -0,0 +1,114 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.nio.charset.*;
+import java.security.*;
+import java.time.*;
+import java.util.*;
+import javax.crypto.*;
+import org.checkerframework.checker.nullness.qual.*;
+
+/**
+ * Issues and verifies the session tokens of a server, so the reconnecting clients skip the verification of their
+ * password. A token is the username with its issue and expiration times, signed with an HMAC keyed with a random secret
+ * generated for each server, so the tokens of a server are invalidated when it restarts.
+ * <br>
+ * The tokens can be revoked before their expiration by the authenticator of the server, see
+ * {@link JavelinAuthenticator#isSessionValid(String, Instant)}.
+ */
+final class SessionTokens {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKey secret;
+    private final Duration duration;
+
+    /**
+     * Creates a new session token issuer.
+     *
+     * @param duration the time a token is valid after being issued, zero or negative to disable the tokens
+     */
+    SessionTokens(final Duration duration) {
+        try {
+            this.secret = KeyGenerator.getInstance(ALGORITHM).generateKey();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("The " + ALGORITHM + " algorithm is not available.", e);
+        }
+        this.duration = duration;
+    }
+
+    boolean isEnabled() {
+        return !duration.isNegative() && !duration.isZero();
+    }
+
+    /**
+     * Issues a new token for the given user.
+     */
+    String issue(final String username) {
+        final var issued = System.currentTimeMillis();
+        final var claims = username + ':' + issued + ':' + (issued + duration.toMillis());
+        final var encoder = Base64.getUrlEncoder().withoutPadding();
+        final var bytes = claims.getBytes(StandardCharsets.UTF_8);
+        return encoder.encodeToString(bytes) + '.' + encoder.encodeToString(sign(bytes));
+    }
+
+    /**
+     * Verifies the token presented by the given user.
+     *
+     * @return the time the token was issued, or {@code null} if the token is invalid, expired or issued to another user
+     */
+    @Nullable Instant verify(final String token, final String username) {
+        final var separator = token.indexOf('.');
+        if (!isEnabled() || separator == -1) {
+            return null;
+        }
+        final byte[] bytes;
+        final byte[] signature;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token.substring(0, separator));
+            signature = Base64.getUrlDecoder().decode(token.substring(separator + 1));
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(signature, sign(bytes))) {
+            return null;
+        }
+        // The claims are trusted from now on, since they are signed by this server
+        final var claims = new String(bytes, StandardCharsets.UTF_8);
+        final var expiresSeparator = claims.lastIndexOf(':');
+        final var issuedSeparator = claims.lastIndexOf(':', expiresSeparator - 1);
+        final var issued = Long.parseLong(claims.substring(issuedSeparator + 1, expiresSeparator));
+        final var expires = Long.parseLong(claims.substring(expiresSeparator + 1));
+        if (!claims.substring(0, issuedSeparator).equals(username) || System.currentTimeMillis() >= expires) {
+            return null;
+        }
+        return Instant.ofEpochMilli(issued);
+    }
+
+    private byte[] sign(final byte[] bytes) {
+        try {
+            final var mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+            return mac.doFinal(bytes);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to initialize the " + ALGORITHM + " algorithm.", e);
+        }
+    }
+}
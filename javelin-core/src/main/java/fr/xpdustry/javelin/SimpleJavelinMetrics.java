@@ -0,0 +1,491 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Metrics keeping the measurements of a socket in memory, without dependencies. The counters are {@link LongAdder}s
+ * and the latencies are recorded in histograms with a relative error of 25%, so recording a measurement never blocks
+ * the threads of the socket.
+ * <br>
+ * The measurements of a connection are kept from its opening until it is closed, the measurements reported for a
+ * connection that is not open are ignored, so the late frames of a closed connection don't keep it in memory. The ones
+ * of an event class are kept.
+ */
+public final class SimpleJavelinMetrics implements JavelinMetrics {
+
+    private final Map<String, EventMetrics> events = new ConcurrentHashMap<>();
+    private final Map<String, ConnectionMetrics> connections = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    SimpleJavelinMetrics() {}
+
+    /**
+     * Returns the measurements of each event class sent or received, by class name.
+     */
+    public Map<String, EventMetrics> getEvents() {
+        return Collections.unmodifiableMap(events);
+    }
+
+    /**
+     * Returns the measurements of each open connection, by connection name.
+     */
+    public Map<String, ConnectionMetrics> getConnections() {
+        return Collections.unmodifiableMap(connections);
+    }
+
+    /**
+     * Returns the current values of the gauges of the sockets, by name, prefixed with the name of their socket, see
+     * {@link JavelinMetrics#registerGauge(String, LongSupplier)}.
+     */
+    public Map<String, Long> getGauges() {
+        final var values = new TreeMap<String, Long>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    @Override
+    public void onEventSent(final String event, final int bytes, final long serializationNanos) {
+        final var metrics = getEventMetrics(event);
+        metrics.sent.increment();
+        metrics.bytesSent.add(bytes);
+        metrics.serializationTime.record(serializationNanos);
+    }
+
+    @Override
+    public void onEventReceived(final String event, final int bytes) {
+        final var metrics = getEventMetrics(event);
+        metrics.received.increment();
+        metrics.bytesReceived.add(bytes);
+    }
+
+    @Override
+    public void onEventSkipped(final String event) {
+        getEventMetrics(event).skipped.increment();
+    }
+
+    @Override
+    public void onEventHandled(final String event, final long queueNanos, final long handlingNanos) {
+        final var metrics = getEventMetrics(event);
+        metrics.queueTime.record(queueNanos);
+        metrics.handlingTime.record(handlingNanos);
+    }
+
+    @Override
+    public void onEventRelayed(final String event, final int receivers) {
+        final var metrics = getEventMetrics(event);
+        metrics.relayed.increment();
+        metrics.receivers.add(receivers);
+    }
+
+    @Override
+    public void onEventRelayed(final String event, final int receivers, final long fanOutNanos) {
+        final var metrics = getEventMetrics(event);
+        metrics.relayed.increment();
+        metrics.receivers.add(receivers);
+        metrics.fanOutTime.record(fanOutNanos);
+    }
+
+    @Override
+    public void onFrameSent(final String connection, final int bytes) {
+        final var metrics = connections.get(connection);
+        if (metrics != null) {
+            metrics.framesSent.increment();
+            metrics.bytesSent.add(bytes);
+            metrics.frameSizesSent.record(bytes);
+        }
+    }
+
+    @Override
+    public void onFrameReceived(final String connection, final int bytes) {
+        final var metrics = connections.get(connection);
+        if (metrics != null) {
+            metrics.framesReceived.increment();
+            metrics.bytesReceived.add(bytes);
+            metrics.frameSizesReceived.record(bytes);
+        }
+    }
+
+    @Override
+    public void onRoundTrip(final String connection, final long nanos) {
+        final var metrics = connections.get(connection);
+        if (metrics != null) {
+            metrics.roundTripTime.record(nanos);
+        }
+    }
+
+    @Override
+    public void onConnectionOpened(final String connection) {
+        connections.computeIfAbsent(connection, key -> new ConnectionMetrics());
+    }
+
+    @Override
+    public void onConnectionClosed(final String connection) {
+        connections.remove(connection);
+    }
+
+    @Override
+    public void registerGauge(final String name, final LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // The lookup is lock-free once the entry exists, unlike computeIfAbsent
+    private EventMetrics getEventMetrics(final String event) {
+        final var metrics = events.get(event);
+        return metrics != null ? metrics : events.computeIfAbsent(event, key -> new EventMetrics());
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleJavelinMetrics{events=" + events + ", connections=" + connections + ", gauges=" + getGauges()
+                + '}';
+    }
+
+    /**
+     * The measurements of an event class.
+     */
+    public static final class EventMetrics {
+
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder received = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder relayed = new LongAdder();
+        private final LongAdder receivers = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LatencyHistogram serializationTime = new LatencyHistogram();
+        private final LatencyHistogram queueTime = new LatencyHistogram();
+        private final LatencyHistogram handlingTime = new LatencyHistogram();
+        private final LatencyHistogram fanOutTime = new LatencyHistogram();
+
+        private EventMetrics() {}
+
+        /**
+         * Returns the number of events sent by the socket.
+         */
+        public long getSent() {
+            return sent.sum();
+        }
+
+        /**
+         * Returns the number of events received with subscribers.
+         */
+        public long getReceived() {
+            return received.sum();
+        }
+
+        /**
+         * Returns the number of events received but skipped, since their class is not available.
+         */
+        public long getSkipped() {
+            return skipped.sum();
+        }
+
+        /**
+         * Returns the number of events relayed by the server.
+         */
+        public long getRelayed() {
+            return relayed.sum();
+        }
+
+        /**
+         * Returns the number of clients the events have been relayed to, in total.
+         */
+        public long getRelayReceivers() {
+            return receivers.sum();
+        }
+
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        /**
+         * Returns the time spent serializing the sent events.
+         */
+        public LatencyHistogram getSerializationTime() {
+            return serializationTime;
+        }
+
+        /**
+         * Returns the time the received events waited for a worker.
+         */
+        public LatencyHistogram getQueueTime() {
+            return queueTime;
+        }
+
+        /**
+         * Returns the time spent deserializing the received events and running their subscribers.
+         */
+        public LatencyHistogram getHandlingTime() {
+            return handlingTime;
+        }
+
+        /**
+         * Returns the time spent by the server handing the relayed events to the connections of their receivers.
+         */
+        public LatencyHistogram getFanOutTime() {
+            return fanOutTime;
+        }
+
+        @Override
+        public String toString() {
+            return "EventMetrics{sent=" + sent + ", received=" + received + ", skipped=" + skipped + ", relayed="
+                    + relayed + ", bytesSent="
+                    + bytesSent + ", bytesReceived=" + bytesReceived + ", serializationTime=" + serializationTime
+                    + ", queueTime=" + queueTime + ", handlingTime=" + handlingTime + ", fanOutTime=" + fanOutTime
+                    + '}';
+        }
+    }
+
+    /**
+     * The measurements of a connection.
+     */
+    public static final class ConnectionMetrics {
+
+        private final LongAdder framesSent = new LongAdder();
+        private final LongAdder framesReceived = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final SizeHistogram frameSizesSent = new SizeHistogram();
+        private final SizeHistogram frameSizesReceived = new SizeHistogram();
+        private final LatencyHistogram roundTripTime = new LatencyHistogram();
+
+        private ConnectionMetrics() {}
+
+        public long getFramesSent() {
+            return framesSent.sum();
+        }
+
+        public long getFramesReceived() {
+            return framesReceived.sum();
+        }
+
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        /**
+         * Returns the sizes of the frames sent, once batched and compressed.
+         */
+        public SizeHistogram getFrameSizesSent() {
+            return frameSizesSent;
+        }
+
+        /**
+         * Returns the sizes of the frames received, before being decompressed.
+         */
+        public SizeHistogram getFrameSizesReceived() {
+            return frameSizesReceived;
+        }
+
+        /**
+         * Returns the time the connection took to answer the pings confirming the frames sent.
+         */
+        public LatencyHistogram getRoundTripTime() {
+            return roundTripTime;
+        }
+
+        @Override
+        public String toString() {
+            return "ConnectionMetrics{framesSent=" + framesSent + ", framesReceived=" + framesReceived + ", bytesSent="
+                    + bytesSent + ", bytesReceived=" + bytesReceived + ", frameSizesSent=" + frameSizesSent
+                    + ", frameSizesReceived=" + frameSizesReceived + ", roundTripTime=" + roundTripTime + '}';
+        }
+    }
+
+    /**
+     * A histogram of durations, with 4 buckets per power of two nanoseconds.
+     */
+    public static final class LatencyHistogram {
+
+        private final Histogram values = new Histogram();
+
+        LatencyHistogram() {}
+
+        void record(final long nanos) {
+            values.record(nanos);
+        }
+
+        public long getCount() {
+            return values.getCount();
+        }
+
+        public Duration getTotal() {
+            return Duration.ofNanos(values.getTotal());
+        }
+
+        public Duration getMean() {
+            return Duration.ofNanos(values.getMean());
+        }
+
+        /**
+         * Returns the duration below which the given fraction of the recorded durations fall, rounded up to the
+         * upper bound of its bucket.
+         *
+         * @param quantile the fraction, between 0 and 1
+         * @throws IllegalArgumentException if the fraction is not between 0 and 1
+         */
+        public Duration getPercentile(final double quantile) {
+            return Duration.ofNanos(values.getPercentile(quantile));
+        }
+
+        @Override
+        public String toString() {
+            return "LatencyHistogram{count=" + getCount() + ", mean=" + getMean() + ", p50=" + getPercentile(0.5D)
+                    + ", p99=" + getPercentile(0.99D) + '}';
+        }
+    }
+
+    /**
+     * A histogram of sizes in bytes, with 4 buckets per power of two bytes.
+     */
+    public static final class SizeHistogram {
+
+        private final Histogram values = new Histogram();
+
+        SizeHistogram() {}
+
+        void record(final long bytes) {
+            values.record(bytes);
+        }
+
+        public long getCount() {
+            return values.getCount();
+        }
+
+        public long getTotal() {
+            return values.getTotal();
+        }
+
+        public long getMean() {
+            return values.getMean();
+        }
+
+        /**
+         * Returns the size below which the given fraction of the recorded sizes fall, rounded up to the upper bound
+         * of its bucket.
+         *
+         * @param quantile the fraction, between 0 and 1
+         * @throws IllegalArgumentException if the fraction is not between 0 and 1
+         */
+        public long getPercentile(final double quantile) {
+            return values.getPercentile(quantile);
+        }
+
+        @Override
+        public String toString() {
+            return "SizeHistogram{count=" + getCount() + ", mean=" + getMean() + ", p50=" + getPercentile(0.5D)
+                    + ", p99=" + getPercentile(0.99D) + '}';
+        }
+    }
+
+    // The buckets of the histograms, recording positive values with a relative error of 25%
+    static final class Histogram {
+
+        // The values below 4 have their own bucket, the others are split by their 3 highest bits
+        private static final int BUCKETS = 248;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder total = new LongAdder();
+
+        private Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(final long value) {
+            final var positive = Math.max(value, 0L);
+            buckets[getBucket(positive)].increment();
+            total.add(positive);
+        }
+
+        private long getCount() {
+            long count = 0L;
+            for (final var bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        private long getTotal() {
+            return total.sum();
+        }
+
+        private long getMean() {
+            final var count = getCount();
+            return count == 0L ? 0L : total.sum() / count;
+        }
+
+        private long getPercentile(final double quantile) {
+            if (quantile < 0D || quantile > 1D) {
+                throw new IllegalArgumentException("The quantile must be between 0 and 1: " + quantile);
+            }
+            final var counts = new long[BUCKETS];
+            long count = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                count += counts[i];
+            }
+            if (count == 0L) {
+                return 0L;
+            }
+            final var rank = Math.max((long) Math.ceil(quantile * count), 1L);
+            long seen = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return getUpperBound(i);
+                }
+            }
+            return getUpperBound(BUCKETS - 1);
+        }
+
+        static int getBucket(final long value) {
+            if (value < 4L) {
+                return (int) value;
+            }
+            final var exponent = 63 - Long.numberOfLeadingZeros(value);
+            return (exponent - 1) * 4 + (int) ((value >>> (exponent - 2)) & 3L);
+        }
+
+        // The largest value of the bucket
+        static long getUpperBound(final int bucket) {
+            if (bucket < 4) {
+                return bucket;
+            }
+            final var shift = bucket / 4 - 1;
+            final var lower = (long) (4 + bucket % 4) << shift;
+            return lower + ((1L << shift) - 1L);
+        }
+    }
+}
@@ -22,9 +22,9 @@ import com.password4j.*;
 import com.password4j.types.*;
 import java.io.*;
 import java.nio.file.*;
+import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.zip.*;
 import org.checkerframework.checker.nullness.qual.*;
 
 /**
@@ -32,43 +32,75 @@ import org.checkerframework.checker.nullness.qual.*;
  */
 final class SimpleUserAuthenticator implements UserAuthenticator {
 
+    // Hashing a password takes a few hundred milliseconds, the cache skips it when the servers reconnect
+    private static final int CACHE_SIZE = 256;
+    private static final Duration CACHE_DURATION = Duration.ofMinutes(15L);
+    private static final int COMPACTION_THRESHOLD = 1024;
+
     final Map<String, HashedPassword> users = new ConcurrentHashMap<>();
     private final BcryptFunction bcrypt = BcryptFunction.getInstance(Bcrypt.B, 12);
-    private final Path path;
+    private final CredentialCache cache;
+    // The last time each user was changed, the session tokens issued before are revoked
+    private final Map<String, Instant> changes = new ConcurrentHashMap<>();
+    private volatile Instant allChanged = Instant.now();
+    private final UserJournal journal;
 
     SimpleUserAuthenticator(final Path path) {
+        this(path, new CredentialCache(CACHE_SIZE, CACHE_DURATION), COMPACTION_THRESHOLD);
+    }
+
+    SimpleUserAuthenticator(final Path path, final CredentialCache cache, final int compactionThreshold) {
         if (!path.getFileName().toString().endsWith("bin.gz")) {
             throw new IllegalArgumentException(
                     "Unsupported file extension: expected file.bin.gz, got " + path.getFileName());
         }
-        this.path = path;
-
-        if (Files.exists(path)) {
-            try (final var input = new DataInputStream(new GZIPInputStream(Files.newInputStream(this.path)))) {
-                final var entries = input.readInt();
-                for (var i = 0; i < entries; i++) {
-                    final var username = input.readUTF();
-                    final var passLen = input.readUnsignedByte();
-                    final var pass = input.readNBytes(passLen);
-                    final var salt = input.readUTF();
-                    users.put(username, new HashedPassword(pass, salt));
-                }
-            } catch (final IOException e) {
-                throw new RuntimeException("Unable to load user authenticator users.", e);
-            }
+        this.cache = cache;
+        try {
+            this.journal = new UserJournal(path, users, compactionThreshold);
+        } catch (final IOException e) {
+            throw new RuntimeException("Unable to load user authenticator users.", e);
         }
     }
 
     @Override
     public boolean authenticate(final String username, final char[] password) {
         final var hashed = users.get(username);
-        return hashed != null && hashed.equals(getHashedPassword(password, hashed.salt));
+        if (hashed == null) {
+            return false;
+        }
+        if (cache.contains(username, password, hashed)) {
+            return true;
+        }
+        if (hashed.equals(getHashedPassword(password, hashed.salt))) {
+            cache.put(username, password, hashed);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isSessionValid(final String username, final Instant issued) {
+        final var changed = changes.get(username);
+        return users.containsKey(username)
+                && issued.isAfter(allChanged)
+                && (changed == null || issued.isAfter(changed));
     }
 
     @Override
     public void saveUser(final String username, final char[] password) {
-        users.put(username, getHashedPassword(password));
-        save();
+        saveUsers(Map.of(username, password));
+    }
+
+    @Override
+    public void saveUsers(final Map<String, char[]> credentials) {
+        final var hashed = new HashMap<String, HashedPassword>();
+        credentials.forEach((username, password) -> hashed.put(username, getHashedPassword(password)));
+        journal.save(hashed);
+        final var now = Instant.now();
+        for (final var username : credentials.keySet()) {
+            changes.put(username, now);
+            cache.invalidate(username);
+        }
     }
 
     @Override
@@ -88,29 +120,24 @@ final class SimpleUserAuthenticator implements UserAuthenticator {
 
     @Override
     public void deleteUser(final String username) {
-        if (users.remove(username) != null) {
-            save();
+        if (users.containsKey(username)) {
+            journal.delete(username);
+            changes.put(username, Instant.now());
+            cache.invalidate(username);
         }
     }
 
     @Override
     public void deleteAllUsers() {
-        users.clear();
-        save();
+        journal.deleteAll();
+        changes.clear();
+        allChanged = Instant.now();
+        cache.invalidateAll();
     }
 
-    private synchronized void save() {
-        try (final var output = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(this.path)))) {
-            output.writeInt(users.size());
-            for (final var entry : users.entrySet()) {
-                output.writeUTF(entry.getKey());
-                output.writeByte(entry.getValue().pass.length);
-                output.write(entry.getValue().pass);
-                output.writeUTF(entry.getValue().salt);
-            }
-        } catch (final IOException e) {
-            throw new RuntimeException("Unable to save user authenticator users.", e);
-        }
+    @Override
+    public void close() throws IOException {
+        journal.close();
     }
 
     private SimpleUserAuthenticator.HashedPassword getHashedPassword(final char[] password, final String salt) {
@@ -123,12 +150,12 @@ final class SimpleUserAuthenticator implements UserAuthenticator {
         return new HashedPassword(hash.getBytes(), hash.getSalt());
     }
 
-    private static final class HashedPassword {
+    static final class HashedPassword {
 
-        private final byte[] pass;
-        private final String salt;
+        final byte[] pass;
+        final String salt;
 
-        private HashedPassword(final byte[] pass, final String salt) {
+        HashedPassword(final byte[] pass, final String salt) {
             this.pass = pass;
             this.salt = salt;
         }
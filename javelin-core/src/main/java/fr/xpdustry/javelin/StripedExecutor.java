@@ -0,0 +1,59 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.concurrent.*;
+
+/**
+ * An ordered executor with a fixed number of platform threads. Each key is assigned to one of the stripes of the
+ * executor, a single threaded executor.
+ */
+final class StripedExecutor implements OrderedExecutor {
+
+    private final ExecutorService[] stripes;
+
+    StripedExecutor(final int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("The number of stripes must be positive: " + stripes);
+        }
+        this.stripes = new ExecutorService[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = Executors.newSingleThreadExecutor();
+        }
+    }
+
+    @Override
+    public void execute(final Object key, final Runnable task) {
+        final var hash = key.hashCode();
+        // Spreads the higher bits, the hash codes of some keys only differ by them
+        stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)].execute(task);
+    }
+
+    @Override
+    public void shutdown() {
+        for (final var stripe : stripes) {
+            stripe.shutdown();
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return stripes[0].isShutdown();
+    }
+}
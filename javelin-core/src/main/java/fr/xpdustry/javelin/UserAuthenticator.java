@@ -18,10 +18,11 @@
  */
 package fr.xpdustry.javelin;
 
+import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 
-public interface UserAuthenticator extends JavelinAuthenticator {
+public interface UserAuthenticator extends JavelinAuthenticator, Closeable {
 
     /**
      * Creates a new standard {@code UserAuthenticator} instance.
@@ -39,15 +40,39 @@ public interface UserAuthenticator extends JavelinAuthenticator {
         return new SimpleUserAuthenticator(path);
     }
 
+    /**
+     * Saves the user with the given password, replacing the previous one and revoking its session tokens.
+     */
     void saveUser(final String username, final char[] password);
 
+    /**
+     * Saves the users with their password at once, replacing the previous ones and revoking their session tokens.
+     * Faster than saving the users one by one.
+     */
+    default void saveUsers(final Map<String, char[]> users) {
+        users.forEach(this::saveUser);
+    }
+
     boolean existsUser(final String username);
 
     long countUsers();
 
     List<String> findAllUsers();
 
+    /**
+     * Deletes the user, and revokes its session tokens.
+     */
     void deleteUser(final String username);
 
+    /**
+     * Deletes all the users, and revokes their session tokens.
+     */
     void deleteAllUsers();
+
+    /**
+     * Releases the storage of the users, once the sockets using this authenticator are closed. The changes fail
+     * afterward.
+     */
+    @Override
+    default void close() throws IOException {}
 }
@@ -0,0 +1,313 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import fr.xpdustry.javelin.SimpleUserAuthenticator.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import org.slf4j.*;
+
+/**
+ * The storage of the users of {@link SimpleUserAuthenticator}: a gzip snapshot of the users, and an append-only journal
+ * of the changes made since the snapshot, so a change only appends a record instead of rewriting every user.
+ * <br>
+ * The concurrent changes share the same fsync of the journal. Once the journal has more records than the threshold, a
+ * background thread writes a new snapshot and drops the records it contains from the journal. Replaying a record twice
+ * gives the same result, so a crash during the compaction can't lose or corrupt the users.
+ */
+final class UserJournal implements Closeable {
+
+    private static final byte SAVE_RECORD = 0;
+    private static final byte DELETE_RECORD = 1;
+    private static final byte DELETE_ALL_RECORD = 2;
+    private static final Logger logger = LoggerFactory.getLogger(UserJournal.class);
+
+    private final Path snapshot;
+    private final Path journal;
+    private final Map<String, HashedPassword> users;
+    private final int compactionThreshold;
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        final var thread = new Thread(runnable, "javelin-user-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Only accessed while holding the write lock
+    private FileChannel channel;
+    private long appended = 0L;
+    private int records = 0;
+    private boolean compacting = false;
+    private boolean closed = false;
+    // Only accessed while holding the sync lock
+    private long synced = 0L;
+
+    /**
+     * Loads the users from the snapshot and the journal.
+     *
+     * @param snapshot            the path of the snapshot, the journal is stored next to it
+     * @param users               the map receiving the users, changed by this journal afterward
+     * @param compactionThreshold the number of records in the journal triggering a compaction
+     */
+    UserJournal(final Path snapshot, final Map<String, HashedPassword> users, final int compactionThreshold)
+            throws IOException {
+        this.snapshot = snapshot;
+        this.journal = snapshot.resolveSibling(snapshot.getFileName() + ".journal");
+        this.users = users;
+        this.compactionThreshold = compactionThreshold;
+        if (Files.exists(snapshot)) {
+            readSnapshot();
+        }
+        final var valid = Files.exists(journal) ? replay(Files.readAllBytes(journal)) : 0;
+        this.channel =
+                FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.truncate(valid);
+        channel.position(valid);
+    }
+
+    void save(final Map<String, HashedPassword> saved) {
+        final var output = new ByteArrayOutputStream();
+        try (final var data = new DataOutputStream(output)) {
+            for (final var entry : saved.entrySet()) {
+                data.writeByte(SAVE_RECORD);
+                writeUser(data, entry.getKey(), entry.getValue());
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(output.toByteArray(), saved.size(), () -> users.putAll(saved));
+    }
+
+    void delete(final String username) {
+        final var output = new ByteArrayOutputStream();
+        try (final var data = new DataOutputStream(output)) {
+            data.writeByte(DELETE_RECORD);
+            data.writeUTF(username);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(output.toByteArray(), 1, () -> users.remove(username));
+    }
+
+    void deleteAll() {
+        append(new byte[] {DELETE_ALL_RECORD}, 1, users::clear);
+    }
+
+    // The change is applied while holding the write lock, so the journal has the same order as the changes. It's only
+    // applied once its record is written, so a failed write doesn't leave a change in memory that the disk lacks.
+    private void append(final byte[] bytes, final int count, final Runnable change) {
+        final long position;
+        try {
+            synchronized (writeLock) {
+                if (closed) {
+                    throw new IllegalStateException("The user journal is closed.");
+                }
+                final var start = channel.position();
+                try {
+                    final var buffer = ByteBuffer.wrap(bytes);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (final IOException e) {
+                    // Drops the partial record, the records appended after it would not be replayed otherwise
+                    channel.truncate(start);
+                    throw e;
+                }
+                change.run();
+                position = ++appended;
+                records += count;
+                if (!compacting && records > Math.max(compactionThreshold, users.size())) {
+                    compacting = true;
+                    compactor.execute(this::compact);
+                }
+            }
+            sync(position);
+        } catch (final IOException e) {
+            throw new RuntimeException("Unable to save user authenticator users.", e);
+        }
+    }
+
+    // Forces the appended records to the disk, the waiting writers share the fsync of the first one
+    private void sync(final long position) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            final FileChannel current;
+            final long target;
+            synchronized (writeLock) {
+                current = channel;
+                target = appended;
+            }
+            try {
+                current.force(false);
+            } catch (final ClosedChannelException ignored) {
+                // Replaced by a compaction, which forced the records to the disk
+            }
+            synced = target;
+        }
+    }
+
+    /**
+     * Waits for the running compaction, then forces the journal to the disk and closes it. The changes fail afterward.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        compactor.shutdown();
+        try {
+            while (!compactor.awaitTermination(1L, TimeUnit.MINUTES)) {
+                logger.warn("Still waiting for the compaction of the user journal.");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the compaction of the user journal.");
+        } finally {
+            synchronized (writeLock) {
+                try {
+                    channel.force(false);
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    private void compact() {
+        try {
+            final Map<String, HashedPassword> copy;
+            final long offset;
+            final int copied;
+            synchronized (writeLock) {
+                copy = new HashMap<>(users);
+                offset = channel.position();
+                copied = records;
+            }
+
+            final var temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+            try (final var output = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(temporary)))) {
+                output.writeInt(copy.size());
+                for (final var entry : copy.entrySet()) {
+                    writeUser(output, entry.getKey(), entry.getValue());
+                }
+            }
+            force(temporary);
+            Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            synchronized (writeLock) {
+                // Keeps the records appended while the snapshot was written
+                final var tail = ByteBuffer.allocate(Math.toIntExact(channel.position() - offset));
+                while (tail.hasRemaining()) {
+                    channel.read(tail, offset + tail.position());
+                }
+                final var next = journal.resolveSibling(journal.getFileName() + ".tmp");
+                try (final var output = FileChannel.open(
+                        next,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    tail.flip();
+                    while (tail.hasRemaining()) {
+                        output.write(tail);
+                    }
+                    output.force(false);
+                }
+                Files.move(next, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel.close();
+                channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channel.position(channel.size());
+                records -= copied;
+                compacting = false;
+            }
+        } catch (final IOException e) {
+            logger.error("Failed to compact the user journal.", e);
+            synchronized (writeLock) {
+                compacting = false;
+            }
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        try (final var input =
+                new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(snapshot))))) {
+            final var entries = input.readInt();
+            for (var i = 0; i < entries; i++) {
+                final var username = input.readUTF();
+                users.put(username, readPassword(input));
+            }
+        }
+    }
+
+    // Replays the records of the journal, returns the length of the complete ones since the last one may be partial
+    private int replay(final byte[] bytes) throws IOException {
+        final var input = new DataInputStream(new ByteArrayInputStream(bytes));
+        var valid = 0;
+        try {
+            while (input.available() > 0) {
+                switch (input.readByte()) {
+                    case SAVE_RECORD -> {
+                        final var username = input.readUTF();
+                        users.put(username, readPassword(input));
+                    }
+                    case DELETE_RECORD -> users.remove(input.readUTF());
+                    case DELETE_ALL_RECORD -> users.clear();
+                    default -> throw new EOFException("Unknown record type");
+                }
+                valid = bytes.length - input.available();
+                records++;
+            }
+        } catch (final EOFException e) {
+            logger.warn("The user journal ends with an incomplete record, dropping it.");
+        }
+        return valid;
+    }
+
+    private static void writeUser(final DataOutputStream output, final String username, final HashedPassword password)
+            throws IOException {
+        output.writeUTF(username);
+        output.writeByte(password.pass.length);
+        output.write(password.pass);
+        output.writeUTF(password.salt);
+    }
+
+    private static HashedPassword readPassword(final DataInputStream input) throws IOException {
+        final var passLen = input.readUnsignedByte();
+        final var pass = input.readNBytes(passLen);
+        if (pass.length != passLen) {
+            throw new EOFException();
+        }
+        return new HashedPassword(pass, input.readUTF());
+    }
+
+    private static void force(final Path path) throws IOException {
+        try (final var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+}
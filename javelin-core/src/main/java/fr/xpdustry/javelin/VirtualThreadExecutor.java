@@ -0,0 +1,111 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.checkerframework.checker.nullness.qual.*;
+
+/**
+ * An ordered executor running the tasks in virtual threads, so blocking tasks don't hold a platform thread. The tasks
+ * of a key are run one at a time by the same virtual thread, which exits once there is no task left for the key.
+ * <br>
+ * Virtual threads are available since Java 21 while Javelin supports Java 17, so they are created by reflection.
+ */
+final class VirtualThreadExecutor implements OrderedExecutor {
+
+    private final ExecutorService executor;
+    // The pending tasks of the keys with a running virtual thread
+    private final Map<Object, Queue<Runnable>> queues = new HashMap<>();
+
+    // Package-private for the tests, which can't rely on virtual threads
+    VirtualThreadExecutor(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Creates a new virtual thread executor, or returns {@code null} if the runtime does not support virtual threads.
+     */
+    static @Nullable VirtualThreadExecutor create() {
+        try {
+            final var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return new VirtualThreadExecutor((ExecutorService) factory.invoke(null));
+        } catch (final NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        } catch (final InvocationTargetException e) {
+            // Virtual threads are a preview feature in Java 19 and 20
+            if (e.getCause() instanceof UnsupportedOperationException) {
+                return null;
+            }
+            throw new IllegalStateException("Failed to create the virtual thread executor.", e.getCause());
+        }
+    }
+
+    @Override
+    public void execute(final Object key, final Runnable task) {
+        synchronized (queues) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("The executor has been shut down.");
+            }
+            final var queue = queues.get(key);
+            if (queue != null) {
+                queue.add(task);
+                return;
+            }
+            queues.put(key, new ArrayDeque<>());
+            // Started under the lock, so no task is queued for the key if the thread can't be started
+            try {
+                executor.execute(() -> run(key, task));
+            } catch (final RejectedExecutionException e) {
+                queues.remove(key);
+                throw e;
+            }
+        }
+    }
+
+    private void run(final Object key, final Runnable first) {
+        @Nullable Runnable task = first;
+        while (task != null) {
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                // Like a platform thread dying, without dropping the pending tasks of the key
+                final var thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+            synchronized (queues) {
+                task = Objects.requireNonNull(queues.get(key)).poll();
+                if (task == null) {
+                    queues.remove(key);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import org.checkerframework.checker.nullness.qual.*;
+import org.java_websocket.*;
+import org.java_websocket.exceptions.*;
+import org.java_websocket.framing.*;
+
+/**
+ * Sends the frames to a connection and tracks which ones have been written. Java-WebSocket doesn't notify when a frame
+ * is written, so while frames are awaited, the tracker pings the connection with the position of the last frame sent,
+ * and the pong of the connection confirms that the frames up to it have been received. A single ping is in flight,
+ * the next one being sent once its pong is received if frames are still awaited, so the confirmations cost one control
+ * frame per round trip while events are pending, and none otherwise.
+ * <br>
+ * The pongs are passed to {@link #onPong(WebSocket, Framedata)} and the closing of the connection to {@link #close()},
+ * by the thread reading the connection. Tracking the frames doesn't allocate anything once the arrays of the waiters
+ * are large enough, the payload of the pings being reused.
+ */
+final class WriteTracker {
+
+    private static final Listener NOOP = written -> {};
+
+    private final WebSocket connection;
+    private final int slot;
+    private final String name;
+    private final JavelinMetrics metrics;
+    private final AtomicLong sent = new AtomicLong();
+    // Guarded by itself, the ping sent with the position of the last frame, copied by Java-WebSocket when sent
+    private final PingFrame ping = new PingFrame();
+    private final ByteBuffer pingPayload = ByteBuffer.allocate(Long.BYTES);
+    // Guarded by this, the listeners waiting for a position to be written, sorted by position between head and tail
+    private long[] positions = new long[16];
+    private @Nullable Listener[] listeners = new Listener[16];
+    private int head = 0;
+    private int tail = 0;
+    private long pinged = 0L;
+    private long pingNanos = 0L;
+    private long written = 0L;
+    private boolean closed = false;
+
+    /**
+     * Creates a new write tracker.
+     *
+     * @param connection the connection
+     * @param slot       the index of the connection among the open ones of its socket, see {@link #getSlot()}
+     * @param name       the name of the connection, see {@link JavelinMetrics#onFrameSent(String, int)}
+     * @param metrics    the metrics receiving the size of the frames sent and the round trip time of the pings
+     */
+    WriteTracker(final WebSocket connection, final int slot, final String name, final JavelinMetrics metrics) {
+        this.connection = connection;
+        this.slot = slot;
+        this.name = name;
+        this.metrics = metrics;
+    }
+
+    void send(final ByteBuffer frame) {
+        final var bytes = frame.remaining();
+        connection.send(frame);
+        sent.incrementAndGet();
+        metrics.onFrameSent(name, bytes);
+        // The frames awaited in a batch are only sent now
+        ping(false);
+    }
+
+    /**
+     * Returns the number of frames sent to the connection, the position of the last one.
+     */
+    long getPosition() {
+        return sent.get();
+    }
+
+    /**
+     * Returns the index of the connection among the open connections of its socket, always 0 on clients. It is reused
+     * once the connection is closed, so the deliveries index the positions of their frames by it.
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Notifies the listener once the frame at the given position has been written, with {@code true}, or once the
+     * connection is closed before, with {@code false}. The listener is called by the thread reading the connection, or
+     * by the calling thread if the outcome is already known, so it must not block.
+     */
+    void whenWritten(final long position, final Listener listener) {
+        final int outcome;
+        synchronized (this) {
+            if (position <= written) {
+                outcome = 1;
+            } else if (closed) {
+                outcome = 0;
+            } else {
+                add(position, listener);
+                outcome = -1;
+            }
+        }
+        if (outcome != -1) {
+            listener.onWritten(outcome == 1);
+        } else {
+            ping(false);
+        }
+    }
+
+    /**
+     * Waits until the frame at the given position has been written, or the connection closed.
+     */
+    void awaitWritten(final long position) {
+        whenWritten(position, NOOP);
+        synchronized (this) {
+            while (position > written && !closed) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    // The socket is closing
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pings the connection for the frames sent since the last ping, even if a ping is in flight, so the last frames
+     * are confirmed before the connection is closed.
+     */
+    void flush() {
+        ping(true);
+    }
+
+    /**
+     * Confirms the frames up to the position of the pong, if it answers a ping of this tracker.
+     */
+    void onPong(final WebSocket connection, final Framedata frame) {
+        final var payload = frame.getPayloadData();
+        // The pings of the connection lost timer have no payload
+        if (connection != this.connection || payload.remaining() != Long.BYTES) {
+            return;
+        }
+        final var position = payload.getLong(payload.position());
+        synchronized (this) {
+            if (position <= written || position > pinged) {
+                return;
+            }
+            if (position == pinged) {
+                metrics.onRoundTrip(name, System.nanoTime() - pingNanos);
+            }
+            written = position;
+            notifyAll();
+        }
+        notifyListeners(true);
+        ping(false);
+    }
+
+    /**
+     * Notifies the waiting listeners that their frames will not be written, called once the connection is closed.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        notifyListeners(false);
+    }
+
+    boolean isOpen() {
+        return connection.isOpen();
+    }
+
+    private void ping(final boolean force) {
+        final long position;
+        synchronized (this) {
+            position = sent.get();
+            final var inFlight = pinged > written;
+            if (closed || position <= pinged || !force && (inFlight || head == tail)) {
+                return;
+            }
+            pinged = position;
+            pingNanos = System.nanoTime();
+        }
+        synchronized (ping) {
+            pingPayload.clear().putLong(position).flip();
+            ping.setPayload(pingPayload);
+            try {
+                connection.sendFrame(ping);
+            } catch (final WebsocketNotConnectedException ignored) {
+                // The waiters are notified once the connection is closed
+            }
+        }
+    }
+
+    // Notifies the listeners of the written positions, or all of them once closed, one at a time outside the lock
+    private void notifyListeners(final boolean written) {
+        while (true) {
+            final Listener listener;
+            synchronized (this) {
+                if (head == tail || written && positions[head] > this.written) {
+                    return;
+                }
+                listener = Objects.requireNonNull(listeners[head]);
+                listeners[head++] = null;
+                if (head == tail) {
+                    head = 0;
+                    tail = 0;
+                }
+            }
+            listener.onWritten(written);
+        }
+    }
+
+    // Called while holding the lock. The positions are mostly added in order, so the insertion rarely moves any.
+    private void add(final long position, final Listener listener) {
+        if (tail == positions.length) {
+            if (head > 0) {
+                final var count = tail - head;
+                System.arraycopy(positions, head, positions, 0, count);
+                System.arraycopy(listeners, head, listeners, 0, count);
+                Arrays.fill(listeners, count, tail, null);
+                head = 0;
+                tail = count;
+            } else {
+                positions = Arrays.copyOf(positions, positions.length * 2);
+                listeners = Arrays.copyOf(listeners, listeners.length * 2);
+            }
+        }
+        var index = tail++;
+        while (index > head && positions[index - 1] > position) {
+            positions[index] = positions[index - 1];
+            listeners[index] = listeners[index - 1];
+            index--;
+        }
+        positions[index] = position;
+        listeners[index] = listener;
+    }
+
+    /**
+     * Notified once the frame at a position has been written, see {@link #whenWritten(long, Listener)}.
+     */
+    interface Listener {
+
+        void onWritten(final boolean written);
+    }
+}
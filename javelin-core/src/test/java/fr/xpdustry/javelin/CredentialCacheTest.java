@@ -0,0 +1,69 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.*;
+import org.junit.jupiter.api.*;
+
+public final class CredentialCacheTest {
+
+    private static final Object STORED = new Object();
+
+    @Test
+    void test_contains() {
+        final var cache = new CredentialCache(16, Duration.ofMinutes(1L));
+        assertThat(cache.contains("user", "pass".toCharArray(), STORED)).isFalse();
+        cache.put("user", "pass".toCharArray(), STORED);
+        assertThat(cache.contains("user", "pass".toCharArray(), STORED)).isTrue();
+        assertThat(cache.contains("user", "other".toCharArray(), STORED)).isFalse();
+        assertThat(cache.contains("other", "pass".toCharArray(), STORED)).isFalse();
+    }
+
+    @Test
+    void test_invalidated() {
+        final var cache = new CredentialCache(16, Duration.ofMinutes(1L));
+        cache.put("user", "pass".toCharArray(), STORED);
+        // The stored password changed since the verification
+        assertThat(cache.contains("user", "pass".toCharArray(), new Object())).isFalse();
+        assertThat(cache.contains("user", "pass".toCharArray(), STORED)).isFalse();
+
+        cache.put("user", "pass".toCharArray(), STORED);
+        cache.invalidate("user");
+        assertThat(cache.contains("user", "pass".toCharArray(), STORED)).isFalse();
+    }
+
+    @Test
+    void test_bounded() {
+        final var expiring = new CredentialCache(16, Duration.ZERO);
+        expiring.put("user", "pass".toCharArray(), STORED);
+        assertThat(expiring.contains("user", "pass".toCharArray(), STORED)).isFalse();
+
+        final var cache = new CredentialCache(2, Duration.ofMinutes(1L));
+        cache.put("user1", "pass".toCharArray(), STORED);
+        cache.put("user2", "pass".toCharArray(), STORED);
+        assertThat(cache.contains("user1", "pass".toCharArray(), STORED)).isTrue();
+        // Evicts the least recently used user
+        cache.put("user3", "pass".toCharArray(), STORED);
+        assertThat(cache.contains("user2", "pass".toCharArray(), STORED)).isFalse();
+        assertThat(cache.contains("user1", "pass".toCharArray(), STORED)).isTrue();
+        assertThat(cache.contains("user3", "pass".toCharArray(), STORED)).isTrue();
+    }
+}
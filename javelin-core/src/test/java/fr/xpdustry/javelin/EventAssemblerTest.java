@@ -0,0 +1,157 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+
+public final class EventAssemblerTest {
+
+    private static final String[] NAMES = {TestEvent.class.getName(), JavelinEvent.class.getName()};
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5L);
+
+    private final EventSerializer serializer = new EventSerializer();
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private final List<JavelinEvent> received = new CopyOnWriteArrayList<>();
+    private final List<ByteBuffer> receivedRaw = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setup() {
+        // Keeps the transfers waiting before they read their chunks
+        serializer.registerCodec(TestEvent.class, new EventCodec<>() {
+            @Override
+            public void encode(final TestEvent event, final Writer writer) {
+                writer.writeString(event.getPayload());
+            }
+
+            @Override
+            public TestEvent decode(final Reader reader) {
+                try {
+                    unblock.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new TestEvent(String.valueOf(reader.readString()));
+            }
+        });
+    }
+
+    @AfterEach
+    void cleanup() {
+        unblock.countDown();
+    }
+
+    @Test
+    void test_concurrent_transfers_bounded() {
+        final var assembler = createAssembler(true, false, Internal.TRANSFER_IDLE_TIMEOUT_NANOS);
+        for (int i = 0; i <= Internal.MAX_CONCURRENT_TRANSFERS; i++) {
+            assembler.accept(i, Internal.CHUNK_FIRST, NAMES, chunk());
+        }
+        assertThat(assembler.countTransfers()).isEqualTo(Internal.MAX_CONCURRENT_TRANSFERS);
+        assembler.abort();
+        assertThat(assembler.countTransfers()).isZero();
+    }
+
+    @Test
+    void test_full_transfer_aborted() {
+        final var assembler = createAssembler(true, false, Internal.TRANSFER_IDLE_TIMEOUT_NANOS);
+        // The chunks are never waited for, the transfer is aborted instead
+        Assertions.assertTimeoutPreemptively(DEFAULT_TIMEOUT, () -> {
+            assembler.accept(0, Internal.CHUNK_FIRST, NAMES, chunk());
+            for (int i = 0; i <= Internal.MAX_QUEUED_CHUNKS; i++) {
+                assembler.accept(0, (byte) 0, null, chunk());
+            }
+        });
+        assertThat(assembler.countTransfers()).isZero();
+        unblock.countDown();
+        assembler.accept(0, Internal.CHUNK_LAST, null, chunk());
+        assertThat(received).isEmpty();
+    }
+
+    @Test
+    void test_idle_transfer_aborted() throws InterruptedException {
+        final var assembler = createAssembler(true, false, TimeUnit.MILLISECONDS.toNanos(50L));
+        assembler.accept(0, Internal.CHUNK_FIRST, NAMES, chunk());
+        assertThat(assembler.countTransfers()).isEqualTo(1);
+        unblock.countDown();
+        final var deadline = System.nanoTime() + DEFAULT_TIMEOUT.toNanos();
+        while (assembler.countTransfers() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(assembler.countTransfers()).isZero();
+        assertThat(received).isEmpty();
+    }
+
+    @Test
+    void test_raw_transfers_bounded() throws InterruptedException {
+        final var assembler = createAssembler(false, true, TimeUnit.MILLISECONDS.toNanos(50L));
+        for (int i = 0; i <= Internal.MAX_CONCURRENT_TRANSFERS; i++) {
+            assembler.accept(i, Internal.CHUNK_FIRST, NAMES, chunk());
+        }
+        assertThat(assembler.countTransfers()).isEqualTo(Internal.MAX_CONCURRENT_TRANSFERS);
+        // The idle raw transfers are evicted when a new one starts
+        Thread.sleep(100L);
+        assembler.accept(Internal.MAX_CONCURRENT_TRANSFERS + 1, Internal.CHUNK_FIRST, NAMES, chunk());
+        assertThat(assembler.countTransfers()).isEqualTo(1);
+    }
+
+    @Test
+    void test_large_raw_transfer_aborted() {
+        final var assembler = createAssembler(false, true, Internal.TRANSFER_IDLE_TIMEOUT_NANOS);
+        final var chunk = ByteBuffer.allocate(Internal.MAX_CHUNK_SIZE);
+        assembler.accept(0, Internal.CHUNK_FIRST, NAMES, chunk);
+        for (int i = 1; i < Internal.MAX_RAW_TRANSFER_SIZE / Internal.MAX_CHUNK_SIZE; i++) {
+            assembler.accept(0, (byte) 0, null, chunk);
+        }
+        assertThat(assembler.countTransfers()).isEqualTo(1);
+        // One byte past the maximum size
+        assembler.accept(0, (byte) 0, null, ByteBuffer.allocate(1));
+        assertThat(assembler.countTransfers()).isZero();
+        assembler.accept(0, Internal.CHUNK_LAST, null, chunk());
+        assertThat(receivedRaw).isEmpty();
+    }
+
+    @Test
+    void test_raw_transfer_received() {
+        final var assembler = createAssembler(false, true, Internal.TRANSFER_IDLE_TIMEOUT_NANOS);
+        assembler.accept(0, Internal.CHUNK_FIRST, NAMES, chunk());
+        assembler.accept(0, Internal.CHUNK_LAST, null, chunk());
+        assertThat(assembler.countTransfers()).isZero();
+        assertThat(receivedRaw).containsExactly(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 1, 2, 3, 4}));
+    }
+
+    private EventAssembler createAssembler(final boolean typed, final boolean raw, final long idleTimeoutNanos) {
+        return new EventAssembler(
+                serializer,
+                typed ? clazz -> true : null,
+                (event, size) -> received.add(event),
+                names -> raw,
+                (names, payload) -> receivedRaw.add(payload),
+                idleTimeoutNanos);
+    }
+
+    private static ByteBuffer chunk() {
+        return ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+    }
+}
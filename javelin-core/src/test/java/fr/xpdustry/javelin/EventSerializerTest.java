@@ -0,0 +1,161 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.esotericsoftware.kryo.kryo5.*;
+import com.esotericsoftware.kryo.kryo5.io.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+public final class EventSerializerTest {
+
+    private static final String[] MISSING_EVENT = {"fr.xpdustry.javelin.MissingEvent"};
+
+    private final EventSerializer serializer = new EventSerializer();
+
+    @Test
+    void test_find_event_class() {
+        assertThat(serializer.findEventClass(new String[] {TestEvent.class.getName()}))
+                .isEqualTo(TestEvent.class);
+        assertThat(serializer.countUnknownClasses()).isZero();
+    }
+
+    @Test
+    void test_unknown_class_remembered() {
+        assertThat(serializer.findEventClass(MISSING_EVENT)).isNull();
+        assertThat(serializer.findEventClass(MISSING_EVENT)).isNull();
+        // Not an event class
+        assertThat(serializer.findEventClass(new String[] {String.class.getName()}))
+                .isNull();
+        assertThat(serializer.countUnknownClasses()).isEqualTo(2);
+    }
+
+    @Test
+    void test_unknown_classes_bounded() {
+        for (int i = 0; i < Internal.MAX_UNKNOWN_CLASSES * 2; i++) {
+            assertThat(serializer.findEventClass(new String[] {"fr.xpdustry.javelin.MissingEvent" + i}))
+                    .isNull();
+        }
+        assertThat(serializer.countUnknownClasses()).isEqualTo(Internal.MAX_UNKNOWN_CLASSES);
+    }
+
+    @Test
+    void test_read_definition() {
+        final var definitions = new HashMap<Integer, String[]>();
+        final var names = new String[] {TestEvent.class.getName(), JavelinEvent.class.getName()};
+        assertThat(serializer.readDefinition(definitionFrame(1, names), definitions))
+                .isTrue();
+        assertThat(definitions).containsOnlyKeys(1);
+        assertThat(definitions.get(1)).containsExactly(names);
+    }
+
+    @Test
+    void test_read_definition_rejects_invalid_frames() {
+        final var definitions = new HashMap<Integer, String[]>();
+        final var names = new String[] {TestEvent.class.getName()};
+        assertThat(serializer.readDefinition(definitionFrame(Internal.MAX_CLASS_IDS, names), definitions))
+                .isFalse();
+        assertThat(serializer.readDefinition(definitionFrame(-1, names), definitions))
+                .isFalse();
+        // A name count larger than the frame
+        final var frame = ByteBuffer.wrap(new byte[] {Internal.DEFINE_FRAME, 1, (byte) 0xFF, (byte) 0xFF, 0x7F});
+        assertThat(serializer.readDefinition(frame, definitions)).isFalse();
+        assertThat(definitions).isEmpty();
+    }
+
+    @Test
+    void test_read_chunk_flags() {
+        final var frame = chunkFrame();
+        final var limit = frame.limit();
+        assertThat(serializer.readChunkFlags(frame)).isEqualTo(Internal.CHUNK_LAST);
+        assertThat(frame.limit()).isEqualTo(limit);
+        assertThat(frame.remaining()).isEqualTo(3);
+    }
+
+    @Test
+    void test_read_chunk_flags_rejects_invalid_frames() {
+        // A data length larger than the frame
+        final var frame = chunkFrame();
+        frame.limit(frame.limit() - 1);
+        assertThat(serializer.readChunkFlags(frame)).isEqualTo(EventSerializer.INVALID_CHUNK_FLAGS);
+        assertThat(frame.position()).isZero();
+        final var truncated = ByteBuffer.wrap(new byte[] {Internal.CHUNK_FRAME, 1});
+        assertThat(serializer.readTransferId(truncated)).isEqualTo(-1);
+        assertThat(serializer.readChunkFlags(truncated)).isEqualTo(EventSerializer.INVALID_CHUNK_FLAGS);
+    }
+
+    @Test
+    void test_generated_codec_rejects_invalid_fields() {
+        // An ordinal past the constants of the enum
+        final var ordinal = generatedEventPayload(3, 1);
+        assertThatThrownBy(() -> serializer.deserialize(TestGeneratedEvent.class, new ByteArrayInputStream(ordinal)))
+                .isInstanceOf(KryoException.class)
+                .hasCauseInstanceOf(IllegalArgumentException.class);
+        // A byte array longer than the payload, not allocated beforehand
+        final var length = generatedEventPayload(1, Integer.MAX_VALUE);
+        assertThatThrownBy(() -> serializer.deserialize(TestGeneratedEvent.class, new ByteArrayInputStream(length)))
+                .isInstanceOf(KryoException.class);
+        // A negative byte array length
+        final var negative = generatedEventPayload(1, -1);
+        assertThatThrownBy(() -> serializer.deserialize(TestGeneratedEvent.class, new ByteArrayInputStream(negative)))
+                .isInstanceOf(KryoException.class)
+                .hasCauseInstanceOf(IllegalArgumentException.class);
+    }
+
+    // The fields of a TestGeneratedEvent as written by its generated codec, up to the length of its byte array
+    private static byte[] generatedEventPayload(final int ordinal, final int length) {
+        final var output = new Output(Internal.MAX_EVENT_SIZE);
+        output.writeVarInt(0, true);
+        output.writeVarLong(0L, true);
+        output.writeShort('a');
+        output.writeString("name");
+        output.writeVarInt(ordinal, true);
+        output.writeBoolean(false);
+        output.writeVarInt(length, true);
+        output.writeBytes(new byte[] {1, 2, 3});
+        return output.toBytes();
+    }
+
+    // A last chunk frame with 3 bytes of data
+    private static ByteBuffer chunkFrame() {
+        final var output = new ByteBufferOutput(Internal.MAX_EVENT_SIZE);
+        output.writeByte(Internal.CHUNK_FRAME);
+        output.writeVarInt(1, true);
+        output.writeByte(Internal.CHUNK_LAST);
+        output.writeShort(3);
+        output.writeBytes(new byte[] {1, 2, 3});
+        return output.getByteBuffer().flip();
+    }
+
+    private static ByteBuffer definitionFrame(final int classId, final String[] names) {
+        final var output = new ByteBufferOutput(Internal.MAX_EVENT_SIZE);
+        output.writeByte(Internal.DEFINE_FRAME);
+        output.writeVarInt(classId, true);
+        output.writeVarInt(names.length, true);
+        for (final var name : names) {
+            output.writeString(name);
+        }
+        return output.getByteBuffer().flip();
+    }
+}
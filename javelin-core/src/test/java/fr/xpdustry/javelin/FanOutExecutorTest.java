@@ -0,0 +1,84 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+import org.junit.jupiter.api.*;
+
+public final class FanOutExecutorTest {
+
+    private static final ByteBuffer FRAME = ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+
+    private final Map<Integer, Thread> written = new ConcurrentHashMap<>();
+
+    @Test
+    void test_parallel_write() {
+        final var executor = new FanOutExecutor(3);
+        final var receivers =
+                IntStream.range(0, FanOutExecutor.MIN_SHARD_SIZE * 8).boxed().toList();
+        executor.execute(receivers, 1, FRAME, this::write);
+        assertThat(written).containsOnlyKeys(receivers);
+        // The calling thread writes a shard along with the 3 workers
+        assertThat(new HashSet<>(written.values())).hasSize(4).contains(Thread.currentThread());
+        executor.shutdown();
+    }
+
+    @Test
+    void test_few_receivers_written_by_caller() {
+        final var executor = new FanOutExecutor(3);
+        final var receivers =
+                IntStream.range(0, FanOutExecutor.MIN_SHARD_SIZE).boxed().toList();
+        executor.execute(receivers, 1, FRAME, this::write);
+        assertThat(written).containsOnlyKeys(receivers);
+        assertThat(new HashSet<>(written.values())).containsExactly(Thread.currentThread());
+        executor.shutdown();
+    }
+
+    @Test
+    void test_write_failure() {
+        final var executor = new FanOutExecutor(1);
+        final var receivers =
+                IntStream.range(0, FanOutExecutor.MIN_SHARD_SIZE * 2).boxed().toList();
+        assertThatThrownBy(() -> executor.execute(receivers, 1, FRAME, (receiver, classId, frame) -> {
+                    write(receiver, classId, frame);
+                    if (receiver == receivers.size() - 1) {
+                        throw new IllegalStateException();
+                    }
+                }))
+                .isInstanceOf(IllegalStateException.class);
+        // The other shard is still written
+        assertThat(written).containsOnlyKeys(receivers);
+        executor.shutdown();
+    }
+
+    private void write(final Integer receiver, final int classId, final ByteBuffer frame) {
+        assertThat(classId).isEqualTo(1);
+        // Each shard reads its own duplicate of the frame
+        final var position = frame.position();
+        frame.get(new byte[4]);
+        frame.position(position);
+        written.put(receiver, Thread.currentThread());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.zip.*;
+import org.junit.jupiter.api.*;
+
+public final class FrameCompressorTest {
+
+    private static final String JSON = "{\"type\":\"player-join\",\"server\":\"survival\",\"name\":\"phinner\"}";
+    private static final byte[] FRAME = JSON.repeat(8).getBytes(StandardCharsets.UTF_8);
+
+    private final List<ByteBuffer> sent = new ArrayList<>();
+
+    @Test
+    void test_compress() {
+        final var compressor = new FrameCompressor(CompressionPolicy.of(64), this::capture);
+        compressor.send(ByteBuffer.wrap(FRAME));
+        assertThat(sent).hasSize(1);
+        assertThat(EventSerializer.getFrameType(sent.get(0))).isEqualTo(Internal.COMPRESSED_FRAME);
+        assertThat(sent.get(0).remaining()).isLessThan(FRAME.length);
+        assertThat(compressor.decompress(sent.get(0))).isEqualTo(ByteBuffer.wrap(FRAME));
+    }
+
+    @Test
+    void test_skip_small_frame() {
+        final var compressor = new FrameCompressor(CompressionPolicy.of(FRAME.length + 1), this::capture);
+        compressor.send(ByteBuffer.wrap(FRAME));
+        assertThat(sent).containsExactly(ByteBuffer.wrap(FRAME));
+    }
+
+    @Test
+    void test_skip_incompressible_frame() {
+        final var frame = new byte[1024];
+        new Random(0L).nextBytes(frame);
+        final var compressor = new FrameCompressor(CompressionPolicy.of(64), this::capture);
+        compressor.send(ByteBuffer.wrap(frame));
+        assertThat(sent).containsExactly(ByteBuffer.wrap(frame));
+    }
+
+    @Test
+    void test_compress_once() {
+        final var compressor = new FrameCompressor(CompressionPolicy.of(64), this::capture);
+        final var frame = ByteBuffer.wrap(FRAME);
+        assertThat(compressor.isCompressible(frame)).isTrue();
+        final var compressed = compressor.compress(frame);
+        // Like the frames relayed by the server, handed to the connections by the caller
+        assertThat(sent).isEmpty();
+        assertThat(frame.position()).isZero();
+        assertThat(compressor.decompress(compressed)).isEqualTo(ByteBuffer.wrap(FRAME));
+    }
+
+    @Test
+    void test_dictionary() {
+        final var plain = new FrameCompressor(CompressionPolicy.of(64), this::capture);
+        final var compressor = new FrameCompressor(CompressionPolicy.of(64).withDictionary(FRAME), this::capture);
+        plain.send(ByteBuffer.wrap(FRAME));
+        compressor.send(ByteBuffer.wrap(FRAME));
+        assertThat(sent.get(1).remaining()).isLessThan(sent.get(0).remaining());
+        assertThat(compressor.decompress(sent.get(1).duplicate())).isEqualTo(ByteBuffer.wrap(FRAME));
+
+        // The peers without the same dictionary reject the frame
+        final var other = CompressionPolicy.of(64).withDictionary("other".getBytes(StandardCharsets.UTF_8));
+        assertThat(new FrameCompressor(other, this::capture)
+                        .decompress(sent.get(1).duplicate()))
+                .isNull();
+        assertThat(plain.decompress(sent.get(1).duplicate())).isNull();
+    }
+
+    @Test
+    void test_decompress_large_frame() {
+        final var frame = JSON.repeat(512).getBytes(StandardCharsets.UTF_8);
+        final var compressor = new FrameCompressor(CompressionPolicy.of(64), this::capture);
+        compressor.send(ByteBuffer.wrap(frame));
+        // Larger than the initial inflated buffer, which grows while the frame is inflated
+        assertThat(frame.length).isGreaterThan(Internal.MAX_EVENT_SIZE);
+        assertThat(compressor.decompress(sent.get(0).duplicate())).isEqualTo(ByteBuffer.wrap(frame));
+        assertThat(compressor.decompress(sent.get(0).duplicate())).isEqualTo(ByteBuffer.wrap(frame));
+    }
+
+    @Test
+    void test_decompress_rejects_wrong_size() {
+        final var compressor = new FrameCompressor(CompressionPolicy.of(64), this::capture);
+        assertThat(compressor.decompress(compressedFrame(FRAME.length - 1))).isNull();
+        assertThat(compressor.decompress(compressedFrame(FRAME.length + 1))).isNull();
+        assertThat(compressor.decompress(compressedFrame(Internal.MAX_COMPRESSED_FRAME_SIZE)))
+                .isNull();
+        assertThat(compressor.decompress(compressedFrame(FRAME.length))).isEqualTo(ByteBuffer.wrap(FRAME));
+    }
+
+    // A compressed frame of FRAME, declaring the given size
+    private static ByteBuffer compressedFrame(final int size) {
+        final var deflater = new Deflater();
+        deflater.setInput(FRAME);
+        deflater.finish();
+        final var buffer = ByteBuffer.allocate(FRAME.length + 16);
+        buffer.put(Internal.COMPRESSED_FRAME);
+        for (var remaining = size; ; remaining >>>= 7) {
+            if ((remaining & ~0x7F) == 0) {
+                buffer.put((byte) remaining);
+                break;
+            }
+            buffer.put((byte) ((remaining & 0x7F) | 0x80));
+        }
+        deflater.deflate(buffer);
+        deflater.end();
+        return buffer.flip();
+    }
+
+    // The compressed frames are recycled once the sink returns
+    private void capture(final ByteBuffer frame) {
+        final var copy = ByteBuffer.allocate(frame.remaining());
+        copy.put(frame.duplicate()).flip();
+        sent.add(copy);
+    }
+}
@@ -97,8 +97,57 @@ public final class JavelinClientSocketTest {
         assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
     }
 
+    @Test
+    void test_client_virtual_threads() {
+        // Falls back to the worker threads if the runtime does not support virtual threads
+        client = new JavelinClientSocket(
+                JavelinSocket.clientBuilder(URI.create("ws://localhost:12345")).virtualThreads(true));
+        final var event = new TestEvent("bob");
+        final var received = new CompletableFuture<TestEvent>();
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        client.subscribe(TestEvent.class, received::complete);
+        JavelinServerSocketTest.awaitInterest(server, TestEvent.class, 1);
+        assertThat(server.sendEvent(event)).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(received).succeedsWithin(DEFAULT_TIMEOUT).isEqualTo(event);
+
+        assertThat(client.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_builder_rejects_invalid_workers() {
+        final var builder = JavelinSocket.clientBuilder(URI.create("ws://localhost:12345"));
+        assertThatThrownBy(() -> builder.workers(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void test_builder_rejects_negative_reliable_window() {
+        final var builder = JavelinSocket.clientBuilder(URI.create("ws://localhost:12345"));
+        assertThatThrownBy(() -> builder.reliableDelivery(-1)).isInstanceOf(IllegalArgumentException.class);
+        builder.reliableDelivery(0);
+    }
+
     @Test
     void test_client_fails_serverless_connection() {
         assertThat(client.start()).failsWithin(DEFAULT_TIMEOUT);
     }
+
+    @Test
+    void test_client_failed_start_resets_status() {
+        assertThat(client.start()).failsWithin(DEFAULT_TIMEOUT);
+        // The websocket client can't be connected twice, only reconnected
+        assertThat(client.start())
+                .failsWithin(DEFAULT_TIMEOUT)
+                .withThrowableOfType(ExecutionException.class)
+                .withCauseInstanceOf(IllegalStateException.class);
+        assertThat(client.getStatus()).isEqualTo(Status.CLOSED);
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client.restart()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
 }
@@ -20,9 +20,12 @@ package fr.xpdustry.javelin;
 
 import static org.assertj.core.api.Assertions.*;
 
+import fr.xpdustry.javelin.JavelinSocket.*;
 import java.net.*;
 import java.time.*;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import org.junit.jupiter.api.*;
 
 public final class JavelinServerSocketTest {
@@ -64,6 +67,126 @@ public final class JavelinServerSocketTest {
         assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
     }
 
+    @Test
+    void test_slow_authentication_does_not_block_connections() {
+        final var unblock = new CountDownLatch(1);
+        server = new JavelinServerSocket(JavelinSocket.serverBuilder(12345, (username, password) -> {
+                    if (username.equals("client1")) {
+                        try {
+                            unblock.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return true;
+                })
+                .authenticationWorkers(2));
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        final var start1 = client1.start();
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(start1).isNotDone();
+        assertThat(client1.getStatus()).isEqualTo(Status.OPENING);
+        unblock.countDown();
+        assertThat(start1).succeedsWithin(DEFAULT_TIMEOUT);
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_builder_rejects_invalid_workers() {
+        final var builder = JavelinSocket.serverBuilder(12345, authenticator);
+        assertThatThrownBy(() -> builder.workers(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.workers(-1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void test_builder_rejects_invalid_dispatch_workers() {
+        final var builder = JavelinSocket.serverBuilder(12345, authenticator);
+        assertThatThrownBy(() -> builder.dispatchWorkers(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void test_builder_rejects_invalid_authentication_workers() {
+        final var builder = JavelinSocket.serverBuilder(12345, authenticator);
+        assertThatThrownBy(() -> builder.authenticationWorkers(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void test_builder_rejects_invalid_max_pending_authentications() {
+        final var builder = JavelinSocket.serverBuilder(12345, authenticator);
+        assertThatThrownBy(() -> builder.maxPendingAuthentications(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.maxPendingAuthentications(-1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void test_builder_rejects_negative_session_duration() {
+        final var builder = JavelinSocket.serverBuilder(12345, authenticator);
+        assertThatThrownBy(() -> builder.sessionDuration(Duration.ofMinutes(-1L)))
+                .isInstanceOf(IllegalArgumentException.class);
+        builder.sessionDuration(Duration.ZERO);
+    }
+
+    @Test
+    void test_builder_rejects_negative_fan_out_workers() {
+        final var builder = JavelinSocket.serverBuilder(12345, authenticator);
+        assertThatThrownBy(() -> builder.fanOutWorkers(-1)).isInstanceOf(IllegalArgumentException.class);
+        builder.fanOutWorkers(0);
+    }
+
+    @Test
+    void test_pending_authentications_bounded() throws InterruptedException {
+        final var verifying = new CountDownLatch(1);
+        final var unblock = new CountDownLatch(1);
+        server = new JavelinServerSocket(JavelinSocket.serverBuilder(12345, (username, password) -> {
+                    if (username.equals("client1")) {
+                        verifying.countDown();
+                        try {
+                            unblock.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return true;
+                })
+                .authenticationWorkers(1)
+                .maxPendingAuthentications(1));
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        final var start1 = client1.start();
+        assertThat(verifying.await(DEFAULT_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS))
+                .isTrue();
+        // Rejected during the handshake, while client1 is still verified
+        assertThat(client2.start()).failsWithin(DEFAULT_TIMEOUT);
+        unblock.countDown();
+        assertThat(start1).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.restart()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_session_token_skips_authentication() {
+        final var authentications = new AtomicInteger();
+        server = new JavelinServerSocket(JavelinSocket.serverBuilder(12345, (username, password) -> {
+            authentications.incrementAndGet();
+            return true;
+        }));
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.restart()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(authentications).hasValue(1);
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
     @Test
     void test_server_event_broadcast() {
         final var event = new TestEvent("hey");
@@ -78,6 +201,7 @@ public final class JavelinServerSocketTest {
         // Subscribe
         client1.subscribe(TestEvent.class, received1::complete);
         client2.subscribe(TestEvent.class, received2::complete);
+        awaitInterest(server, TestEvent.class, 2);
 
         // Send event
         assertThat(server.sendEvent(event)).succeedsWithin(DEFAULT_TIMEOUT);
@@ -107,6 +231,7 @@ public final class JavelinServerSocketTest {
         // Subscribe
         server.subscribe(TestEvent.class, received1::complete);
         client1.subscribe(TestEvent.class, received2::complete);
+        awaitInterest(server, TestEvent.class, 1);
 
         // Send event
         assertThat(client2.sendEvent(event)).succeedsWithin(DEFAULT_TIMEOUT);
@@ -137,6 +262,185 @@ public final class JavelinServerSocketTest {
         assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
     }
 
+    @Test
+    void test_same_user_concurrent_connections() throws InterruptedException {
+        server = new JavelinServerSocket(12345, 1, false, authenticator, false);
+        authenticator.addUser("client1", "client1");
+        final var clients = new ArrayList<JavelinClientSocket>();
+        for (int i = 0; i < 8; i++) {
+            clients.add(createClient("client1"));
+        }
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        final var starts = clients.stream().map(JavelinClientSocket::start).toList();
+        assertThat(CompletableFuture.allOf(starts.toArray(CompletableFuture[]::new)))
+                .failsWithin(DEFAULT_TIMEOUT);
+        assertThat(starts.stream().filter(start -> !start.isCompletedExceptionally()))
+                .hasSize(1);
+        assertThat(server.getUserConnection("client1")).isNotNull();
+
+        // The username is released once its connection is closed
+        for (final var client : clients) {
+            if (client.getStatus() == Status.OPEN) {
+                assertThat(client.close()).succeedsWithin(DEFAULT_TIMEOUT);
+            }
+        }
+        while (server.getUserConnection("client1") != null) {
+            Thread.sleep(10L);
+        }
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.getUserConnection("client1")).isNotNull();
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_server_routes_to_interested_clients() {
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        final var subscription1 = client1.subscribe(TestEvent.class, event -> {});
+        final var subscription2 = client1.subscribe(TestEvent.class, event -> {});
+        client2.subscribe(TestEvent.class, event -> {});
+        awaitInterest(server, TestEvent.class, 2);
+
+        // The frames of a connection are handled in order, so waiting for another interest flushes the previous ones
+        subscription1.unsubscribe();
+        subscription1.unsubscribe();
+        client1.subscribe(JavelinEvent.class, event -> {});
+        awaitInterest(server, JavelinEvent.class, 1);
+        assertThat(server.countInterestedConnections(TestEvent.class)).isEqualTo(2);
+
+        subscription2.unsubscribe();
+        awaitInterest(server, TestEvent.class, 1);
+
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        awaitInterest(server, TestEvent.class, 0);
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_server_routes_event_supertypes() {
+        final var event = new TestEvent("hey");
+        final var received = new CompletableFuture<JavelinEvent>();
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        client1.subscribe(JavelinEvent.class, received::complete);
+        awaitInterest(server, JavelinEvent.class, 1);
+
+        assertThat(client2.sendEvent(event)).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(received).succeedsWithin(DEFAULT_TIMEOUT).isEqualTo(event);
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_server_relays_once_per_connection() throws InterruptedException {
+        final var received = new LinkedBlockingQueue<JavelinEvent>();
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        client1.subscribe(TestEvent.class, received::add);
+        client1.subscribe(JavelinEvent.class, received::add);
+        awaitInterest(server, JavelinEvent.class, 1);
+
+        // The events are received in order, so a duplicate of the first event would be received before the second one
+        assertThat(client2.sendEvent(new TestEvent("1"))).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.sendEvent(new TestEvent("2"))).succeedsWithin(DEFAULT_TIMEOUT);
+        for (final var expected : List.of("1", "1", "2", "2")) {
+            assertThat(received.poll(5L, TimeUnit.SECONDS)).isEqualTo(new TestEvent(expected));
+        }
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_slow_subscriber_does_not_delay_relay() throws InterruptedException {
+        final var unblock = new CountDownLatch(1);
+        final var received = new LinkedBlockingQueue<String>();
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        server.subscribe(TestEvent.class, event -> {
+            try {
+                unblock.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        client2.subscribe(TestEvent.class, event -> received.add(event.getPayload()));
+        awaitInterest(server, TestEvent.class, 1);
+
+        // The server subscriber is blocked by the first event, the others are still relayed
+        for (int i = 0; i < 10; i++) {
+            client1.sendEvent(new TestEvent(String.valueOf(i)));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertThat(received.poll(5L, TimeUnit.SECONDS)).isEqualTo(String.valueOf(i));
+        }
+        unblock.countDown();
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_class_ids_redefined_on_reconnection() throws InterruptedException {
+        final var received = new LinkedBlockingQueue<TestEvent>();
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        client1.subscribe(TestEvent.class, received::add);
+        awaitInterest(server, TestEvent.class, 1);
+        assertThat(client2.sendEvent(new TestEvent("1"))).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.sendEvent(new TestEvent("2"))).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(received.poll(5L, TimeUnit.SECONDS)).isEqualTo(new TestEvent("1"));
+        assertThat(received.poll(5L, TimeUnit.SECONDS)).isEqualTo(new TestEvent("2"));
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        // The clients start a new session with a new server, so the class of the event must be defined again
+        final var server2 = new JavelinServerSocket(12345, 1, true, authenticator, false);
+        assertThat(server2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.restart()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.restart()).succeedsWithin(DEFAULT_TIMEOUT);
+        awaitInterest(server2, TestEvent.class, 1);
+        assertThat(client2.sendEvent(new TestEvent("3"))).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(received.poll(5L, TimeUnit.SECONDS)).isEqualTo(new TestEvent("3"));
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    static void awaitInterest(
+            final JavelinServerSocket server, final Class<? extends JavelinEvent> event, final int connections) {
+        final var deadline = System.nanoTime() + DEFAULT_TIMEOUT.toNanos();
+        while (server.countInterestedConnections(event) != connections) {
+            if (System.nanoTime() > deadline) {
+                fail("Expected " + connections + " connections interested in " + event.getName());
+            }
+            Thread.onSpinWait();
+        }
+    }
+
     private JavelinClientSocket createClient(final String name) {
         return new JavelinClientSocket(
                 URI.create("ws://localhost:12345"), 1, new PasswordAuthentication(name, name.toCharArray()), false);
@@ -19,15 +19,19 @@
 package fr.xpdustry.javelin;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import java.net.*;
 import java.time.*;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import org.junit.jupiter.api.*;
 
 public final class JavelinSocketTest {
 
     private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5L);
+    private static final String RELIABLE_PENDING = "client[ws://localhost:12345].reliable.pending";
 
     @Test
     void test_server_local_broadcast() {
@@ -60,4 +64,579 @@ public final class JavelinSocketTest {
         assertThat(client.close()).succeedsWithin(DEFAULT_TIMEOUT);
         assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
     }
+
+    @Test
+    void test_batched_send_receive() throws InterruptedException {
+        final var batching = BatchingPolicy.of(1024, 16, 1000L);
+        final var server = new JavelinServerSocket(JavelinSocket.serverBuilder(12345, new TestJavelinAuthenticator())
+                .alwaysAllowLocalConnections(true)
+                .batchingPolicy(batching));
+        final var client1 = new JavelinClientSocket(
+                JavelinSocket.clientBuilder(URI.create("ws://localhost:12345")).batchingPolicy(batching));
+        final var client2 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        final var received1 = new LinkedBlockingQueue<String>();
+        final var received2 = new LinkedBlockingQueue<String>();
+        server.subscribe(TestEvent.class, event -> received1.add(event.getPayload()));
+        client2.subscribe(TestEvent.class, event -> received2.add(event.getPayload()));
+        JavelinServerSocketTest.awaitInterest(server, TestEvent.class, 1);
+
+        // Includes events larger than a batch and a last event only sent after the linger time
+        final var expected = new ArrayList<String>();
+        for (int i = 0; i < 1001; i++) {
+            expected.add(i + ":" + "x".repeat(i % 100 == 0 ? 2000 : i % 10));
+        }
+        expected.forEach(payload -> client1.sendEvent(new TestEvent(payload)));
+
+        for (final var payload : expected) {
+            assertThat(received1.poll(5L, TimeUnit.SECONDS)).isEqualTo(payload);
+        }
+        // The client handles the events of a class in order
+        for (final var payload : expected) {
+            assertThat(received2.poll(5L, TimeUnit.SECONDS)).isEqualTo(payload);
+        }
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_batching_policy_rejects_invalid_size() {
+        assertThatThrownBy(() -> BatchingPolicy.of(0, 16, 1000L)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> BatchingPolicy.of(Internal.MAX_BATCH_SIZE + 1, 16, 1000L))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> BatchingPolicy.of(Integer.MAX_VALUE, 16, 1000L))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(BatchingPolicy.of(Internal.MAX_BATCH_SIZE, 16, 1000L).getMaxSize())
+                .isEqualTo(Internal.MAX_BATCH_SIZE);
+    }
+
+    @Test
+    void test_metrics() throws InterruptedException {
+        final var serverMetrics = JavelinMetrics.simple();
+        final var clientMetrics = JavelinMetrics.simple();
+        final var server = new JavelinServerSocket(JavelinSocket.serverBuilder(12345, new TestJavelinAuthenticator())
+                .alwaysAllowLocalConnections(true)
+                .metrics(serverMetrics));
+        // Shares the metrics of the server, like a server and a client in the same process
+        final var client1 = new JavelinClientSocket(
+                JavelinSocket.clientBuilder(URI.create("ws://localhost:12345")).metrics(serverMetrics));
+        final var client2 = new JavelinClientSocket(
+                JavelinSocket.clientBuilder(URI.create("ws://localhost:12345")).metrics(clientMetrics));
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        final var latch = new CountDownLatch(10);
+        client2.subscribe(TestEvent.class, event -> latch.countDown());
+        JavelinServerSocketTest.awaitInterest(server, TestEvent.class, 1);
+        for (int i = 0; i < 10; i++) {
+            assertThat(client1.sendEvent(new TestEvent("test"))).succeedsWithin(DEFAULT_TIMEOUT);
+        }
+        assertThat(latch.await(5L, TimeUnit.SECONDS)).isTrue();
+
+        final var relayed = serverMetrics.getEvents().get(TestEvent.class.getName());
+        assertThat(relayed.getRelayed()).isEqualTo(10L);
+        assertThat(relayed.getRelayReceivers()).isEqualTo(10L);
+        assertThat(relayed.getFanOutTime().getCount()).isEqualTo(10L);
+        // The 2 connections of the server and the one of the first client
+        assertThat(serverMetrics.getConnections()).hasSize(3);
+        assertThat(serverMetrics.getGauges())
+                .containsEntry("server[12345].connections", 2L)
+                .containsKeys("server[12345].outbound.queued", "client[ws://localhost:12345].outbound.queued");
+
+        // The metrics of the handled event are recorded once the subscribers returned
+        final var received = clientMetrics.getEvents().get(TestEvent.class.getName());
+        while (received.getHandlingTime().getCount() != 10L) {
+            Thread.sleep(10L);
+        }
+        assertThat(received.getReceived()).isEqualTo(10L);
+        assertThat(received.getBytesReceived()).isPositive();
+        final var connection = clientMetrics.getConnections().get("ws://localhost:12345");
+        assertThat(connection.getBytesReceived()).isPositive();
+        assertThat(connection.getBytesSent()).isPositive();
+        assertThat(connection.getFrameSizesReceived().getCount()).isPositive();
+        assertThat(clientMetrics.getGauges()).containsEntry("client[ws://localhost:12345].dispatch.backlog", 0L);
+        // The events sent by the first client have been confirmed by the server
+        assertThat(serverMetrics.getConnections().get("ws://localhost:12345").getRoundTripTime().getCount())
+                .isPositive();
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(clientMetrics.getConnections()).isEmpty();
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_codec_send_receive() throws InterruptedException {
+        final var server = new JavelinServerSocket(12345, 1, true, new TestJavelinAuthenticator(), false);
+        final var client1 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+        final var client2 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+        final var encoded = new AtomicInteger();
+        final var decoded = new AtomicInteger();
+        final var codec = new EventCodec<TestOrderedEvent>() {
+            @Override
+            public void encode(final TestOrderedEvent event, final EventCodec.Writer writer) {
+                writer.writeVarInt(event.getKey());
+                writer.writeString(event.getPayload());
+                encoded.incrementAndGet();
+            }
+
+            @Override
+            public TestOrderedEvent decode(final EventCodec.Reader reader) {
+                decoded.incrementAndGet();
+                return new TestOrderedEvent(reader.readVarInt(), Objects.requireNonNull(reader.readString()));
+            }
+        };
+        client1.registerCodec(TestOrderedEvent.class, codec);
+        client2.registerCodec(TestOrderedEvent.class, codec);
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        final var received = new LinkedBlockingQueue<TestOrderedEvent>();
+        client2.subscribe(TestOrderedEvent.class, received::add);
+        JavelinServerSocketTest.awaitInterest(server, TestOrderedEvent.class, 1);
+
+        // Includes an event large enough to be sent in chunks
+        final var expected = List.of(
+                new TestOrderedEvent(1, "test"),
+                new TestOrderedEvent(-1, ""),
+                new TestOrderedEvent(Integer.MAX_VALUE, "x".repeat(100_000)));
+        expected.forEach(client1::sendEvent);
+        for (final var event : expected) {
+            final var event2 = received.poll(5L, TimeUnit.SECONDS);
+            assertThat(event2).isNotNull();
+            assertThat(event2.getKey()).isEqualTo(event.getKey());
+            assertThat(event2.getPayload()).isEqualTo(event.getPayload());
+        }
+
+        // The server relays the events without decoding them
+        assertThat(encoded).hasValue(3);
+        assertThat(decoded).hasValue(3);
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_generated_codec_send_receive() throws InterruptedException {
+        final var server = new JavelinServerSocket(12345, 1, true, new TestJavelinAuthenticator(), false);
+        final var client1 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+        final var client2 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+
+        // Generated by javelin-processor, and found by the sockets without being registered
+        assertThat(EventSerializer.getGeneratedCodec(TestGeneratedEvent.class)).isNotNull();
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        final var received = new LinkedBlockingQueue<TestGeneratedEvent>();
+        client2.subscribe(TestGeneratedEvent.class, received::add);
+        JavelinServerSocketTest.awaitInterest(server, TestGeneratedEvent.class, 1);
+
+        final var expected = List.of(
+                new TestGeneratedEvent(
+                        -1,
+                        Long.MIN_VALUE,
+                        'x',
+                        "test",
+                        TestGeneratedEvent.Color.GREEN,
+                        42,
+                        new byte[] {1, 2, 3},
+                        Arrays.asList("a", null, "c")),
+                new TestGeneratedEvent(
+                        Integer.MAX_VALUE, 0L, '\u00e9', null, null, null, new byte[100_000], List.of()));
+        expected.forEach(client1::sendEvent);
+        for (final var event : expected) {
+            final var event2 = received.poll(5L, TimeUnit.SECONDS);
+            assertThat(event2).isNotNull();
+            assertThat(event2)
+                    .usingRecursiveComparison()
+                    .withStrictTypeChecking()
+                    .ignoringFields("tags")
+                    .isEqualTo(event);
+            assertThat(event2.tags()).containsExactlyElementsOf(event.tags());
+        }
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_relay_only_raw_subscription() throws InterruptedException {
+        final var server = new JavelinServerSocket(JavelinSocket.serverBuilder(12345, new TestJavelinAuthenticator())
+                .alwaysAllowLocalConnections(true)
+                .relayOnly(true));
+        final var client1 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+        final var client2 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        final var relayed = new LinkedBlockingQueue<String>();
+        final var received = new LinkedBlockingQueue<Integer>();
+        final var deserialized = new LinkedBlockingQueue<String>();
+        server.subscribe(TestEvent.class, event -> deserialized.add(event.getPayload()));
+        server.subscribeRaw(JavelinEvent.class.getName(), (type, payload) -> relayed.add(type));
+        final var subscription =
+                client2.subscribeRaw(TestEvent.class.getName(), (type, payload) -> received.add(payload.remaining()));
+        client2.subscribe(TestEvent.class, event -> deserialized.add(event.getPayload()));
+        JavelinServerSocketTest.awaitInterest(server, TestEvent.class, 1);
+
+        // Includes an event large enough to be sent in chunks
+        client1.sendEvent(new TestEvent("test"));
+        client1.sendEvent(new TestEvent("x".repeat(100_000)));
+
+        assertThat(relayed.poll(5L, TimeUnit.SECONDS)).isEqualTo(TestEvent.class.getName());
+        assertThat(relayed.poll(5L, TimeUnit.SECONDS)).isEqualTo(TestEvent.class.getName());
+        assertThat(received.poll(5L, TimeUnit.SECONDS)).isPositive().isLessThan(100);
+        assertThat(received.poll(5L, TimeUnit.SECONDS)).isGreaterThan(100_000);
+        // The relay-only server never deserializes the events
+        assertThat(deserialized.poll(5L, TimeUnit.SECONDS)).isEqualTo("test");
+        assertThat(deserialized.poll(5L, TimeUnit.SECONDS)).hasSize(100_000);
+        assertThat(deserialized.poll(100L, TimeUnit.MILLISECONDS)).isNull();
+
+        // The interest of the client remains until its last subscriber unsubscribes
+        subscription.unsubscribe();
+        client1.sendEvent(new TestEvent("test"));
+        assertThat(deserialized.poll(5L, TimeUnit.SECONDS)).isEqualTo("test");
+        assertThat(received).isEmpty();
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_parallel_fan_out() throws InterruptedException {
+        final var server = new JavelinServerSocket(JavelinSocket.serverBuilder(12345, new TestJavelinAuthenticator())
+                .alwaysAllowLocalConnections(true)
+                .batchingPolicy(BatchingPolicy.of(1024, 16, 1000L))
+                .fanOutWorkers(2));
+        final var sender = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+        final var receivers = new ArrayList<JavelinClientSocket>();
+        final var received = new ArrayList<BlockingQueue<TestEvent>>();
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(sender.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        // Enough receivers to be split in 3 shards
+        for (int i = 0; i < FanOutExecutor.MIN_SHARD_SIZE * 3; i++) {
+            final var receiver = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+            final var queue = new LinkedBlockingQueue<TestEvent>();
+            assertThat(receiver.start()).succeedsWithin(DEFAULT_TIMEOUT);
+            receiver.subscribe(TestEvent.class, queue::add);
+            receivers.add(receiver);
+            received.add(queue);
+        }
+        JavelinServerSocketTest.awaitInterest(server, TestEvent.class, receivers.size());
+
+        // The large events are compressed once for all the receivers, after the batched small ones
+        final var expected = new ArrayList<TestEvent>();
+        for (int i = 0; i < 10; i++) {
+            expected.add(new TestEvent(i + ":" + "x".repeat(i % 3 == 0 ? 1000 : 0)));
+        }
+        for (final var event : expected) {
+            assertThat(sender.sendEvent(event)).succeedsWithin(DEFAULT_TIMEOUT);
+        }
+        for (final var queue : received) {
+            for (final var event : expected) {
+                assertThat(queue.poll(5L, TimeUnit.SECONDS)).isEqualTo(event);
+            }
+        }
+
+        for (final var receiver : receivers) {
+            assertThat(receiver.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        }
+        assertThat(sender.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_reliable_delivery_ignores_resent_frames() throws InterruptedException {
+        final var metrics = JavelinMetrics.simple();
+        final var server = new JavelinServerSocket(12345, 1, true, new TestJavelinAuthenticator(), false);
+        final var sender = new JavelinClientSocket(JavelinSocket.clientBuilder(URI.create("ws://localhost:12345"))
+                .reliableDelivery(64)
+                .metrics(metrics));
+        final var receiver = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+        final var received = new LinkedBlockingQueue<TestEvent>();
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(sender.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(receiver.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        receiver.subscribe(TestEvent.class, received::add);
+        JavelinServerSocketTest.awaitInterest(server, TestEvent.class, 1);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(sender.sendEvent(new TestEvent(String.valueOf(i)))).succeedsWithin(DEFAULT_TIMEOUT);
+            assertThat(received.poll(5L, TimeUnit.SECONDS)).isEqualTo(new TestEvent(String.valueOf(i)));
+        }
+        // The frames are only acknowledged every half window
+        assertThat(metrics.getGauges().get(RELIABLE_PENDING)).isPositive();
+
+        // The frames are sent again on the new connection, the server already received them
+        assertThat(sender.restart()).succeedsWithin(DEFAULT_TIMEOUT);
+        awaitGauge(metrics, RELIABLE_PENDING, 0L);
+        assertThat(sender.sendEvent(new TestEvent("5"))).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(received.poll(5L, TimeUnit.SECONDS)).isEqualTo(new TestEvent("5"));
+
+        assertThat(sender.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(receiver.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_reliable_delivery_resends_after_server_restart() throws InterruptedException {
+        final var server1 = new JavelinServerSocket(12345, 1, true, new TestJavelinAuthenticator(), false);
+        final var sender = new JavelinClientSocket(
+                JavelinSocket.clientBuilder(URI.create("ws://localhost:12345")).reliableDelivery(64));
+        final var receiver = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+        final var received = new LinkedBlockingQueue<TestEvent>();
+
+        assertThat(server1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(sender.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(receiver.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        receiver.subscribe(TestEvent.class, received::add);
+        JavelinServerSocketTest.awaitInterest(server1, TestEvent.class, 1);
+        for (int i = 0; i < 5; i++) {
+            assertThat(sender.sendEvent(new TestEvent(String.valueOf(i)))).succeedsWithin(DEFAULT_TIMEOUT);
+            assertThat(received.poll(5L, TimeUnit.SECONDS)).isEqualTo(new TestEvent(String.valueOf(i)));
+        }
+        assertThat(server1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        // The new server doesn't know which frames have been received, so the ones not acknowledged are received again
+        final var server2 = new JavelinServerSocket(12345, 1, true, new TestJavelinAuthenticator(), false);
+        assertThat(server2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(receiver.restart()).succeedsWithin(DEFAULT_TIMEOUT);
+        JavelinServerSocketTest.awaitInterest(server2, TestEvent.class, 1);
+        assertThat(sender.restart()).succeedsWithin(DEFAULT_TIMEOUT);
+        for (int i = 0; i < 5; i++) {
+            assertThat(received.poll(5L, TimeUnit.SECONDS)).isEqualTo(new TestEvent(String.valueOf(i)));
+        }
+
+        assertThat(sender.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(receiver.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_reliable_delivery_redefines_classes_after_server_restart() throws InterruptedException {
+        final var metrics = JavelinMetrics.simple();
+        final var server1 = new JavelinServerSocket(12345, 1, true, new TestJavelinAuthenticator(), false);
+        final var sender = new JavelinClientSocket(JavelinSocket.clientBuilder(URI.create("ws://localhost:12345"))
+                .reliableDelivery(4)
+                .metrics(metrics));
+        final var receiver = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+        final var received = new LinkedBlockingQueue<TestEvent>();
+
+        assertThat(server1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(sender.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(receiver.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        receiver.subscribe(TestEvent.class, received::add);
+        JavelinServerSocketTest.awaitInterest(server1, TestEvent.class, 1);
+        // The definition and the first 3 events are acknowledged every 2 frames, the last event is not
+        for (int i = 0; i < 4; i++) {
+            assertThat(sender.sendEvent(new TestEvent(String.valueOf(i)))).succeedsWithin(DEFAULT_TIMEOUT);
+            assertThat(received.poll(5L, TimeUnit.SECONDS)).isEqualTo(new TestEvent(String.valueOf(i)));
+        }
+        awaitGauge(metrics, RELIABLE_PENDING, 1L);
+        assertThat(server1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        // The new server never received the definition of the class of the event sent again
+        final var server2 = new JavelinServerSocket(12345, 1, true, new TestJavelinAuthenticator(), false);
+        assertThat(server2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(receiver.restart()).succeedsWithin(DEFAULT_TIMEOUT);
+        JavelinServerSocketTest.awaitInterest(server2, TestEvent.class, 1);
+        assertThat(sender.restart()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(received.poll(5L, TimeUnit.SECONDS)).isEqualTo(new TestEvent("3"));
+        awaitGauge(metrics, RELIABLE_PENDING, 0L);
+
+        assertThat(sender.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(receiver.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_ordered_dispatch() throws InterruptedException {
+        final var server = new JavelinServerSocket(12345, 1, true, new TestJavelinAuthenticator(), false);
+        final var client1 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+        final var client2 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 4, null, false);
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        final var received = new LinkedBlockingQueue<String>();
+        final var receivedByKey = new ConcurrentHashMap<Integer, Queue<String>>();
+        final var latch = new CountDownLatch(2000);
+        client2.subscribe(TestEvent.class, event -> {
+            received.add(event.getPayload());
+            latch.countDown();
+        });
+        client2.subscribe(TestOrderedEvent.class, event -> {
+            receivedByKey
+                    .computeIfAbsent(event.getKey(), key -> new ConcurrentLinkedQueue<>())
+                    .add(event.getPayload());
+            latch.countDown();
+        });
+        JavelinServerSocketTest.awaitInterest(server, TestEvent.class, 1);
+        JavelinServerSocketTest.awaitInterest(server, TestOrderedEvent.class, 1);
+
+        final var expected = new ArrayList<String>();
+        final var expectedByKey = new HashMap<Integer, List<String>>();
+        for (int i = 0; i < 1000; i++) {
+            final var payload = String.valueOf(i);
+            expected.add(payload);
+            expectedByKey.computeIfAbsent(i % 8, key -> new ArrayList<>()).add(payload);
+            client1.sendEvent(new TestEvent(payload));
+            client1.sendEvent(new TestOrderedEvent(i % 8, payload));
+        }
+
+        // The events are handled by several workers, but in order for a given class or ordering key
+        assertThat(latch.await(10L, TimeUnit.SECONDS)).isTrue();
+        assertThat(received).containsExactlyElementsOf(expected);
+        expectedByKey.forEach(
+                (key, payloads) -> assertThat(receivedByKey.get(key)).containsExactlyElementsOf(payloads));
+
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_small_event_not_delayed_by_transfer() {
+        final var server = new JavelinServerSocket(12345, 1, true, new TestJavelinAuthenticator(), false);
+        final var client = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        // The large event is streamed in about 250 chunks, the small event is written in the meantime
+        final var completed = new CopyOnWriteArrayList<String>();
+        final var large = client.sendEvent(new TestEvent("x".repeat(2_000_000))).thenRun(() -> completed.add("large"));
+        final var small = client.sendEvent(new TestEvent("small")).thenRun(() -> completed.add("small"));
+        assertThat(large).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(small).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(completed).containsExactly("small", "large");
+
+        assertThat(client.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_large_send_receive() throws InterruptedException {
+        final var server = new JavelinServerSocket(12345, 1, true, new TestJavelinAuthenticator(), false);
+        final var client1 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+        final var client2 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 1, null, false);
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        final var received1 = ConcurrentHashMap.<String>newKeySet();
+        final var received2 = ConcurrentHashMap.<String>newKeySet();
+        server.subscribe(TestEvent.class, event -> received1.add(event.getPayload()));
+        client2.subscribe(TestEvent.class, event -> received2.add(event.getPayload()));
+        JavelinServerSocketTest.awaitInterest(server, TestEvent.class, 1);
+
+        // The small events are sent while the large ones are streamed
+        final var expected = new HashSet<String>();
+        final var executor = Executors.newSingleThreadExecutor();
+        for (int i = 0; i < 4; i++) {
+            final var large = i + ":" + "x".repeat(100_000 << i);
+            expected.add(large);
+            executor.execute(() -> client1.sendEvent(new TestEvent(large)));
+        }
+        for (int i = 0; i < 100; i++) {
+            final var small = "small:" + i;
+            expected.add(small);
+            client1.sendEvent(new TestEvent(small));
+        }
+        final var large = "server:" + "x".repeat(1_000_000);
+        server.sendEvent(new TestEvent(large));
+
+        final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30L);
+        while ((received1.size() < expected.size() || received2.size() < expected.size() + 1)
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(received1).isEqualTo(expected);
+        expected.add(large);
+        assertThat(received2).isEqualTo(expected);
+
+        executor.shutdown();
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void test_concurrent_send_receive() throws InterruptedException {
+        final var server = new JavelinServerSocket(12345, 4, true, new TestJavelinAuthenticator(), false);
+        final var client1 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 4, null, false);
+        final var client2 = new JavelinClientSocket(URI.create("ws://localhost:12345"), 4, null, false);
+        final var senders = 8;
+        final var events = 250;
+
+        assertThat(server.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client1.start()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.start()).succeedsWithin(DEFAULT_TIMEOUT);
+
+        final var received1 = ConcurrentHashMap.<String>newKeySet();
+        final var received2 = ConcurrentHashMap.<String>newKeySet();
+        final var latch = new CountDownLatch(senders * events * 2);
+        server.subscribe(TestEvent.class, event -> {
+            received1.add(event.getPayload());
+            latch.countDown();
+        });
+        client2.subscribe(TestEvent.class, event -> {
+            received2.add(event.getPayload());
+            latch.countDown();
+        });
+        JavelinServerSocketTest.awaitInterest(server, TestEvent.class, 1);
+
+        final var expected = new HashSet<String>();
+        final var executor = Executors.newFixedThreadPool(senders);
+        for (int i = 0; i < senders; i++) {
+            final var sender = i;
+            for (int j = 0; j < events; j++) {
+                expected.add(sender + ":" + j + ":" + "x".repeat(j));
+            }
+            executor.execute(() -> {
+                for (int j = 0; j < events; j++) {
+                    client1.sendEvent(new TestEvent(sender + ":" + j + ":" + "x".repeat(j)));
+                }
+            });
+        }
+
+        assertThat(latch.await(30L, TimeUnit.SECONDS)).isTrue();
+        assertThat(received1).isEqualTo(expected);
+        assertThat(received2).isEqualTo(expected);
+
+        executor.shutdown();
+        assertThat(client1.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(client2.close()).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(server.close()).succeedsWithin(DEFAULT_TIMEOUT);
+    }
+
+    private static void awaitGauge(final SimpleJavelinMetrics metrics, final String name, final long value)
+            throws InterruptedException {
+        final var deadline = System.nanoTime() + DEFAULT_TIMEOUT.toNanos();
+        while (metrics.getGauges().get(name) != value) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10L);
+        }
+    }
 }
@@ -0,0 +1,254 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import fr.xpdustry.javelin.OutboundQueuePolicy.*;
+import java.io.*;
+import java.nio.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.junit.jupiter.api.*;
+
+public final class OutboundQueueTest {
+
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5L);
+
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final CountDownLatch sending = new CountDownLatch(1);
+    private final CountDownLatch unblock = new CountDownLatch(1);
+
+    @Test
+    void test_send() {
+        final var queue = createQueue(Overflow.FAIL_FAST);
+        unblock.countDown();
+        final var future1 = queue.offer(new TestEvent("1"));
+        final var future2 = queue.offer(new TestEvent("2"));
+        assertThat(future1).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(future2).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(sent).containsExactly("1", "2");
+        assertThat(queue.getStatistics().getWritten()).isEqualTo(2L);
+    }
+
+    @Test
+    void test_policy_rejects_invalid_capacity() {
+        assertThatThrownBy(() -> OutboundQueuePolicy.of(0, Overflow.BLOCK))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> OutboundQueuePolicy.of(-1, Overflow.BLOCK))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void test_fail_fast() throws InterruptedException {
+        final var queue = createFullQueue(Overflow.FAIL_FAST);
+        assertThat(queue.offer(new TestEvent("4")))
+                .failsWithin(DEFAULT_TIMEOUT)
+                .withThrowableOfType(ExecutionException.class)
+                .withCauseInstanceOf(IOException.class);
+        unblock.countDown();
+        queue.close();
+        assertThat(sent).containsExactly("1", "2", "3");
+        assertThat(queue.getStatistics().getRejected()).isEqualTo(1L);
+    }
+
+    @Test
+    void test_drop_oldest() throws InterruptedException {
+        final var queue = createQueue(Overflow.DROP_OLDEST);
+        final var future1 = queue.offer(new TestEvent("1"));
+        assertThat(sending.await(5L, TimeUnit.SECONDS)).isTrue();
+        final var future2 = queue.offer(new TestEvent("2"));
+        queue.offer(new TestEvent("3"));
+        queue.offer(new TestEvent("4"));
+        assertThat(future2).isCancelled();
+        unblock.countDown();
+        queue.close();
+        assertThat(future1).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(sent).containsExactly("1", "3", "4");
+        assertThat(queue.getStatistics().getDroppedOldest()).isEqualTo(1L);
+    }
+
+    @Test
+    void test_drop_newest() throws InterruptedException {
+        final var queue = createFullQueue(Overflow.DROP_NEWEST);
+        assertThat(queue.offer(new TestEvent("4"))).isCancelled();
+        unblock.countDown();
+        queue.close();
+        assertThat(sent).containsExactly("1", "2", "3");
+        assertThat(queue.getStatistics().getDroppedNewest()).isEqualTo(1L);
+    }
+
+    @Test
+    void test_block() throws InterruptedException {
+        final var queue = createFullQueue(Overflow.BLOCK);
+        final var future = CompletableFuture.supplyAsync(() -> queue.offer(new TestEvent("4")));
+        Thread.sleep(100L);
+        assertThat(future).isNotDone();
+        unblock.countDown();
+        assertThat(future).succeedsWithin(DEFAULT_TIMEOUT);
+        queue.close();
+        assertThat(sent).containsExactly("1", "2", "3", "4");
+        assertThat(queue.getStatistics().getBlocked()).isEqualTo(1L);
+    }
+
+    @Test
+    void test_transfer_does_not_delay_next_events() {
+        final var queue = createTransferQueue(() -> {
+            try {
+                unblock.await();
+            } catch (final InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        final var large = queue.offer(new TestEvent("large"));
+        final var small = queue.offer(new TestEvent("small"));
+        assertThat(small).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(large).isNotDone();
+        unblock.countDown();
+        queue.close();
+        assertThat(large).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(sent).containsExactly("small", "large");
+        assertThat(queue.getStatistics().getWritten()).isEqualTo(2L);
+    }
+
+    @Test
+    void test_transfer_failure() {
+        final var queue = createTransferQueue(() -> {
+            throw new IllegalStateException();
+        });
+        assertThat(queue.offer(new TestEvent("large")))
+                .failsWithin(DEFAULT_TIMEOUT)
+                .withThrowableOfType(ExecutionException.class)
+                .withCauseInstanceOf(IllegalStateException.class);
+        queue.close();
+        assertThat(queue.getStatistics().getFailed()).isEqualTo(1L);
+    }
+
+    @Test
+    void test_connection_lost() {
+        final var tracker = createClosedTracker();
+        final var queue = new OutboundQueue(
+                OutboundQueuePolicy.of(2, Overflow.FAIL_FAST), delivery -> delivery.mark(tracker, 1L));
+        assertThat(queue.offer(new TestEvent("1")))
+                .failsWithin(DEFAULT_TIMEOUT)
+                .withThrowableOfType(ExecutionException.class)
+                .withCauseInstanceOf(IOException.class);
+        queue.close();
+        assertThat(queue.getStatistics().getFailed()).isEqualTo(1L);
+    }
+
+    @Test
+    void test_reliable_delivery_pending_until_acknowledged() throws InterruptedException {
+        final var tracker = createClosedTracker();
+        final var reliable = new ReliableSender(4);
+        final var queue = new OutboundQueue(OutboundQueuePolicy.of(2, Overflow.FAIL_FAST), delivery -> {
+            // Kept to be sent on the next connection
+            reliable.send(tracker, ByteBuffer.wrap(new byte[] {Internal.EVENT_FRAME}));
+            delivery.mark(tracker, 1L);
+            delivery.mark(reliable, reliable.getLastSequence());
+        });
+        final var future1 = queue.offer(new TestEvent("1"));
+        final var future2 = queue.offer(new TestEvent("2"));
+        Thread.sleep(100L);
+        assertThat(future1).isNotDone();
+        reliable.acknowledge(1L);
+        assertThat(future1).succeedsWithin(DEFAULT_TIMEOUT);
+        assertThat(future2).isNotDone();
+        // The frames are no longer sent again once the socket is closed
+        reliable.close();
+        assertThat(future2)
+                .failsWithin(DEFAULT_TIMEOUT)
+                .withThrowableOfType(ExecutionException.class)
+                .withCauseInstanceOf(IOException.class);
+        queue.close();
+    }
+
+    @Test
+    void test_blocked_queue_does_not_delay_other_queues() throws InterruptedException {
+        final var blocked = createFullQueue(Overflow.BLOCK);
+        final var other = new OutboundQueue(
+                OutboundQueuePolicy.of(2, Overflow.FAIL_FAST), delivery -> sent.add("other"));
+        assertThat(other.offer(new TestEvent("other"))).succeedsWithin(DEFAULT_TIMEOUT);
+        unblock.countDown();
+        blocked.close();
+        other.close();
+        assertThat(sent).containsExactly("other", "1", "2", "3");
+    }
+
+    @Test
+    void test_deliveries_are_reused() {
+        final var deliveries = Collections.newSetFromMap(new IdentityHashMap<OutboundQueue.Delivery, Boolean>());
+        final var queue = new OutboundQueue(OutboundQueuePolicy.of(2, Overflow.FAIL_FAST), deliveries::add);
+        for (int i = 0; i < 100; i++) {
+            assertThat(queue.offer(new TestEvent(String.valueOf(i)))).succeedsWithin(DEFAULT_TIMEOUT);
+        }
+        queue.close();
+        assertThat(deliveries).hasSizeLessThan(100);
+    }
+
+    // The tracker of a connection closed before writing the frames
+    private static WriteTracker createClosedTracker() {
+        final var tracker =
+                new WriteTracker(new ReliableSenderTest.IdleClient().getConnection(), 0, "test", JavelinMetrics.noop());
+        tracker.close();
+        return tracker;
+    }
+
+    // The sender is blocked while sending the first event, with 2 events in the queue
+    private OutboundQueue createFullQueue(final Overflow overflow) throws InterruptedException {
+        final var queue = createQueue(overflow);
+        queue.offer(new TestEvent("1"));
+        assertThat(sending.await(5L, TimeUnit.SECONDS)).isTrue();
+        queue.offer(new TestEvent("2"));
+        queue.offer(new TestEvent("3"));
+        return queue;
+    }
+
+    // Streams the large events in the transfer thread, like the events too large for a frame
+    private OutboundQueue createTransferQueue(final Runnable streaming) {
+        final var queue = new AtomicReference<OutboundQueue>();
+        queue.set(new OutboundQueue(OutboundQueuePolicy.of(4, Overflow.FAIL_FAST), delivery -> {
+            final var payload = ((TestEvent) delivery.getEvent()).getPayload();
+            if (payload.equals("large")) {
+                queue.get().transfer(delivery, () -> {
+                    streaming.run();
+                    sent.add(payload);
+                });
+            } else {
+                sent.add(payload);
+            }
+        }));
+        return queue.get();
+    }
+
+    private OutboundQueue createQueue(final Overflow overflow) {
+        return new OutboundQueue(OutboundQueuePolicy.of(2, overflow), delivery -> {
+            sending.countDown();
+            try {
+                unblock.await();
+            } catch (final InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            sent.add(((TestEvent) delivery.getEvent()).getPayload());
+        });
+    }
+}
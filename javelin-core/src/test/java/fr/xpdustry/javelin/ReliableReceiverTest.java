@@ -0,0 +1,57 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+
+public final class ReliableReceiverTest {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(1L);
+
+    @Test
+    void test_receive_once() {
+        final var receiver = new ReliableReceiver("channel");
+        assertThat(receiver.receive(1L)).isTrue();
+        assertThat(receiver.receive(1L)).isFalse();
+        // Skipped numbers are accepted, the frames are handled again instead of being lost
+        assertThat(receiver.receive(3L)).isTrue();
+        assertThat(receiver.receive(2L)).isFalse();
+        assertThat(receiver.getLastSequence()).isEqualTo(3L);
+    }
+
+    @Test
+    void test_idle_once_disconnected() {
+        final var receiver = new ReliableReceiver("channel");
+        receiver.onConnect();
+        final var later = System.nanoTime() + TIMEOUT_NANOS;
+        assertThat(receiver.isIdle(later, TIMEOUT_NANOS)).isFalse();
+        // The connections of a client can overlap
+        receiver.onConnect();
+        receiver.onDisconnect();
+        assertThat(receiver.isIdle(System.nanoTime() + TIMEOUT_NANOS, TIMEOUT_NANOS))
+                .isFalse();
+        receiver.onDisconnect();
+        assertThat(receiver.isIdle(System.nanoTime(), TIMEOUT_NANOS)).isFalse();
+        assertThat(receiver.isIdle(System.nanoTime() + TIMEOUT_NANOS, TIMEOUT_NANOS))
+                .isTrue();
+    }
+}
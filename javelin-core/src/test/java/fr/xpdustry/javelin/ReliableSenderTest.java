@@ -0,0 +1,84 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.*;
+import java.nio.*;
+import java.util.concurrent.*;
+import org.java_websocket.client.*;
+import org.java_websocket.exceptions.*;
+import org.java_websocket.handshake.*;
+import org.junit.jupiter.api.*;
+
+public final class ReliableSenderTest {
+
+    private static final ByteBuffer FRAME = ByteBuffer.wrap(new byte[] {Internal.EVENT_FRAME, 1, 2, 3});
+
+    // The connection of a client never started, so the frames are kept for the next connection
+    private final WriteTracker closed =
+            new WriteTracker(new IdleClient().getConnection(), 0, "test", JavelinMetrics.noop());
+
+    @Test
+    void test_send_does_not_wait_for_window() {
+        final var sender = new ReliableSender(2);
+        // Like the subscriptions sent while the events wait for the window
+        for (int i = 0; i < 3; i++) {
+            sender.send(closed, FRAME);
+        }
+        assertThat(sender.countPending()).isEqualTo(3);
+        assertThat(FRAME.position()).isZero();
+        assertThatThrownBy(() -> sender.awaitRoom(() -> false)).isInstanceOf(WebsocketNotConnectedException.class);
+        sender.acknowledge(2L);
+        assertThat(sender.countPending()).isEqualTo(1);
+        sender.awaitRoom(() -> false);
+    }
+
+    @Test
+    void test_await_room_until_acknowledged() throws InterruptedException {
+        final var sender = new ReliableSender(1);
+        sender.send(closed, FRAME);
+        final var waiting = CompletableFuture.runAsync(() -> sender.awaitRoom(() -> true));
+        Thread.sleep(100L);
+        assertThat(waiting).isNotDone();
+        sender.acknowledge(1L);
+        assertThat(waiting).succeedsWithin(5L, TimeUnit.SECONDS);
+    }
+
+    static final class IdleClient extends WebSocketClient {
+
+        IdleClient() {
+            super(URI.create("ws://localhost:12345"));
+        }
+
+        @Override
+        public void onOpen(final ServerHandshake handshake) {}
+
+        @Override
+        public void onMessage(final String message) {}
+
+        @Override
+        public void onClose(final int code, final String reason, final boolean remote) {}
+
+        @Override
+        public void onError(final Exception ex) {}
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.*;
+import org.junit.jupiter.api.*;
+
+public final class SessionTokensTest {
+
+    @Test
+    void test_verify() {
+        final var tokens = new SessionTokens(Duration.ofMinutes(1L));
+        final var before = Instant.now().toEpochMilli();
+        final var token = tokens.issue("user");
+        assertThat(tokens.verify(token, "user")).isNotNull().satisfies(issued -> assertThat(issued.toEpochMilli())
+                .isGreaterThanOrEqualTo(before));
+        assertThat(tokens.verify(token, "other")).isNull();
+        // Signed by another server
+        assertThat(new SessionTokens(Duration.ofMinutes(1L)).verify(token, "user"))
+                .isNull();
+    }
+
+    @Test
+    void test_verify_tampered() {
+        final var tokens = new SessionTokens(Duration.ofMinutes(1L));
+        final var token = tokens.issue("user");
+        final var signature = token.substring(token.indexOf('.'));
+        final var forged = tokens.issue("admin");
+        assertThat(tokens.verify(forged.substring(0, forged.indexOf('.')) + signature, "admin"))
+                .isNull();
+        assertThat(tokens.verify("invalid", "user")).isNull();
+        assertThat(tokens.verify("in.valid", "user")).isNull();
+    }
+
+    @Test
+    void test_verify_expired() throws InterruptedException {
+        final var tokens = new SessionTokens(Duration.ofMillis(1L));
+        final var token = tokens.issue("user");
+        Thread.sleep(10L);
+        assertThat(tokens.verify(token, "user")).isNull();
+        assertThat(new SessionTokens(Duration.ZERO).isEnabled()).isFalse();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import fr.xpdustry.javelin.SimpleJavelinMetrics.*;
+import java.time.*;
+import org.junit.jupiter.api.*;
+
+public final class SimpleJavelinMetricsTest {
+
+    @Test
+    void test_histogram_buckets() {
+        for (long value = 0L; value < 100_000L; value++) {
+            final var bucket = Histogram.getBucket(value);
+            assertThat(Histogram.getUpperBound(bucket)).isGreaterThanOrEqualTo(value);
+            // The error is at most 25%, the buckets are split by the 3 highest bits
+            assertThat(Histogram.getUpperBound(bucket)).isLessThanOrEqualTo(value + value / 4);
+            if (bucket > 0) {
+                assertThat(Histogram.getUpperBound(bucket - 1)).isLessThan(value);
+            }
+        }
+        assertThat(Histogram.getUpperBound(Histogram.getBucket(Long.MAX_VALUE)))
+                .isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    void test_histogram_percentiles() {
+        final var metrics = JavelinMetrics.simple();
+        for (int i = 1; i <= 100; i++) {
+            metrics.onEventHandled("event", 0L, i * 1000L);
+        }
+        final var histogram = metrics.getEvents().get("event").getHandlingTime();
+        assertThat(histogram.getCount()).isEqualTo(100L);
+        assertThat(histogram.getMean()).isEqualTo(Duration.ofNanos(50_500L));
+        assertThat(histogram.getPercentile(0.5D)).isBetween(Duration.ofNanos(50_000L), Duration.ofNanos(62_500L));
+        assertThat(histogram.getPercentile(1D)).isBetween(Duration.ofNanos(100_000L), Duration.ofNanos(125_000L));
+        assertThatThrownBy(() -> histogram.getPercentile(2D)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void test_connection_discarded() {
+        final var metrics = JavelinMetrics.simple();
+        metrics.onConnectionOpened("client");
+        metrics.onFrameSent("client", 10);
+        metrics.onFrameReceived("client", 20);
+        metrics.onRoundTrip("client", 1000L);
+        final var connection = metrics.getConnections().get("client");
+        assertThat(connection.getBytesSent()).isEqualTo(10L);
+        assertThat(connection.getBytesReceived()).isEqualTo(20L);
+        assertThat(connection.getFrameSizesSent().getPercentile(1D)).isBetween(10L, 12L);
+        assertThat(connection.getFrameSizesReceived().getMean()).isEqualTo(20L);
+        assertThat(connection.getRoundTripTime().getCount()).isEqualTo(1L);
+        metrics.onConnectionClosed("client");
+        assertThat(metrics.getConnections()).isEmpty();
+        // The frames written after the closing don't bring the connection back
+        metrics.onFrameSent("client", 10);
+        metrics.onFrameReceived("client", 20);
+        metrics.onRoundTrip("client", 1000L);
+        assertThat(metrics.getConnections()).isEmpty();
+    }
+
+    @Test
+    void test_event_skipped() {
+        final var metrics = JavelinMetrics.simple();
+        metrics.onEventSkipped("event");
+        metrics.onEventSkipped("event");
+        assertThat(metrics.getEvents().get("event").getSkipped()).isEqualTo(2L);
+        assertThat(metrics.getEvents().get("event").getReceived()).isZero();
+    }
+}
@@ -19,8 +19,12 @@
 package fr.xpdustry.javelin;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.io.*;
 import java.nio.file.*;
+import java.time.*;
+import java.util.*;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.io.*;
 
@@ -37,6 +41,11 @@ public final class SimpleUserAuthenticatorTest {
         this.authenticator = new SimpleUserAuthenticator(tempDir.resolve("users.bin.gz"));
     }
 
+    @AfterEach
+    void teardown() throws IOException {
+        this.authenticator.close();
+    }
+
     @Test
     void test_save() {
         assertThat(this.authenticator.countUsers()).isEqualTo(0L);
@@ -47,11 +56,13 @@ public final class SimpleUserAuthenticatorTest {
     }
 
     @Test
-    void test_load() {
+    void test_load() throws IOException {
         this.authenticator.saveUser(USER1, USER1.toCharArray());
         this.authenticator.saveUser(USER2, USER2.toCharArray());
-        final var newAuthenticator = new SimpleUserAuthenticator(tempDir.resolve("users.bin.gz"));
-        assertThat(newAuthenticator.users).isEqualTo(this.authenticator.users);
+        this.authenticator.close();
+        try (final var newAuthenticator = new SimpleUserAuthenticator(tempDir.resolve("users.bin.gz"))) {
+            assertThat(newAuthenticator.users).isEqualTo(this.authenticator.users);
+        }
     }
 
     @Test
@@ -60,4 +71,67 @@ public final class SimpleUserAuthenticatorTest {
         assertThat(this.authenticator.authenticate(USER1, USER1.toCharArray())).isTrue();
         assertThat(this.authenticator.authenticate(USER1, USER2.toCharArray())).isFalse();
     }
+
+    @Test
+    void test_session_revoked() throws InterruptedException {
+        this.authenticator.saveUser(USER1, USER1.toCharArray());
+        Thread.sleep(10L);
+        final var issued = Instant.now();
+        assertThat(this.authenticator.isSessionValid(USER1, issued)).isTrue();
+        assertThat(this.authenticator.isSessionValid(USER2, issued)).isFalse();
+        this.authenticator.deleteUser(USER1);
+        this.authenticator.saveUser(USER1, USER1.toCharArray());
+        assertThat(this.authenticator.isSessionValid(USER1, issued)).isFalse();
+    }
+
+    @Test
+    void test_save_users_compacted() throws IOException, InterruptedException {
+        final var path = tempDir.resolve("compacted.bin.gz");
+        final var compacted = new SimpleUserAuthenticator(path, new CredentialCache(0, Duration.ZERO), 2);
+        try (compacted) {
+            compacted.saveUsers(Map.of(USER1, USER1.toCharArray(), USER2, USER2.toCharArray()));
+            compacted.deleteUser(USER2);
+            compacted.saveUser(USER2, USER2.toCharArray());
+
+            // The journal exceeded the threshold, its records are moved to the snapshot in the background
+            final var deadline = System.nanoTime() + Duration.ofSeconds(5L).toNanos();
+            while (!Files.exists(path)) {
+                assertThat(System.nanoTime()).isLessThan(deadline);
+                Thread.sleep(10L);
+            }
+        }
+        // Closing waited for the compaction, so the journal is no longer rewritten while being reopened
+        try (final var reopened = new SimpleUserAuthenticator(path)) {
+            assertThat(reopened.users).isEqualTo(compacted.users);
+        }
+        assertThat(compacted.users).containsOnlyKeys(USER1, USER2);
+    }
+
+    @Test
+    void test_load_partial_record() throws IOException {
+        this.authenticator.saveUser(USER1, USER1.toCharArray());
+        this.authenticator.close();
+        // A record cut by a crash
+        Files.write(tempDir.resolve("users.bin.gz.journal"), new byte[] {0, 0, 5}, StandardOpenOption.APPEND);
+        try (final var newAuthenticator = new SimpleUserAuthenticator(tempDir.resolve("users.bin.gz"))) {
+            assertThat(newAuthenticator.users).isEqualTo(this.authenticator.users);
+            newAuthenticator.saveUser(USER2, USER2.toCharArray());
+        }
+        try (final var reopened = new SimpleUserAuthenticator(tempDir.resolve("users.bin.gz"))) {
+            assertThat(reopened.users).containsOnlyKeys(USER1, USER2);
+        }
+    }
+
+    @Test
+    void test_closed() throws IOException {
+        this.authenticator.saveUser(USER1, USER1.toCharArray());
+        this.authenticator.close();
+        assertThatThrownBy(() -> this.authenticator.saveUser(USER2, USER2.toCharArray()))
+                .isInstanceOf(IllegalStateException.class);
+        // Closing twice does nothing
+        this.authenticator.close();
+        try (final var reopened = new SimpleUserAuthenticator(tempDir.resolve("users.bin.gz"))) {
+            assertThat(reopened.users).containsOnlyKeys(USER1);
+        }
+    }
 }
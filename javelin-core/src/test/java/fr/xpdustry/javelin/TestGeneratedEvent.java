@@ -0,0 +1,40 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.*;
+import org.checkerframework.checker.nullness.qual.*;
+
+@GenerateEventCodec
+public record TestGeneratedEvent(
+        int id,
+        long time,
+        char flag,
+        @Nullable String name,
+        @Nullable Color color,
+        @Nullable Integer count,
+        byte[] data,
+        List<@Nullable String> tags)
+        implements JavelinEvent {
+
+    public enum Color {
+        RED,
+        GREEN
+    }
+}
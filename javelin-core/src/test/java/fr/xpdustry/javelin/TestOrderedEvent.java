@@ -0,0 +1,57 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.util.*;
+import org.checkerframework.checker.nullness.qual.*;
+
+public final class TestOrderedEvent implements OrderedEvent {
+
+    private final int key;
+    private final String payload;
+
+    public TestOrderedEvent(final int key, final String payload) {
+        this.key = key;
+        this.payload = payload;
+    }
+
+    @Override
+    public Object getOrderingKey() {
+        return key;
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    @Override
+    public boolean equals(final @Nullable Object o) {
+        return this == o
+                || (o instanceof TestOrderedEvent event && key == event.key && Objects.equals(payload, event.payload));
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(key, payload);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+
+public final class VirtualThreadExecutorTest {
+
+    @Test
+    void test_ordered_execution() throws InterruptedException {
+        final var pool = Executors.newCachedThreadPool();
+        final var executor = new VirtualThreadExecutor(pool);
+        final var started = new CountDownLatch(1);
+        final var release = new CountDownLatch(1);
+        final var order = Collections.synchronizedList(new ArrayList<Integer>());
+        executor.execute("key", () -> {
+            started.countDown();
+            await(release);
+            order.add(1);
+        });
+        assertThat(started.await(5L, TimeUnit.SECONDS)).isTrue();
+        executor.execute("key", () -> order.add(2));
+        release.countDown();
+        executor.shutdown();
+        assertThat(pool.awaitTermination(5L, TimeUnit.SECONDS)).isTrue();
+        assertThat(order).containsExactly(1, 2);
+    }
+
+    @Test
+    void test_shutdown_rejects_tasks_of_running_keys() throws InterruptedException {
+        final var pool = Executors.newCachedThreadPool();
+        final var executor = new VirtualThreadExecutor(pool);
+        final var started = new CountDownLatch(1);
+        final var release = new CountDownLatch(1);
+        final var ran = new ArrayList<String>();
+        executor.execute("key", () -> {
+            started.countDown();
+            await(release);
+        });
+        assertThat(started.await(5L, TimeUnit.SECONDS)).isTrue();
+        executor.shutdown();
+        assertThatThrownBy(() -> executor.execute("key", () -> ran.add("key")))
+                .isInstanceOf(RejectedExecutionException.class);
+        release.countDown();
+        assertThat(pool.awaitTermination(5L, TimeUnit.SECONDS)).isTrue();
+        assertThat(ran).isEmpty();
+    }
+
+    @Test
+    void test_rejected_key_not_left_queued() throws InterruptedException {
+        // A single busy thread and no queue, so the pool rejects any other task
+        final var pool = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.SECONDS, new SynchronousQueue<>());
+        final var release = new CountDownLatch(1);
+        pool.execute(() -> await(release));
+        final var executor = new VirtualThreadExecutor(pool);
+        assertThatThrownBy(() -> executor.execute("key", () -> {})).isInstanceOf(RejectedExecutionException.class);
+        // Not queued behind a thread that was never started
+        assertThatThrownBy(() -> executor.execute("key", () -> {})).isInstanceOf(RejectedExecutionException.class);
+        release.countDown();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(5L, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -28,6 +28,8 @@ dependencies {
         exclude("org.slf4j")
     }
     mindustryDependencies()
+    // The codec of JavelinRawJsonEvent
+    annotationProcessor(project(":javelin-processor"))
     runtimeOnly("org.slf4j:slf4j-simple:1.7.36")
 }
 
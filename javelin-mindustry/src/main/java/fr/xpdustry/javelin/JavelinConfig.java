@@ -19,6 +19,7 @@
 package fr.xpdustry.javelin;
 
 import java.net.*;
+import java.time.*;
 
 public interface JavelinConfig {
 
@@ -34,10 +35,42 @@ public interface JavelinConfig {
 
     int getWorkerCount();
 
+    default int getServerDispatchWorkerCount() {
+        return 1;
+    }
+
+    default int getServerAuthenticationWorkerCount() {
+        return 2;
+    }
+
+    default int getServerMaxPendingAuthentications() {
+        return 64;
+    }
+
+    default Duration getServerSessionDuration() {
+        return Duration.ofMinutes(15L);
+    }
+
+    default boolean isVirtualThreadsEnabled() {
+        return false;
+    }
+
     default boolean alwaysAllowLocalConnections() {
         return false;
     }
 
+    default boolean isServerRelayOnly() {
+        return false;
+    }
+
+    default int getServerFanOutWorkerCount() {
+        return 0;
+    }
+
+    default int getClientReliableWindow() {
+        return 0;
+    }
+
     default boolean isAutoRestartEnabled() {
         return true;
     }
@@ -50,6 +83,18 @@ public interface JavelinConfig {
         return false;
     }
 
+    default BatchingPolicy getBatchingPolicy() {
+        return BatchingPolicy.disabled();
+    }
+
+    default CompressionPolicy getCompressionPolicy() {
+        return CompressionPolicy.of(256);
+    }
+
+    default OutboundQueuePolicy getOutboundQueuePolicy() {
+        return OutboundQueuePolicy.of(1024, OutboundQueuePolicy.Overflow.BLOCK);
+    }
+
     enum Mode {
         NONE,
         SERVER,
@@ -34,6 +34,8 @@ public final class JavelinPlugin extends Plugin {
     private static final File DIRECTORY = new File("javelin");
     private static final File CONFIG_FILE = new File(DIRECTORY, "config.properties");
 
+    private static final SimpleJavelinMetrics metrics = JavelinMetrics.simple();
+
     private static JavelinSocket socket = JavelinSocket.noop();
     private static UserAuthenticator authenticator =
             UserAuthenticator.create(new File(DIRECTORY, "users-v2.bin.gz").toPath());
@@ -55,6 +57,10 @@ public final class JavelinPlugin extends Plugin {
         return socket;
     }
 
+    public static SimpleJavelinMetrics getJavelinMetrics() {
+        return metrics;
+    }
+
     @SuppressWarnings("ResultOfMethodCallIgnored")
     @Override
     public void init() {
@@ -79,28 +85,52 @@ public final class JavelinPlugin extends Plugin {
 
         // Setup Javelin
         if (config.getMode() == JavelinConfig.Mode.SERVER) {
-            socket = JavelinSocket.server(
-                    config.getServerPort(),
-                    config.getWorkerCount(),
-                    config.alwaysAllowLocalConnections(),
-                    authenticator,
-                    config.isLocalBroadcastEnabled());
+            socket = JavelinSocket.serverBuilder(config.getServerPort(), authenticator)
+                    .workers(config.getWorkerCount())
+                    .dispatchWorkers(config.getServerDispatchWorkerCount())
+                    .authenticationWorkers(config.getServerAuthenticationWorkerCount())
+                    .maxPendingAuthentications(config.getServerMaxPendingAuthentications())
+                    .sessionDuration(config.getServerSessionDuration())
+                    .virtualThreads(config.isVirtualThreadsEnabled())
+                    .alwaysAllowLocalConnections(config.alwaysAllowLocalConnections())
+                    .relayOnly(config.isServerRelayOnly())
+                    .fanOutWorkers(config.getServerFanOutWorkerCount())
+                    .enableLocalBroadcast(config.isLocalBroadcastEnabled())
+                    .batchingPolicy(config.getBatchingPolicy())
+                    .compressionPolicy(config.getCompressionPolicy())
+                    .outboundQueuePolicy(config.getOutboundQueuePolicy())
+                    .metrics(metrics)
+                    .build();
         } else if (config.getMode() == JavelinConfig.Mode.CLIENT) {
-            if (config.getClientUsername().isBlank()) {
-                socket = JavelinSocket.client(config.getClientServerUri(), config.getWorkerCount());
-            } else {
-                socket = JavelinSocket.client(
-                        config.getClientServerUri(),
-                        config.getClientUsername(),
-                        config.getClientPassword(),
-                        config.getWorkerCount(),
-                        config.isLocalBroadcastEnabled());
+            final var builder = JavelinSocket.clientBuilder(config.getClientServerUri())
+                    .workers(config.getWorkerCount())
+                    .virtualThreads(config.isVirtualThreadsEnabled())
+                    .enableLocalBroadcast(config.isLocalBroadcastEnabled())
+                    .batchingPolicy(config.getBatchingPolicy())
+                    .compressionPolicy(config.getCompressionPolicy())
+                    .outboundQueuePolicy(config.getOutboundQueuePolicy())
+                    .reliableDelivery(config.getClientReliableWindow())
+                    .metrics(metrics);
+            if (!config.getClientUsername().isBlank()) {
+                builder.credentials(config.getClientUsername(), config.getClientPassword());
             }
+            socket = builder.build();
         }
 
         if (config.getMode() != Mode.NONE) {
             Core.app.addListener(new JavelinApplicationListener(socket));
         }
+        // Added last, so the users are still stored while the socket closes
+        Core.app.addListener(new ApplicationListener() {
+            @Override
+            public void dispose() {
+                try {
+                    authenticator.close();
+                } catch (final IOException e) {
+                    Log.err("Failed to close the user authenticator", e);
+                }
+            }
+        });
     }
 
     @Override
@@ -145,6 +175,40 @@ public final class JavelinPlugin extends Plugin {
             Log.info(
                     "The javelin socket is currently @.",
                     socket.getStatus().name().toLowerCase(Locale.ROOT));
+            final var statistics = socket.getOutboundStatistics();
+            Log.info(
+                    "Outbound events: @ queued, @ pending, @ written, @ failed.",
+                    statistics.getQueued(),
+                    statistics.getPending(),
+                    statistics.getWritten(),
+                    statistics.getFailed());
+            Log.info(
+                    "Outbound overflows: @ blocked, @ rejected, @ dropped oldest, @ dropped newest.",
+                    statistics.getBlocked(),
+                    statistics.getRejected(),
+                    statistics.getDroppedOldest(),
+                    statistics.getDroppedNewest());
+        });
+
+        handler.register("javelin-metrics", "Gets the metrics of the javelin socket.", args -> {
+            metrics.getGauges().forEach((name, value) -> Log.info("@: @", name, value));
+            metrics.getEvents()
+                    .forEach((name, event) -> Log.info(
+                            "@: @ sent, @ received, @ relayed, handled in @ us (p99 @ us), waited @ us (p99 @ us).",
+                            name,
+                            event.getSent(),
+                            event.getReceived(),
+                            event.getRelayed(),
+                            event.getHandlingTime().getMean().toNanos() / 1000L,
+                            event.getHandlingTime().getPercentile(0.99D).toNanos() / 1000L,
+                            event.getQueueTime().getMean().toNanos() / 1000L,
+                            event.getQueueTime().getPercentile(0.99D).toNanos() / 1000L));
+            metrics.getConnections()
+                    .forEach((name, connection) -> Log.info(
+                            "@: @ bytes in, @ bytes out.",
+                            name,
+                            connection.getBytesReceived(),
+                            connection.getBytesSent()));
         });
 
         handler.register("javelin-restart", "Restarts the Javelin socket.", args -> {
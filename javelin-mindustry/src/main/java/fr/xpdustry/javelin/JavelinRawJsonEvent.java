@@ -0,0 +1,89 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import org.checkerframework.checker.nullness.qual.*;
+
+/**
+ * A variant of {@link JavelinJsonEvent} keeping its json as the UTF-8 bytes received from the network. The json is only
+ * decoded when {@link #getJson()} is called, so the subscribers filtering the events by name or forwarding the json as
+ * is don't pay for it.
+ * <br>
+ * For javascript users.
+ * Do not use this class in a java plugin, create yours instead.
+ */
+@GenerateEventCodec
+public final class JavelinRawJsonEvent implements JavelinEvent {
+
+    // Package-private for the generated codec
+    final String name;
+    final byte[] json;
+    // Racy single-check, like String#hashCode, since the decoded strings are equal
+    private transient @Nullable String decoded;
+
+    public JavelinRawJsonEvent(final String name, final String json) {
+        this(name, json.getBytes(StandardCharsets.UTF_8));
+        this.decoded = json;
+    }
+
+    JavelinRawJsonEvent(final String name, final byte[] json) {
+        this.name = name;
+        this.json = json;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the json, decoded on the first call.
+     */
+    public String getJson() {
+        var decoded = this.decoded;
+        if (decoded == null) {
+            decoded = new String(json, StandardCharsets.UTF_8);
+            this.decoded = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * Returns the length of the json in UTF-8 bytes.
+     */
+    public int getJsonLength() {
+        return json.length;
+    }
+
+    /**
+     * Returns a read-only view of the json in UTF-8, without copying it.
+     */
+    public ByteBuffer getJsonBuffer() {
+        return ByteBuffer.wrap(json).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the json in UTF-8 to the given stream, without decoding it.
+     */
+    public void writeJson(final OutputStream stream) throws IOException {
+        stream.write(json);
+    }
+}
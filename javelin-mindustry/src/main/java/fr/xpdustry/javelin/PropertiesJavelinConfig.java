@@ -18,7 +18,10 @@
  */
 package fr.xpdustry.javelin;
 
+import java.io.*;
 import java.net.*;
+import java.nio.file.*;
+import java.time.*;
 import java.util.*;
 
 final class PropertiesJavelinConfig implements JavelinConfig {
@@ -27,27 +30,59 @@ final class PropertiesJavelinConfig implements JavelinConfig {
             CLIENT_USERNAME_KEY = "fr.xpdustry.javelin.client.username",
             CLIENT_PASSWORD_KEY = "fr.xpdustry.javelin.client.password",
             CLIENT_SERVER_URI_KEY = "fr.xpdustry.javelin.client.address",
+            CLIENT_RELIABLE_WINDOW_KEY = "fr.xpdustry.javelin.client.reliable-window",
             MODE_KEY = "fr.xpdustry.javelin.socket.mode",
             WORKERS_KEY = "fr.xpdustry.javelin.socket.workers",
+            VIRTUAL_THREADS_KEY = "fr.xpdustry.javelin.socket.virtual-threads",
+            SERVER_DISPATCH_WORKERS_KEY = "fr.xpdustry.javelin.server.dispatch-workers",
+            SERVER_AUTHENTICATION_WORKERS_KEY = "fr.xpdustry.javelin.server.authentication-workers",
+            SERVER_MAX_PENDING_AUTHENTICATIONS_KEY = "fr.xpdustry.javelin.server.max-pending-authentications",
+            SERVER_SESSION_DURATION_KEY = "fr.xpdustry.javelin.server.session-duration",
             ALWAYS_ALLOW_LOCAL_CONNECTIONS = "fr.xpdustry.javelin.server.always-allow-local-connections",
+            SERVER_RELAY_ONLY = "fr.xpdustry.javelin.server.relay-only",
+            SERVER_FAN_OUT_WORKERS_KEY = "fr.xpdustry.javelin.server.fan-out-workers",
             AUTO_RESTART = "fr.xpdustry.javelin.socket.auto-restart",
             INITIAL_CONNECTION_TIMEOUT = "fr.xpdustry.javelin.socket.initial-connection-timeout",
-            LOCAL_BROADCAST = "fr.xpdustry.javelin.socket.local-broadcast";
+            LOCAL_BROADCAST = "fr.xpdustry.javelin.socket.local-broadcast",
+            BATCHING_LINGER = "fr.xpdustry.javelin.socket.batching.linger",
+            BATCHING_MAX_SIZE = "fr.xpdustry.javelin.socket.batching.max-size",
+            BATCHING_MAX_EVENTS = "fr.xpdustry.javelin.socket.batching.max-events",
+            COMPRESSION_THRESHOLD = "fr.xpdustry.javelin.socket.compression.threshold",
+            COMPRESSION_LEVEL = "fr.xpdustry.javelin.socket.compression.level",
+            COMPRESSION_DICTIONARY = "fr.xpdustry.javelin.socket.compression.dictionary",
+            OUTBOUND_CAPACITY = "fr.xpdustry.javelin.socket.outbound.capacity",
+            OUTBOUND_OVERFLOW = "fr.xpdustry.javelin.socket.outbound.overflow";
 
     private static final Properties DEFAULTS = new Properties();
 
     static {
-        DEFAULTS.putAll(Map.of(
-                SERVER_PORT_KEY, "8080",
-                CLIENT_USERNAME_KEY, "",
-                CLIENT_PASSWORD_KEY, "",
-                CLIENT_SERVER_URI_KEY, "ws://localhost:8080",
-                MODE_KEY, "NONE",
-                WORKERS_KEY, "1",
-                ALWAYS_ALLOW_LOCAL_CONNECTIONS, "false",
-                AUTO_RESTART, "true",
-                INITIAL_CONNECTION_TIMEOUT, "3",
-                LOCAL_BROADCAST, "false"));
+        DEFAULTS.putAll(Map.ofEntries(
+                Map.entry(SERVER_PORT_KEY, "8080"),
+                Map.entry(CLIENT_USERNAME_KEY, ""),
+                Map.entry(CLIENT_PASSWORD_KEY, ""),
+                Map.entry(CLIENT_SERVER_URI_KEY, "ws://localhost:8080"),
+                Map.entry(MODE_KEY, "NONE"),
+                Map.entry(WORKERS_KEY, "1"),
+                Map.entry(SERVER_DISPATCH_WORKERS_KEY, "1"),
+                Map.entry(SERVER_AUTHENTICATION_WORKERS_KEY, "2"),
+                Map.entry(SERVER_MAX_PENDING_AUTHENTICATIONS_KEY, "64"),
+                Map.entry(SERVER_SESSION_DURATION_KEY, "900"),
+                Map.entry(VIRTUAL_THREADS_KEY, "false"),
+                Map.entry(ALWAYS_ALLOW_LOCAL_CONNECTIONS, "false"),
+                Map.entry(SERVER_RELAY_ONLY, "false"),
+                Map.entry(SERVER_FAN_OUT_WORKERS_KEY, "0"),
+                Map.entry(CLIENT_RELIABLE_WINDOW_KEY, "0"),
+                Map.entry(AUTO_RESTART, "true"),
+                Map.entry(INITIAL_CONNECTION_TIMEOUT, "3"),
+                Map.entry(LOCAL_BROADCAST, "false"),
+                Map.entry(BATCHING_LINGER, "0"),
+                Map.entry(BATCHING_MAX_SIZE, "16384"),
+                Map.entry(BATCHING_MAX_EVENTS, "64"),
+                Map.entry(COMPRESSION_THRESHOLD, "256"),
+                Map.entry(COMPRESSION_LEVEL, "-1"),
+                Map.entry(COMPRESSION_DICTIONARY, ""),
+                Map.entry(OUTBOUND_CAPACITY, "1024"),
+                Map.entry(OUTBOUND_OVERFLOW, "BLOCK")));
     }
 
     private final Properties properties;
@@ -91,11 +126,51 @@ final class PropertiesJavelinConfig implements JavelinConfig {
         return Integer.parseInt(properties.getProperty(WORKERS_KEY));
     }
 
+    @Override
+    public int getServerDispatchWorkerCount() {
+        return Integer.parseInt(properties.getProperty(SERVER_DISPATCH_WORKERS_KEY));
+    }
+
+    @Override
+    public int getServerAuthenticationWorkerCount() {
+        return Integer.parseInt(properties.getProperty(SERVER_AUTHENTICATION_WORKERS_KEY));
+    }
+
+    @Override
+    public int getServerMaxPendingAuthentications() {
+        return Integer.parseInt(properties.getProperty(SERVER_MAX_PENDING_AUTHENTICATIONS_KEY));
+    }
+
+    @Override
+    public Duration getServerSessionDuration() {
+        return Duration.ofSeconds(Long.parseLong(properties.getProperty(SERVER_SESSION_DURATION_KEY)));
+    }
+
+    @Override
+    public boolean isVirtualThreadsEnabled() {
+        return Boolean.parseBoolean(properties.getProperty(VIRTUAL_THREADS_KEY));
+    }
+
     @Override
     public boolean alwaysAllowLocalConnections() {
         return Boolean.parseBoolean(properties.getProperty(ALWAYS_ALLOW_LOCAL_CONNECTIONS));
     }
 
+    @Override
+    public boolean isServerRelayOnly() {
+        return Boolean.parseBoolean(properties.getProperty(SERVER_RELAY_ONLY));
+    }
+
+    @Override
+    public int getServerFanOutWorkerCount() {
+        return Integer.parseInt(properties.getProperty(SERVER_FAN_OUT_WORKERS_KEY));
+    }
+
+    @Override
+    public int getClientReliableWindow() {
+        return Integer.parseInt(properties.getProperty(CLIENT_RELIABLE_WINDOW_KEY));
+    }
+
     @Override
     public boolean isAutoRestartEnabled() {
         return Boolean.parseBoolean(properties.getProperty(AUTO_RESTART));
@@ -110,4 +185,41 @@ final class PropertiesJavelinConfig implements JavelinConfig {
     public boolean isLocalBroadcastEnabled() {
         return Boolean.parseBoolean(properties.getProperty(LOCAL_BROADCAST));
     }
+
+    @Override
+    public BatchingPolicy getBatchingPolicy() {
+        final var linger = Long.parseLong(properties.getProperty(BATCHING_LINGER));
+        if (linger <= 0L) {
+            return BatchingPolicy.disabled();
+        }
+        return BatchingPolicy.of(
+                Integer.parseInt(properties.getProperty(BATCHING_MAX_SIZE)),
+                Integer.parseInt(properties.getProperty(BATCHING_MAX_EVENTS)),
+                linger);
+    }
+
+    @Override
+    public CompressionPolicy getCompressionPolicy() {
+        final var threshold = Integer.parseInt(properties.getProperty(COMPRESSION_THRESHOLD));
+        if (threshold < 0) {
+            return CompressionPolicy.disabled();
+        }
+        final var policy = CompressionPolicy.of(threshold, Integer.parseInt(properties.getProperty(COMPRESSION_LEVEL)));
+        final var dictionary = properties.getProperty(COMPRESSION_DICTIONARY);
+        if (dictionary.isBlank()) {
+            return policy;
+        }
+        try {
+            return policy.withDictionary(Files.readAllBytes(Path.of(dictionary)));
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to read the compression dictionary.", e);
+        }
+    }
+
+    @Override
+    public OutboundQueuePolicy getOutboundQueuePolicy() {
+        return OutboundQueuePolicy.of(
+                Integer.parseInt(properties.getProperty(OUTBOUND_CAPACITY)),
+                OutboundQueuePolicy.Overflow.valueOf(properties.getProperty(OUTBOUND_OVERFLOW)));
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+public final class JavelinRawJsonEventTest {
+
+    private static final String JSON = "{\"text\":\"h\u00e9llo\"}";
+
+    private final EventSerializer serializer = new EventSerializer();
+
+    @Test
+    void test_generated_codec() {
+        assertThat(EventSerializer.getGeneratedCodec(JavelinRawJsonEvent.class)).isNotNull();
+        final var event = roundTrip(new JavelinRawJsonEvent("name", JSON));
+        assertThat(event.getName()).isEqualTo("name");
+        assertThat(event.getJsonLength()).isEqualTo(JSON.getBytes(StandardCharsets.UTF_8).length);
+        assertThat(event.getJson()).isEqualTo(JSON);
+        // Decoded once
+        assertThat(event.getJson()).isSameAs(event.getJson());
+    }
+
+    @Test
+    void test_json_decoded_lazily() {
+        // Not valid UTF-8, so decoding while reading the event would have replaced it
+        final var bytes = new byte[] {'"', (byte) 0xC3, '"'};
+        final var event = roundTrip(new JavelinRawJsonEvent("name", bytes));
+        final var buffer = event.getJsonBuffer();
+        final var received = new byte[buffer.remaining()];
+        buffer.get(received);
+        assertThat(received).containsExactly(bytes);
+        assertThat(event.getJson()).isEqualTo("\"\uFFFD\"");
+    }
+
+    @Test
+    void test_json_buffer_read_only() {
+        final var event = roundTrip(new JavelinRawJsonEvent("name", JSON));
+        final var buffer = event.getJsonBuffer();
+        assertThat(buffer.isReadOnly()).isTrue();
+        assertThatThrownBy(() -> buffer.put(0, (byte) 0)).isInstanceOf(ReadOnlyBufferException.class);
+        // Each call returns a new view
+        buffer.position(buffer.limit());
+        assertThat(event.getJsonBuffer().remaining()).isEqualTo(event.getJsonLength());
+        assertThat(event.getJson()).isEqualTo(JSON);
+    }
+
+    @Test
+    void test_write_json() throws IOException {
+        final var event = roundTrip(new JavelinRawJsonEvent("name", JSON));
+        final var stream = new ByteArrayOutputStream();
+        event.writeJson(stream);
+        assertThat(stream.toByteArray()).isEqualTo(JSON.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Serializes the event in an event frame like a socket, then reads it back like its peer
+    private JavelinRawJsonEvent roundTrip(final JavelinRawJsonEvent event) {
+        final var output = serializer.serialize(event);
+        try {
+            final var frame = output.getByteBuffer();
+            final var definitions = new HashMap<Integer, String[]>();
+            final var definition = serializer.serialize(serializer.readClassId(frame));
+            try {
+                assertThat(serializer.readDefinition(definition.getByteBuffer(), definitions))
+                        .isTrue();
+            } finally {
+                serializer.release(definition);
+            }
+            final var names = Objects.requireNonNull(serializer.readEventHeader(frame, definitions));
+            return (JavelinRawJsonEvent) Objects.requireNonNull(serializer.deserialize(names, frame, clazz -> true));
+        } finally {
+            serializer.release(output);
+        }
+    }
+}
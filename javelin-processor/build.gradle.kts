@@ -0,0 +1,8 @@
+plugins {
+    id("javelin.base-conventions")
+}
+
+dependencies {
+    // The tests compile events with the processor, against the annotation and the codec interface
+    testImplementation(project(":javelin-core"))
+}
@@ -0,0 +1,567 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin.processor;
+
+import java.io.*;
+import java.util.*;
+import javax.annotation.processing.*;
+import javax.lang.model.*;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.*;
+import javax.tools.*;
+import org.checkerframework.checker.nullness.qual.*;
+
+/**
+ * Generates the {@code EventCodec} of the event classes annotated with {@code GenerateEventCodec}, so they are
+ * serialized with straight-line code instead of the reflective serializer of kryo.
+ * <br>
+ * The codec of {@code com.example.Outer.InnerEvent} is generated as {@code com.example.Outer_InnerEvent_EventCodec},
+ * the sockets look it up by this name. The fields are written in declaration order, the integers as zigzag variable
+ * length integers like kryo, and the nullable values are prefixed by a presence flag.
+ */
+@SupportedAnnotationTypes(EventCodecProcessor.ANNOTATION)
+public final class EventCodecProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "fr.xpdustry.javelin.GenerateEventCodec";
+    private static final String EVENT = "fr.xpdustry.javelin.JavelinEvent";
+    private static final String EVENT_CODEC = "fr.xpdustry.javelin.EventCodec";
+    // The sizes are read from the network, so they are not trusted to preallocate the lists
+    private static final int MAX_INITIAL_CAPACITY = 256;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+        for (final var annotation : annotations) {
+            for (final var element : round.getElementsAnnotatedWith(annotation)) {
+                if (element instanceof TypeElement type && isValidEvent(type)) {
+                    final var properties = getProperties(type);
+                    if (properties != null) {
+                        generate(type, properties);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isValidEvent(final TypeElement type) {
+        if (type.getKind() != ElementKind.CLASS && type.getKind() != ElementKind.RECORD) {
+            return error(type, "Only records and classes can be annotated with @GenerateEventCodec.");
+        }
+        final var event = processingEnv.getElementUtils().getTypeElement(EVENT);
+        if (event == null || !processingEnv.getTypeUtils().isAssignable(type.asType(), event.asType())) {
+            return error(type, "The annotated class must implement " + EVENT + ".");
+        }
+        if (type.getModifiers().contains(Modifier.ABSTRACT)
+                || !type.getTypeParameters().isEmpty()) {
+            return error(type, "The annotated class must be concrete and not generic.");
+        }
+        if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+            return error(type, "The annotated class must be a top level or a static nested class.");
+        }
+        // The generated codec is in the same package, the event must be reachable from it
+        for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                return error(type, "The annotated class and its enclosing classes must not be private.");
+            }
+            if (element.getKind() == ElementKind.CLASS
+                    && ((TypeElement) element).getNestingKind() == NestingKind.MEMBER
+                    && !element.getModifiers().contains(Modifier.STATIC)) {
+                return error(type, "The annotated class must be a top level or a static nested class.");
+            }
+        }
+        if (type.getKind() == ElementKind.CLASS && !isType(type.getSuperclass(), "java.lang.Object")) {
+            return error(type, "The annotated class must not extend another class.");
+        }
+        return true;
+    }
+
+    private @Nullable List<Property> getProperties(final TypeElement type) {
+        final var properties = new ArrayList<Property>();
+        var valid = true;
+        if (type.getKind() == ElementKind.RECORD) {
+            for (final var component : type.getRecordComponents()) {
+                final var property = new Property(
+                        component.getSimpleName().toString(),
+                        component.asType(),
+                        "event." + component.getAccessor().getSimpleName() + "()");
+                valid &= isSupported(component, property.type, false);
+                properties.add(property);
+            }
+            // The canonical constructor takes the components in order
+            return valid ? properties : null;
+        }
+
+        for (final var field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (field.getModifiers().contains(Modifier.STATIC)
+                    || field.getModifiers().contains(Modifier.TRANSIENT)) {
+                continue;
+            }
+            final var accessor = getAccessor(type, field);
+            if (accessor == null) {
+                valid = error(field, "The field is private and has no getter.");
+                continue;
+            }
+            valid &= isSupported(field, field.asType(), false);
+            properties.add(new Property(field.getSimpleName().toString(), field.asType(), accessor));
+        }
+        if (!valid) {
+            return null;
+        }
+
+        // Reorders the properties like the parameters of the constructor taking all of them
+        for (final var constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getModifiers().contains(Modifier.PRIVATE)
+                    || constructor.getParameters().size() != properties.size()) {
+                continue;
+            }
+            final var ordered = new ArrayList<Property>();
+            for (final var parameter : constructor.getParameters()) {
+                properties.stream()
+                        .filter(property -> property.name.contentEquals(parameter.getSimpleName())
+                                && processingEnv.getTypeUtils().isSameType(property.type, parameter.asType()))
+                        .findFirst()
+                        .ifPresent(ordered::add);
+            }
+            if (ordered.size() == properties.size()) {
+                // The fields are written in declaration order, the parameters only tell how to create the event
+                for (final var property : properties) {
+                    property.parameter = ordered.indexOf(property);
+                }
+                return properties;
+            }
+        }
+        error(type, "The annotated class must have a constructor taking all its fields, with the same names.");
+        return null;
+    }
+
+    private @Nullable String getAccessor(final TypeElement type, final VariableElement field) {
+        if (!field.getModifiers().contains(Modifier.PRIVATE)) {
+            return "event." + field.getSimpleName();
+        }
+        final var name = field.getSimpleName().toString();
+        final var capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        final var candidates = field.asType().getKind() == TypeKind.BOOLEAN
+                ? List.of("is" + capitalized, "get" + capitalized, name)
+                : List.of("get" + capitalized, name);
+        for (final var candidate : candidates) {
+            for (final var method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+                if (method.getSimpleName().contentEquals(candidate)
+                        && method.getParameters().isEmpty()
+                        && !method.getModifiers().contains(Modifier.PRIVATE)
+                        && !method.getModifiers().contains(Modifier.STATIC)
+                        && processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType())) {
+                    return "event." + candidate + "()";
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean isSupported(final Element element, final TypeMirror type, final boolean listElement) {
+        final var kind = getKind(type);
+        final var supported =
+                listElement ? kind == Kind.BOXED || kind == Kind.STRING || kind == Kind.ENUM : kind != Kind.UNSUPPORTED;
+        if (!supported) {
+            return error(
+                    element,
+                    "Unsupported type " + type + ", remove @GenerateEventCodec to serialize the class with kryo.");
+        }
+        if (kind == Kind.LIST) {
+            return isSupported(element, getElementType(type), true);
+        }
+        return true;
+    }
+
+    private Kind getKind(final TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return Kind.PRIMITIVE;
+        } else if (type.getKind() == TypeKind.ARRAY) {
+            return ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE ? Kind.BYTES : Kind.UNSUPPORTED;
+        } else if (type.getKind() != TypeKind.DECLARED) {
+            return Kind.UNSUPPORTED;
+        } else if (processingEnv.getTypeUtils().asElement(type).getKind() == ElementKind.ENUM) {
+            return Kind.ENUM;
+        } else if (isType(type, "java.lang.String")) {
+            return Kind.STRING;
+        } else if (isType(type, "java.util.List")) {
+            return ((DeclaredType) type).getTypeArguments().size() == 1 ? Kind.LIST : Kind.UNSUPPORTED;
+        }
+        try {
+            processingEnv.getTypeUtils().unboxedType(type);
+            return Kind.BOXED;
+        } catch (final IllegalArgumentException e) {
+            return Kind.UNSUPPORTED;
+        }
+    }
+
+    private boolean isType(final TypeMirror type, final String name) {
+        return type.getKind() == TypeKind.DECLARED && getName(type).equals(name);
+    }
+
+    private String getName(final TypeMirror type) {
+        return ((TypeElement) processingEnv.getTypeUtils().asElement(type))
+                .getQualifiedName()
+                .toString();
+    }
+
+    private TypeMirror getElementType(final TypeMirror type) {
+        return ((DeclaredType) type).getTypeArguments().get(0);
+    }
+
+    private void generate(final TypeElement type, final List<Property> properties) {
+        final var elements = processingEnv.getElementUtils();
+        final var packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        final var binaryName = elements.getBinaryName(type).toString();
+        final var simpleName =
+                (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)).replace('$', '_')
+                        + "_EventCodec";
+        final var eventName = type.getQualifiedName().toString();
+
+        final var generator = new CodeGenerator();
+        final var encode = new StringBuilder();
+        final var decode = new StringBuilder();
+        for (final var property : properties) {
+            final var local = "$" + property.name;
+            encode.append("        final var ")
+                    .append(local)
+                    .append(" = ")
+                    .append(property.accessor)
+                    .append(";\n");
+            generator.write(property.type, local, encode, "        ");
+            generator.read(property.type, local, decode, "        ");
+        }
+        final var arguments = new String[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            final var property = properties.get(i);
+            arguments[property.parameter < 0 ? i : property.parameter] = "$" + property.name;
+        }
+
+        final var source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("@javax.annotation.processing.Generated(\"")
+                .append(EventCodecProcessor.class.getName())
+                .append("\")\n");
+        // The decoded values are only null if they were null when encoded, which NullAway can't tell
+        source.append("@java.lang.SuppressWarnings(\"NullAway\")\n");
+        source.append("public final class ")
+                .append(simpleName)
+                .append(" implements ")
+                .append(EVENT_CODEC)
+                .append('<')
+                .append(eventName)
+                .append("> {\n\n");
+        generator.constants.forEach((name, constant) -> source.append("    private static final ")
+                .append(name)
+                .append("[] ")
+                .append(constant)
+                .append(" = ")
+                .append(name)
+                .append(".values();\n\n"));
+        source.append("    @java.lang.Override\n    public void encode(final ")
+                .append(eventName)
+                .append(" event, final ")
+                .append(EVENT_CODEC)
+                .append(".Writer writer) {\n")
+                .append(encode)
+                .append("    }\n\n");
+        source.append("    @java.lang.Override\n    public ")
+                .append(eventName)
+                .append(" decode(final ")
+                .append(EVENT_CODEC)
+                .append(".Reader reader) {\n")
+                .append(decode)
+                .append("        return new ")
+                .append(eventName)
+                .append('(')
+                .append(String.join(", ", arguments))
+                .append(");\n    }\n}\n");
+
+        final var qualifiedName = packageName.isEmpty() ? simpleName : packageName + '.' + simpleName;
+        try (final var writer =
+                processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter()) {
+            writer.write(source.toString());
+        } catch (final IOException e) {
+            error(type, "Failed to write the generated codec: " + e.getMessage());
+        }
+    }
+
+    private boolean error(final Element element, final String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+        return false;
+    }
+
+    private enum Kind {
+        PRIMITIVE,
+        BOXED,
+        STRING,
+        ENUM,
+        BYTES,
+        LIST,
+        UNSUPPORTED
+    }
+
+    private static final class Property {
+
+        private final String name;
+        private final TypeMirror type;
+        private final String accessor;
+        // The index of the constructor parameter, or -1 for the canonical constructor of a record
+        private int parameter = -1;
+
+        private Property(final String name, final TypeMirror type, final String accessor) {
+            this.name = name;
+            this.type = type;
+            this.accessor = accessor;
+        }
+    }
+
+    // Writes the statements encoding and decoding a value, the value being held by a local variable
+    private final class CodeGenerator {
+
+        // The values of the enums, cached since Enum#values() copies the array
+        private final Map<String, String> constants = new LinkedHashMap<>();
+
+        private void write(final TypeMirror type, final String local, final StringBuilder out, final String indent) {
+            switch (getKind(type)) {
+                case PRIMITIVE -> out.append(indent)
+                        .append(writePrimitive(type.getKind(), local))
+                        .append('\n');
+                case BOXED -> {
+                    final var unboxed = processingEnv.getTypeUtils().unboxedType(type);
+                    out.append(indent)
+                            .append("writer.writeBoolean(")
+                            .append(local)
+                            .append(" != null);\n");
+                    out.append(indent).append("if (").append(local).append(" != null) {\n");
+                    out.append(indent).append("    ").append(writePrimitive(unboxed.getKind(), local));
+                    out.append('\n').append(indent).append("}\n");
+                }
+                case STRING -> out.append(indent)
+                        .append("writer.writeString(")
+                        .append(local)
+                        .append(");\n");
+                case ENUM -> out.append(indent)
+                        .append("writer.writeVarInt(")
+                        .append(local)
+                        .append(" == null ? 0 : ")
+                        .append(local)
+                        .append(".ordinal() + 1);\n");
+                case BYTES -> {
+                    out.append(indent).append("if (").append(local).append(" == null) {\n");
+                    out.append(indent).append("    writer.writeVarInt(0);\n");
+                    out.append(indent).append("} else {\n");
+                    out.append(indent)
+                            .append("    writer.writeVarInt(")
+                            .append(local)
+                            .append(".length + 1);\n");
+                    out.append(indent)
+                            .append("    writer.writeBytes(")
+                            .append(local)
+                            .append(", 0, ")
+                            .append(local)
+                            .append(".length);\n");
+                    out.append(indent).append("}\n");
+                }
+                case LIST -> {
+                    final var element = local + "$element";
+                    out.append(indent).append("if (").append(local).append(" == null) {\n");
+                    out.append(indent).append("    writer.writeVarInt(0);\n");
+                    out.append(indent).append("} else {\n");
+                    out.append(indent)
+                            .append("    writer.writeVarInt(")
+                            .append(local)
+                            .append(".size() + 1);\n");
+                    out.append(indent)
+                            .append("    for (final var ")
+                            .append(element)
+                            .append(" : ")
+                            .append(local)
+                            .append(") {\n");
+                    write(getElementType(type), element, out, indent + "        ");
+                    out.append(indent).append("    }\n");
+                    out.append(indent).append("}\n");
+                }
+                default -> throw new IllegalStateException("Unsupported type " + type);
+            }
+        }
+
+        private void read(final TypeMirror type, final String local, final StringBuilder out, final String indent) {
+            switch (getKind(type)) {
+                case PRIMITIVE -> readPrimitive(type.getKind(), "final var " + local, local, out, indent);
+                case BOXED -> {
+                    final var unboxed = processingEnv.getTypeUtils().unboxedType(type);
+                    out.append(indent)
+                            .append("final ")
+                            .append(getName(type))
+                            .append(' ')
+                            .append(local)
+                            .append(";\n");
+                    out.append(indent).append("if (reader.readBoolean()) {\n");
+                    readPrimitive(unboxed.getKind(), local, local, out, indent + "    ");
+                    out.append(indent).append("} else {\n");
+                    out.append(indent).append("    ").append(local).append(" = null;\n");
+                    out.append(indent).append("}\n");
+                }
+                case STRING -> out.append(indent)
+                        .append("final var ")
+                        .append(local)
+                        .append(" = reader.readString();\n");
+                case ENUM -> {
+                    final var name = getName(type);
+                    final var constant = constants.computeIfAbsent(name, key -> "$VALUES" + constants.size());
+                    out.append(indent).append("final var ").append(local).append("$ordinal = reader.readVarInt();\n");
+                    out.append(indent)
+                            .append("if (")
+                            .append(local)
+                            .append("$ordinal < 0 || ")
+                            .append(local)
+                            .append("$ordinal > ")
+                            .append(constant)
+                            .append(".length) {\n");
+                    out.append(indent)
+                            .append("    throw new java.lang.IllegalArgumentException(\"Invalid ordinal of ")
+                            .append(name)
+                            .append(": \" + ")
+                            .append(local)
+                            .append("$ordinal);\n");
+                    out.append(indent).append("}\n");
+                    out.append(indent)
+                            .append("final var ")
+                            .append(local)
+                            .append(" = ")
+                            .append(local)
+                            .append("$ordinal == 0 ? null : ")
+                            .append(constant)
+                            .append('[')
+                            .append(local)
+                            .append("$ordinal - 1];\n");
+                }
+                case BYTES -> {
+                    out.append(indent)
+                            .append("final var ")
+                            .append(local)
+                            .append("$length = reader.readVarInt() - 1;\n");
+                    // Any other negative length is rejected by the reader, along with the lengths past the input
+                    out.append(indent)
+                            .append("final var ")
+                            .append(local)
+                            .append(" = ")
+                            .append(local)
+                            .append("$length == -1 ? null : reader.readBytes(")
+                            .append(local)
+                            .append("$length);\n");
+                }
+                case LIST -> {
+                    final var elementType = getElementType(type);
+                    final var list = "java.util.ArrayList<" + getName(elementType) + ">";
+                    final var element = local + "$element";
+                    out.append(indent).append("final var ").append(local).append("$size = reader.readVarInt() - 1;\n");
+                    out.append(indent)
+                            .append("final var ")
+                            .append(local)
+                            .append(" = ")
+                            .append(local)
+                            .append("$size < 0 ? null : new ")
+                            .append(list)
+                            .append("(java.lang.Math.min(")
+                            .append(local)
+                            .append("$size, ")
+                            .append(MAX_INITIAL_CAPACITY)
+                            .append("));\n");
+                    out.append(indent)
+                            .append("for (int i = 0; i < ")
+                            .append(local)
+                            .append("$size; i++) {\n");
+                    read(elementType, element, out, indent + "    ");
+                    out.append(indent)
+                            .append("    ")
+                            .append(local)
+                            .append(".add(")
+                            .append(element)
+                            .append(");\n");
+                    out.append(indent).append("}\n");
+                }
+                default -> throw new IllegalStateException("Unsupported type " + type);
+            }
+        }
+
+        private String writePrimitive(final TypeKind kind, final String local) {
+            return switch (kind) {
+                case BOOLEAN -> "writer.writeBoolean(" + local + ");";
+                case BYTE -> "writer.writeByte(" + local + ");";
+                case SHORT -> "writer.writeShort(" + local + ");";
+                case CHAR -> "writer.writeShort((short) " + local + ");";
+                case INT -> "writer.writeVarInt((" + local + " << 1) ^ (" + local + " >> 31));";
+                case LONG -> "writer.writeVarLong((" + local + " << 1) ^ (" + local + " >> 63));";
+                case FLOAT -> "writer.writeFloat(" + local + ");";
+                case DOUBLE -> "writer.writeDouble(" + local + ");";
+                default -> throw new IllegalStateException("Unsupported type " + kind);
+            };
+        }
+
+        // Assigns the read value to the target, which is either a declaration or an existing variable
+        private void readPrimitive(
+                final TypeKind kind,
+                final String target,
+                final String local,
+                final StringBuilder out,
+                final String indent) {
+            final var expression =
+                    switch (kind) {
+                        case BOOLEAN -> "reader.readBoolean()";
+                        case BYTE -> "reader.readByte()";
+                        case SHORT -> "reader.readShort()";
+                        case CHAR -> "(char) reader.readShort()";
+                        case INT, LONG -> null;
+                        case FLOAT -> "reader.readFloat()";
+                        case DOUBLE -> "reader.readDouble()";
+                        default -> throw new IllegalStateException("Unsupported type " + kind);
+                    };
+            if (expression != null) {
+                out.append(indent)
+                        .append(target)
+                        .append(" = ")
+                        .append(expression)
+                        .append(";\n");
+                return;
+            }
+            // Decodes the zigzag encoding
+            final var raw = local + "$raw";
+            out.append(indent)
+                    .append("final var ")
+                    .append(raw)
+                    .append(kind == TypeKind.INT ? " = reader.readVarInt();\n" : " = reader.readVarLong();\n");
+            out.append(indent)
+                    .append(target)
+                    .append(" = (")
+                    .append(raw)
+                    .append(" >>> 1) ^ -(")
+                    .append(raw)
+                    .append(" & 1);\n");
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Javelin, a simple communication protocol for broadcasting events on a network.
+ *
+ * Copyright (C) 2023 Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.xpdustry.javelin.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import fr.xpdustry.javelin.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import javax.tools.*;
+import org.checkerframework.checker.nullness.qual.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+public final class EventCodecProcessorTest {
+
+    @TempDir
+    private Path output;
+
+    @Test
+    void test_class_round_trip() throws Exception {
+        final var diagnostics = compile(
+                "test.ClassEvent",
+                """
+                package test;
+
+                @fr.xpdustry.javelin.GenerateEventCodec
+                public final class ClassEvent implements fr.xpdustry.javelin.JavelinEvent {
+
+                    private final boolean active;
+                    private final java.util.List<Long> values;
+                    final String name;
+
+                    public ClassEvent(final String name, final boolean active, final java.util.List<Long> values) {
+                        this.name = name;
+                        this.active = active;
+                        this.values = values;
+                    }
+
+                    public boolean isActive() {
+                        return active;
+                    }
+
+                    public java.util.List<Long> values() {
+                        return values;
+                    }
+                }
+                """);
+        assertThat(diagnostics).isEmpty();
+
+        try (final var loader = new URLClassLoader(
+                new URL[] {output.toUri().toURL()}, getClass().getClassLoader())) {
+            final var clazz = loader.loadClass("test.ClassEvent");
+            final var event = clazz.getConstructor(String.class, boolean.class, List.class)
+                    .newInstance("test", true, Arrays.asList(1L, null, -1L));
+
+            @SuppressWarnings("unchecked")
+            final var codec = (EventCodec<JavelinEvent>) loader.loadClass("test.ClassEvent_EventCodec")
+                    .getConstructor()
+                    .newInstance();
+            final var buffer = new ValueBuffer();
+            codec.encode((JavelinEvent) event, buffer);
+            final var decoded = codec.decode(buffer);
+
+            assertThat(decoded).usingRecursiveComparison().isEqualTo(event);
+        }
+    }
+
+    @Test
+    void test_unsupported_field() {
+        final var diagnostics = compile(
+                "test.UnsupportedEvent",
+                """
+                package test;
+
+                @fr.xpdustry.javelin.GenerateEventCodec
+                public record UnsupportedEvent(java.util.Map<String, String> values)
+                        implements fr.xpdustry.javelin.JavelinEvent {}
+                """);
+        assertThat(diagnostics).singleElement().asString().contains("Unsupported type");
+    }
+
+    @Test
+    void test_missing_getter() {
+        final var diagnostics = compile(
+                "test.MissingGetterEvent",
+                """
+                package test;
+
+                @fr.xpdustry.javelin.GenerateEventCodec
+                public final class MissingGetterEvent implements fr.xpdustry.javelin.JavelinEvent {
+
+                    private final String name;
+
+                    public MissingGetterEvent(final String name) {
+                        this.name = name;
+                    }
+                }
+                """);
+        assertThat(diagnostics).singleElement().asString().contains("has no getter");
+    }
+
+    @Test
+    void test_missing_constructor() {
+        final var diagnostics = compile(
+                "test.MissingConstructorEvent",
+                """
+                package test;
+
+                @fr.xpdustry.javelin.GenerateEventCodec
+                public final class MissingConstructorEvent implements fr.xpdustry.javelin.JavelinEvent {
+
+                    final String name;
+                    final int value;
+
+                    public MissingConstructorEvent(final String other, final int value) {
+                        this.name = other;
+                        this.value = value;
+                    }
+                }
+                """);
+        assertThat(diagnostics).singleElement().asString().contains("constructor taking all its fields");
+    }
+
+    // Returns the error messages
+    private List<String> compile(final String name, final String source) {
+        final var compiler = ToolProvider.getSystemJavaCompiler();
+        final var collector = new DiagnosticCollector<JavaFileObject>();
+        final var file =
+                new SimpleJavaFileObject(
+                        URI.create("string:///" + name.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+                    @Override
+                    public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+                        return source;
+                    }
+                };
+        // The generated codec is compiled with the event
+        final var options = List.of("-d", output.toString(), "-classpath", System.getProperty("java.class.path"));
+        final var task = compiler.getTask(null, null, collector, options, null, List.of(file));
+        task.setProcessors(List.of(new EventCodecProcessor()));
+        task.call();
+        return collector.getDiagnostics().stream()
+                .filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                .map(diagnostic -> diagnostic.getMessage(Locale.ROOT))
+                .toList();
+    }
+
+    // Keeps the written values in order, to check the generated codec without the buffers of the sockets
+    private static final class ValueBuffer implements EventCodec.Writer, EventCodec.Reader {
+
+        // Unlike ArrayDeque, LinkedList accepts the null strings
+        @SuppressWarnings("JdkObsolete")
+        private final Queue<@Nullable Object> values = new LinkedList<>();
+
+        @Override
+        public void writeBoolean(final boolean value) {
+            values.add(value);
+        }
+
+        @Override
+        public void writeByte(final byte value) {
+            values.add(value);
+        }
+
+        @Override
+        public void writeShort(final short value) {
+            values.add(value);
+        }
+
+        @Override
+        public void writeInt(final int value) {
+            values.add(value);
+        }
+
+        @Override
+        public void writeVarInt(final int value) {
+            values.add(value);
+        }
+
+        @Override
+        public void writeLong(final long value) {
+            values.add(value);
+        }
+
+        @Override
+        public void writeVarLong(final long value) {
+            values.add(value);
+        }
+
+        @Override
+        public void writeFloat(final float value) {
+            values.add(value);
+        }
+
+        @Override
+        public void writeDouble(final double value) {
+            values.add(value);
+        }
+
+        @Override
+        public void writeString(final @Nullable String value) {
+            values.add(value);
+        }
+
+        @Override
+        public void writeBytes(final byte[] bytes, final int offset, final int length) {
+            values.add(Arrays.copyOfRange(bytes, offset, offset + length));
+        }
+
+        @Override
+        public boolean readBoolean() {
+            return (boolean) Objects.requireNonNull(values.remove());
+        }
+
+        @Override
+        public byte readByte() {
+            return (byte) Objects.requireNonNull(values.remove());
+        }
+
+        @Override
+        public short readShort() {
+            return (short) Objects.requireNonNull(values.remove());
+        }
+
+        @Override
+        public int readInt() {
+            return (int) Objects.requireNonNull(values.remove());
+        }
+
+        @Override
+        public int readVarInt() {
+            return readInt();
+        }
+
+        @Override
+        public long readLong() {
+            return (long) Objects.requireNonNull(values.remove());
+        }
+
+        @Override
+        public long readVarLong() {
+            return readLong();
+        }
+
+        @Override
+        public float readFloat() {
+            return (float) Objects.requireNonNull(values.remove());
+        }
+
+        @Override
+        public double readDouble() {
+            return (double) Objects.requireNonNull(values.remove());
+        }
+
+        @Override
+        public @Nullable String readString() {
+            return (String) values.remove();
+        }
+
+        @Override
+        public void readBytes(final byte[] bytes, final int offset, final int length) {
+            System.arraycopy((byte[]) Objects.requireNonNull(values.remove()), 0, bytes, offset, length);
+        }
+    }
+}
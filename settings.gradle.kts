@@ -2,3 +2,5 @@ rootProject.name = "javelin-parent"
 
 include(":javelin-core")
 include(":javelin-mindustry")
+include(":javelin-processor")
+include(":javelin-benchmarks")